@@ -0,0 +1,11 @@
+#!/bin/bash
+# Runs the given benchmarks once per thread count with the GC profiler and keeps the JSON results
+# under results/<label>, so two releases can be compared side by side.
+#   LABEL=1.2.0 THREADS="1 8 64" ./run-matrix.sh "PutObjectBenchmark|GetObjectBenchmark"
+LABEL=${LABEL:-$(date +%Y%m%d-%H%M%S)}
+THREADS=${THREADS:-"1 4 16 64"}
+mkdir -p "results/$LABEL"
+for t in $THREADS; do
+    java -jar target/benchmarks.jar "$@" -t "$t" -prof gc \
+        -rf json -rff "results/$LABEL/threads-$t.json" || exit 1
+done
@@ -0,0 +1,2 @@
+@ECHO OFF
+java -jar target/benchmarks.jar %*
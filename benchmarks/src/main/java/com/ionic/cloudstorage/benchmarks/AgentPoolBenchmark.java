@@ -0,0 +1,71 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as
+ * the Terms & Conditions (https://dev.ionic.com/use) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.benchmarks;
+
+import com.ionic.cloudstorage.awss3.IonicAgentPool;
+import com.ionic.sdk.agent.Agent;
+import com.ionic.sdk.agent.data.MetadataMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the per-request cost of cloning the provider's Agent, as every key operation used to
+ * do, with borrowing a clone from an {@link IonicAgentPool}. Run with {@code -prof gc} to see the
+ * allocation saved per operation.
+ *
+ * <pre>
+ * ./run.sh AgentPoolBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(64)
+public class AgentPoolBenchmark {
+
+    private Agent agent;
+    private IonicAgentPool pool;
+
+    @Setup
+    public void setup() {
+        agent = new Agent();
+        MetadataMap metadata = new MetadataMap();
+        metadata.set("ionic-application-name", "machina-tools-aws-s3-benchmarks");
+        metadata.set("ionic-application-version", "1.2.0");
+        agent.setMetadata(metadata);
+        pool = new IonicAgentPool(agent);
+    }
+
+    @Benchmark
+    public void cloneAgent(Blackhole bh) {
+        bh.consume(Agent.clone(agent));
+    }
+
+    @Benchmark
+    public void borrowAgent(Blackhole bh) {
+        Agent borrowed = pool.borrow();
+        try {
+            bh.consume(borrowed);
+        } finally {
+            pool.release(borrowed);
+        }
+    }
+}
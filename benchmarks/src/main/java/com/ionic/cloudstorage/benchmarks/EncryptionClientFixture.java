@@ -0,0 +1,81 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as
+ * the Terms & Conditions (https://dev.ionic.com/use) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.benchmarks;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.AnonymousAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder.EndpointConfiguration;
+import com.amazonaws.services.s3.model.CryptoConfiguration;
+import com.amazonaws.services.s3.model.CryptoMode;
+import com.ionic.cloudstorage.awss3.InMemoryKeyService;
+import com.ionic.cloudstorage.awss3.IonicEncryptionMaterialsProvider;
+import com.ionic.cloudstorage.awss3.IonicS3EncryptionClient;
+import com.ionic.cloudstorage.awss3.IonicS3EncryptionClientBuilder;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An IonicS3EncryptionClient wired to a {@link FakeS3Server} and an {@link InMemoryKeyService},
+ * shared by the put and get benchmarks.
+ */
+class EncryptionClientFixture {
+    static final String BUCKET = "benchmark-bucket";
+
+    final FakeS3Server s3;
+    final InMemoryKeyService keyService;
+    final IonicEncryptionMaterialsProvider provider;
+    final IonicS3EncryptionClient client;
+    final byte[] block;
+
+    /**
+     * Starts the stand-ins and builds a client.
+     *
+     * @param cryptoMode the name of a {@link CryptoMode}.
+     * @param s3LatencyMicros delay added to every S3 response.
+     * @param keyLatencyMicros delay added to every key creation and fetch.
+     * @param maxKeys the number of keys the key service keeps.
+     */
+    EncryptionClientFixture(String cryptoMode, long s3LatencyMicros, long keyLatencyMicros,
+            int maxKeys) throws IOException {
+        s3 = new FakeS3Server();
+        s3.setLatency(s3LatencyMicros, TimeUnit.MICROSECONDS);
+        keyService = new InMemoryKeyService(InMemoryKeyService.DEFAULT_KEYSPACE, maxKeys);
+        setKeyLatency(keyLatencyMicros);
+        provider = new IonicEncryptionMaterialsProvider();
+        provider.setKeyService(keyService);
+        // The authenticated modes need Bouncy Castle, which the benchmark module depends on.
+        client = (IonicS3EncryptionClient) IonicS3EncryptionClientBuilder.standard()
+                .withEncryptionMaterials(provider)
+                .withCryptoConfiguration(new CryptoConfiguration(CryptoMode.valueOf(cryptoMode)))
+                .withCredentials(new AWSStaticCredentialsProvider(new AnonymousAWSCredentials()))
+                .withEndpointConfiguration(new EndpointConfiguration(s3.getEndpoint(), "us-east-1"))
+                .withPathStyleAccessEnabled(true)
+                .withClientConfiguration(new ClientConfiguration().withMaxConnections(256))
+                .build();
+        // Incompressible content, so results do not depend on the payload pattern.
+        block = new byte[1024 * 1024];
+        ThreadLocalRandom.current().nextBytes(block);
+    }
+
+    void setKeyLatency(long keyLatencyMicros) {
+        InMemoryKeyService.Latency latency =
+                InMemoryKeyService.Latency.fixed(keyLatencyMicros, TimeUnit.MICROSECONDS);
+        keyService.setCreateLatency(latency);
+        keyService.setGetLatency(latency);
+    }
+
+    PatternInputStream payload(long size) {
+        return new PatternInputStream(block, size);
+    }
+
+    void shutdown() {
+        client.shutdown();
+        s3.stop();
+    }
+}
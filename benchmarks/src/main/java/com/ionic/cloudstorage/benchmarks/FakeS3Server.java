@@ -0,0 +1,379 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as
+ * the Terms & Conditions (https://dev.ionic.com/use) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.benchmarks;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A minimal in-process stand-in for the S3 object API, good enough for the v1 SDK to PUT, GET,
+ * HEAD and DELETE objects with path-style addressing and anonymous credentials, and to upload them
+ * in parts. GETs honor a single byte Range and an If-Match ETag.
+ *
+ * <p>Objects live in memory together with their x-amz-meta-* headers, which is where the
+ * encryption client keeps its envelope. When content is not retained, PUT bodies are only hashed
+ * for the ETag, so put benchmarks with large payloads do not need the heap to hold them.
+ */
+public class FakeS3Server {
+    private static final String META_PREFIX = "x-amz-meta-";
+
+    static {
+        // Without TCP_NODELAY, responses written as separate header and body segments stall on
+        // the client's delayed ACK, adding about 40 ms to every request. The JDK server reads this
+        // property once, when the first HttpServer is created.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ConcurrentHashMap<String, StoredObject> objects =
+            new ConcurrentHashMap<String, StoredObject>();
+    private final ConcurrentHashMap<String, MultipartUpload> uploads =
+            new ConcurrentHashMap<String, MultipartUpload>();
+    private final AtomicLong uploadIds = new AtomicLong();
+
+    private volatile long latencyMicros;
+    private volatile boolean retainContent = true;
+
+    /**
+     * Starts a FakeS3Server on an ephemeral loopback port.
+     *
+     * @throws IOException if the server socket cannot be bound.
+     */
+    public FakeS3Server() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "fake-s3");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    FakeS3Server.this.handle(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * Returns the endpoint URL to configure the S3 client with.
+     *
+     * @return an http URL on the loopback interface.
+     */
+    public String getEndpoint() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    /**
+     * Sets a delay applied to every response, to model the network and service time of S3.
+     *
+     * @param latency the delay.
+     * @param unit the unit of latency.
+     */
+    public void setLatency(long latency, TimeUnit unit) {
+        this.latencyMicros = unit.toMicros(latency);
+    }
+
+    /**
+     * Sets whether PUT bodies are kept. When false, objects read back have empty content.
+     *
+     * @param retainContent whether to keep object content.
+     */
+    public void setRetainContent(boolean retainContent) {
+        this.retainContent = retainContent;
+    }
+
+    public int getObjectCount() {
+        return objects.size();
+    }
+
+    public void clear() {
+        objects.clear();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        long latency = this.latencyMicros;
+        if (latency > 0) {
+            try {
+                TimeUnit.MICROSECONDS.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        String path = exchange.getRequestURI().getPath();
+        String method = exchange.getRequestMethod();
+        Map<String, String> query = query(exchange);
+        if (query.containsKey("uploads") || query.containsKey("uploadId")) {
+            multipart(exchange, path, method, query);
+        } else if ("PUT".equals(method)) {
+            put(exchange, path);
+        } else if ("GET".equals(method) || "HEAD".equals(method)) {
+            StoredObject object = objects.get(path);
+            if (object == null) {
+                sendError(exchange, 404, "NoSuchKey", "The specified key does not exist.");
+            } else {
+                get(exchange, object, "HEAD".equals(method));
+            }
+        } else if ("DELETE".equals(method)) {
+            objects.remove(path);
+            exchange.sendResponseHeaders(204, -1);
+        } else {
+            sendError(exchange, 405, "MethodNotAllowed", "Unsupported method " + method);
+        }
+    }
+
+    private void put(HttpExchange exchange, String path) throws IOException {
+        MessageDigest md5 = md5();
+        byte[] content = readBody(exchange, md5);
+        StoredObject object = new StoredObject(content, storedHeaders(exchange),
+                toHex(md5.digest()));
+        objects.put(path, object);
+        exchange.getResponseHeaders().set("ETag", "\"" + object.etag + "\"");
+        exchange.sendResponseHeaders(200, -1);
+    }
+
+    private void multipart(HttpExchange exchange, String path, String method,
+            Map<String, String> query) throws IOException {
+        String uploadId = query.get("uploadId");
+        if ("POST".equals(method) && uploadId == null) {
+            uploadId = "upload-" + uploadIds.incrementAndGet();
+            uploads.put(uploadId, new MultipartUpload(storedHeaders(exchange)));
+            int slash = path.indexOf('/', 1);
+            sendXml(exchange, "<InitiateMultipartUploadResult><Bucket>"
+                    + path.substring(1, slash) + "</Bucket><Key>" + path.substring(slash + 1)
+                    + "</Key><UploadId>" + uploadId + "</UploadId></InitiateMultipartUploadResult>");
+            return;
+        }
+        MultipartUpload upload = uploads.get(uploadId);
+        if (upload == null) {
+            sendError(exchange, 404, "NoSuchUpload", "The specified upload does not exist.");
+        } else if ("PUT".equals(method)) {
+            MessageDigest md5 = md5();
+            byte[] content = readBody(exchange, md5);
+            String etag = toHex(md5.digest());
+            upload.parts.put(Integer.valueOf(query.get("partNumber")), content);
+            exchange.getResponseHeaders().set("ETag", "\"" + etag + "\"");
+            exchange.sendResponseHeaders(200, -1);
+        } else if ("POST".equals(method)) {
+            readBody(exchange, md5());
+            uploads.remove(uploadId);
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            for (byte[] part : upload.parts.values()) {
+                content.write(part);
+            }
+            byte[] bytes = content.toByteArray();
+            MessageDigest md5 = md5();
+            md5.update(bytes);
+            StoredObject object = new StoredObject(bytes, upload.headers,
+                    toHex(md5.digest()) + "-" + upload.parts.size());
+            objects.put(path, object);
+            sendXml(exchange, "<CompleteMultipartUploadResult><Location>" + path
+                    + "</Location><Bucket>" + path.substring(1, path.indexOf('/', 1))
+                    + "</Bucket><Key>" + path.substring(path.indexOf('/', 1) + 1)
+                    + "</Key><ETag>&quot;" + object.etag + "&quot;</ETag>"
+                    + "</CompleteMultipartUploadResult>");
+        } else if ("DELETE".equals(method)) {
+            uploads.remove(uploadId);
+            exchange.sendResponseHeaders(204, -1);
+        } else {
+            sendError(exchange, 405, "MethodNotAllowed", "Unsupported method " + method);
+        }
+    }
+
+    /**
+     * Reads a request body into md5, returning it too unless content is not retained.
+     */
+    private byte[] readBody(HttpExchange exchange, MessageDigest md5) throws IOException {
+        ByteArrayOutputStream content = retainContent ? new ByteArrayOutputStream() : null;
+        byte[] buffer = new byte[64 * 1024];
+        InputStream in = exchange.getRequestBody();
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            md5.update(buffer, 0, read);
+            if (content != null) {
+                content.write(buffer, 0, read);
+            }
+        }
+        return content == null ? new byte[0] : content.toByteArray();
+    }
+
+    private static Map<String, String> storedHeaders(HttpExchange exchange) {
+        TreeMap<String, String> headers = new TreeMap<String, String>();
+        for (Map.Entry<String, List<String>> header : exchange.getRequestHeaders().entrySet()) {
+            String name = header.getKey().toLowerCase(Locale.ROOT);
+            if (name.startsWith(META_PREFIX) || name.equals("content-type")) {
+                headers.put(name, header.getValue().get(0));
+            }
+        }
+        return headers;
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) {
+        TreeMap<String, String> query = new TreeMap<String, String>();
+        String raw = exchange.getRequestURI().getQuery();
+        if (raw != null) {
+            for (String parameter : raw.split("&")) {
+                int equals = parameter.indexOf('=');
+                if (equals < 0) {
+                    query.put(parameter, "");
+                } else {
+                    query.put(parameter.substring(0, equals), parameter.substring(equals + 1));
+                }
+            }
+        }
+        return query;
+    }
+
+    private static void sendXml(HttpExchange exchange, String xml) throws IOException {
+        byte[] body = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>" + xml)
+                .getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/xml");
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private void get(HttpExchange exchange, StoredObject object, boolean headOnly)
+            throws IOException {
+        Headers response = exchange.getResponseHeaders();
+        for (Map.Entry<String, String> header : object.headers.entrySet()) {
+            response.set(header.getKey(), header.getValue());
+        }
+        response.set("ETag", "\"" + object.etag + "\"");
+        response.set("Last-Modified", object.lastModified);
+        if (headOnly) {
+            response.set("Content-Length", String.valueOf(object.content.length));
+            // The JDK server mishandles the next request on a connection that served a HEAD, so
+            // the client would see it fail and retry after a backoff.
+            response.set("Connection", "close");
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        String ifMatch = exchange.getRequestHeaders().getFirst("If-Match");
+        if (ifMatch != null && !ifMatch.replace("\"", "").equals(object.etag)) {
+            sendError(exchange, 412, "PreconditionFailed",
+                    "At least one of the preconditions you specified did not hold.");
+            return;
+        }
+        int start = 0;
+        int end = object.content.length;
+        int status = 200;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null && range.startsWith("bytes=") && end > 0) {
+            String[] bounds = range.substring("bytes=".length()).split("-", 2);
+            start = (int) Math.min(Long.parseLong(bounds[0]), end - 1);
+            if (!bounds[1].isEmpty()) {
+                end = (int) Math.min(Long.parseLong(bounds[1]) + 1, end);
+            }
+            response.set("Content-Range",
+                    "bytes " + start + "-" + (end - 1) + "/" + object.content.length);
+            status = 206;
+        }
+        exchange.sendResponseHeaders(status, end == start ? -1 : end - start);
+        OutputStream out = exchange.getResponseBody();
+        out.write(object.content, start, end - start);
+        out.flush();
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String code, String message)
+            throws IOException {
+        byte[] body = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?><Error><Code>" + code
+                + "</Code><Message>" + message + "</Message><RequestId>fake</RequestId></Error>")
+                .getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/xml");
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    private static class StoredObject {
+        private final byte[] content;
+        private final Map<String, String> headers;
+        private final String etag;
+        private final String lastModified;
+
+        StoredObject(byte[] content, Map<String, String> headers, String etag) {
+            this.content = content;
+            this.headers = headers;
+            this.etag = etag;
+            SimpleDateFormat format =
+                    new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            this.lastModified = format.format(new Date());
+        }
+    }
+
+    private static class MultipartUpload {
+        private final Map<String, String> headers;
+        private final ConcurrentSkipListMap<Integer, byte[]> parts =
+                new ConcurrentSkipListMap<Integer, byte[]>();
+
+        MultipartUpload(Map<String, String> headers) {
+            this.headers = headers;
+        }
+    }
+}
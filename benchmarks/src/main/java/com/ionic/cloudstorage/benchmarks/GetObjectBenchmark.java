@@ -0,0 +1,152 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as
+ * the Terms & Conditions (https://dev.ionic.com/use) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.benchmarks;
+
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.ionic.cloudstorage.awss3.InMemoryKeyService;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@code IonicS3EncryptionClient.getObject} end to end against the in-process S3 and key
+ * service stand-ins: the download, key retrieval and decryption of the whole payload. All threads
+ * read one object uploaded during setup. {@code getObjectToFile} downloads it to a file instead,
+ * in parallel ranges when {@code parallelism} is above 1.
+ *
+ * <pre>
+ * ./run.sh GetObjectBenchmark -t 16 -p payloadSize=1048576 -p keyLatencyMicros=2000 -prof gc
+ * ./run.sh GetObjectBenchmark -p payloadSize=67108864 -p keyLatencyMicros=20000 \
+ *     -p readAheadBytes=0,8388608 -p keyPrefetch=false,true
+ * ./run.sh GetObjectBenchmark.getObjectToFile -p payloadSize=1073741824 \
+ *     -p cryptoMode=EncryptionOnly -p s3LatencyMicros=20000 -p parallelism=1,8
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class GetObjectBenchmark {
+    private static final String KEY = "get/object";
+
+    @Param({"1024", "1048576", "67108864", "1073741824"})
+    public long payloadSize;
+
+    @Param({"EncryptionOnly", "AuthenticatedEncryption", "StrictAuthenticatedEncryption"})
+    public String cryptoMode;
+
+    @Param({"0"})
+    public long keyLatencyMicros;
+
+    @Param({"0"})
+    public long s3LatencyMicros;
+
+    @Param({"false"})
+    public boolean keyPrefetch;
+
+    @Param({"0"})
+    public int readAheadBytes;
+
+    @Param({"1"})
+    public int parallelism;
+
+    private EncryptionClientFixture fixture;
+
+    @Setup
+    public void setup() throws IOException {
+        // Upload without injected latency, then apply it to the measured reads only.
+        fixture = new EncryptionClientFixture(cryptoMode, 0, 0,
+                InMemoryKeyService.DEFAULT_MAX_KEYS);
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(payloadSize);
+        fixture.client.putObject(new PutObjectRequest(EncryptionClientFixture.BUCKET, KEY,
+                fixture.payload(payloadSize), metadata));
+        fixture.s3.setLatency(s3LatencyMicros, TimeUnit.MICROSECONDS);
+        fixture.setKeyLatency(keyLatencyMicros);
+        fixture.client.setKeyPrefetchEnabled(keyPrefetch);
+        fixture.client.setReadAheadBytes(readAheadBytes);
+    }
+
+    @TearDown
+    public void tearDown() {
+        fixture.shutdown();
+    }
+
+    /**
+     * The buffer one benchmark thread drains object content into.
+     */
+    @State(Scope.Thread)
+    public static class ReadBuffer {
+        final byte[] buffer = new byte[64 * 1024];
+    }
+
+    /**
+     * The file one benchmark thread downloads to.
+     */
+    @State(Scope.Thread)
+    public static class Destination {
+        File file;
+
+        @Setup
+        public void setup() throws IOException {
+            file = File.createTempFile("get-object-benchmark", ".bin");
+        }
+
+        @TearDown
+        public void tearDown() {
+            file.delete();
+        }
+    }
+
+    @Benchmark
+    public long getObject(ReadBuffer buffer) throws IOException {
+        long total = 0;
+        S3Object object = fixture.client.getObject(EncryptionClientFixture.BUCKET, KEY);
+        InputStream in = object.getObjectContent();
+        try {
+            int read;
+            while ((read = in.read(buffer.buffer)) != -1) {
+                total += read;
+            }
+        } finally {
+            in.close();
+        }
+        if (total != payloadSize) {
+            throw new IllegalStateException("Read " + total + " of " + payloadSize + " bytes");
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long getObjectToFile(Destination destination) {
+        fixture.client.getObjectParallel(new GetObjectRequest(EncryptionClientFixture.BUCKET, KEY),
+                destination.file, parallelism);
+        long length = destination.file.length();
+        if (length != payloadSize) {
+            throw new IllegalStateException("Wrote " + length + " of " + payloadSize + " bytes");
+        }
+        return length;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as
+ * the Terms & Conditions (https://dev.ionic.com/use) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.benchmarks;
+
+import com.amazonaws.util.json.Jackson;
+import com.ionic.cloudstorage.awss3.IonicMaterialsDescription;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares reading the Ionic key id from an {@code x-amz-matdesc} value with
+ * {@link IonicMaterialsDescription} against the split-based parsing it replaced, on descriptions
+ * as the SDK writes them: the Ionic entries alone, and with a number of captured user metadata
+ * entries up to the size S3 allows.
+ *
+ * <pre>
+ * ./run.sh MaterialsDescriptionBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MaterialsDescriptionBenchmark {
+    private static final String KEY_ID_NAME = "ionic-key-id";
+
+    /** Captured metadata entries; 48 puts the description near S3's 2 KB metadata limit. */
+    @Param({"0", "8", "48"})
+    public int capturedEntries;
+
+    private String matdesc;
+
+    @Setup
+    public void setup() {
+        Map<String, String> desc = new HashMap<String, String>();
+        desc.put(KEY_ID_NAME, "D7GH0000001");
+        desc.put("ionic-s3-version", "1.0.0");
+        for (int i = 0; i < capturedEntries; i++) {
+            desc.put("x-attr-" + i, "classification-value-" + i);
+        }
+        matdesc = Jackson.toJsonString(desc);
+    }
+
+    @Benchmark
+    public String splitParser() {
+        String desc = matdesc.substring(1, matdesc.length());
+        String[] descriptions = desc.split(",");
+        String keyId = null;
+        String pattern = "\"" + KEY_ID_NAME + "\":\"";
+        for (String entry : descriptions) {
+            if (entry.startsWith(pattern)) {
+                keyId = entry.substring(pattern.length(), pattern.length() + 11);
+            }
+        }
+        return keyId;
+    }
+
+    @Benchmark
+    public String singlePassReader() {
+        return IonicMaterialsDescription.getKeyId(matdesc);
+    }
+}
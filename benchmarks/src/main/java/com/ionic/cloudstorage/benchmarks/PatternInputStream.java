@@ -0,0 +1,75 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as
+ * the Terms & Conditions (https://dev.ionic.com/use) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.benchmarks;
+
+import java.io.InputStream;
+
+/**
+ * An InputStream of a given length that repeats a shared block of bytes, so payloads of up to
+ * gigabytes can be uploaded without allocating them.
+ */
+class PatternInputStream extends InputStream {
+    private final byte[] block;
+    private final long length;
+    private long position;
+    private long mark;
+
+    PatternInputStream(byte[] block, long length) {
+        this.block = block;
+        this.length = length;
+    }
+
+    @Override
+    public int read() {
+        if (position >= length) {
+            return -1;
+        }
+        return block[(int) (position++ % block.length)] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= length) {
+            return -1;
+        }
+        int offset = (int) (position % block.length);
+        int n = (int) Math.min(Math.min(len, block.length - offset), length - position);
+        System.arraycopy(block, offset, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = Math.max(0, Math.min(n, length - position));
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, length - position);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        mark = position;
+    }
+
+    @Override
+    public synchronized void reset() {
+        position = mark;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as
+ * the Terms & Conditions (https://dev.ionic.com/use) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.benchmarks;
+
+import com.amazonaws.services.s3.model.EncryptionMaterials;
+import com.ionic.cloudstorage.awss3.InMemoryKeyService;
+import com.ionic.cloudstorage.awss3.IonicEncryptionMaterialsProvider;
+import com.ionic.cloudstorage.awss3.IonicKeyCache;
+import com.ionic.cloudstorage.awss3.IonicKeyPool;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the materials provider in isolation, without S3, against an {@link InMemoryKeyService}
+ * with a fixed injected latency: key creation with and without the key pool, and key retrieval
+ * with and without the key cache, synchronously and through the asynchronous API.
+ *
+ * <pre>
+ * ./run.sh ProviderBenchmark -t 8 -p keyLatencyMicros=2000 -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProviderBenchmark {
+
+    @Param({"1024"})
+    public int distinctKeys;
+
+    @Param({"0"})
+    public long keyLatencyMicros;
+
+    private IonicEncryptionMaterialsProvider provider;
+    private IonicEncryptionMaterialsProvider pooledProvider;
+    private IonicEncryptionMaterialsProvider cachedProvider;
+    private IonicKeyPool keyPool;
+    private Map<String, String>[] descriptions;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        InMemoryKeyService keyService = new InMemoryKeyService();
+        provider = newProvider(keyService);
+        pooledProvider = newProvider(keyService);
+        keyPool = new IonicKeyPool();
+        pooledProvider.setKeyPool(keyPool);
+        cachedProvider = newProvider(keyService);
+        cachedProvider.setKeyCache(new IonicKeyCache(distinctKeys, 1, TimeUnit.DAYS));
+
+        descriptions = new Map[distinctKeys];
+        for (int i = 0; i < distinctKeys; i++) {
+            String keyId = provider.getEncryptionMaterials().getMaterialsDescription()
+                    .get("ionic-key-id");
+            descriptions[i] = new HashMap<String, String>();
+            descriptions[i].put("ionic-key-id", keyId);
+            cachedProvider.getEncryptionMaterials(descriptions[i]);
+        }
+        InMemoryKeyService.Latency latency =
+                InMemoryKeyService.Latency.fixed(keyLatencyMicros, TimeUnit.MICROSECONDS);
+        keyService.setCreateLatency(latency);
+        keyService.setGetLatency(latency);
+    }
+
+    @TearDown
+    public void tearDown() {
+        keyPool.shutdown();
+    }
+
+    private static IonicEncryptionMaterialsProvider newProvider(InMemoryKeyService keyService) {
+        IonicEncryptionMaterialsProvider provider = new IonicEncryptionMaterialsProvider();
+        provider.setKeyService(keyService);
+        return provider;
+    }
+
+    private Map<String, String> nextDescription() {
+        return descriptions[ThreadLocalRandom.current().nextInt(distinctKeys)];
+    }
+
+    @Benchmark
+    public EncryptionMaterials generate() {
+        return provider.getEncryptionMaterials();
+    }
+
+    @Benchmark
+    public EncryptionMaterials generatePooled() {
+        return pooledProvider.getEncryptionMaterials();
+    }
+
+    @Benchmark
+    public EncryptionMaterials retrieve() {
+        return provider.getEncryptionMaterials(nextDescription());
+    }
+
+    @Benchmark
+    public EncryptionMaterials retrieveCached() {
+        return cachedProvider.getEncryptionMaterials(nextDescription());
+    }
+
+    @Benchmark
+    public EncryptionMaterials retrieveCachedAsync() {
+        return cachedProvider.getEncryptionMaterialsAsync(nextDescription()).join();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as
+ * the Terms & Conditions (https://dev.ionic.com/use) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.benchmarks;
+
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.UploadObjectRequest;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@code IonicS3EncryptionClient.putObject} end to end against the in-process S3 and key
+ * service stand-ins: key creation, envelope encryption of the payload and the upload itself.
+ * Every thread overwrites its own object, and uploaded content is hashed but not kept.
+ * {@code uploadObject} uploads the payload in parts of {@code partSize} with
+ * {@code IonicS3EncryptionClient.uploadObject}.
+ *
+ * <pre>
+ * ./run.sh PutObjectBenchmark -t 16 -p payloadSize=1048576 -p keyLatencyMicros=2000 -prof gc
+ * ./run.sh PutObjectBenchmark.uploadObject -p payloadSize=1073741824 -p s3LatencyMicros=20000
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class PutObjectBenchmark {
+
+    @Param({"1024", "1048576", "67108864", "1073741824"})
+    public long payloadSize;
+
+    @Param({"EncryptionOnly", "AuthenticatedEncryption"})
+    public String cryptoMode;
+
+    @Param({"0"})
+    public long keyLatencyMicros;
+
+    @Param({"0"})
+    public long s3LatencyMicros;
+
+    @Param({"8388608"})
+    public long partSize;
+
+    private EncryptionClientFixture fixture;
+
+    @Setup
+    public void setup() throws IOException {
+        // Nothing reads the keys back, so the key service only needs to keep a few.
+        fixture = new EncryptionClientFixture(cryptoMode, s3LatencyMicros, keyLatencyMicros, 1024);
+        fixture.s3.setRetainContent(false);
+    }
+
+    @TearDown
+    public void tearDown() {
+        fixture.shutdown();
+    }
+
+    /**
+     * The object key written by one benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class ThreadObject {
+        private static final AtomicInteger THREADS = new AtomicInteger();
+
+        final String key = "put/thread-" + THREADS.incrementAndGet();
+    }
+
+    @Benchmark
+    public PutObjectResult putObject(ThreadObject object) {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(payloadSize);
+        return fixture.client.putObject(new PutObjectRequest(EncryptionClientFixture.BUCKET,
+                object.key, fixture.payload(payloadSize), metadata));
+    }
+
+    @Benchmark
+    public CompleteMultipartUploadResult uploadObject(ThreadObject object)
+            throws IOException, InterruptedException, ExecutionException {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(payloadSize);
+        return fixture.client.uploadObject(new UploadObjectRequest(EncryptionClientFixture.BUCKET,
+                object.key, fixture.payload(payloadSize), metadata).withPartSize(partSize));
+    }
+}
@@ -15,14 +15,10 @@ import com.amazonaws.SdkClientException;
 import com.amazonaws.services.s3.AmazonS3Encryption;
 import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
-import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
-import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
-import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
 import com.amazonaws.services.s3.model.ObjectMetadata;
-import com.amazonaws.services.s3.model.PartETag;
 import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.S3Object;
-import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadObjectRequest;
 import com.amazonaws.util.IOUtils;
 import com.amazonaws.util.StringUtils;
 import com.ionic.cloudstorage.awss3.IonicEncryptionMaterialsProvider;
@@ -44,8 +40,8 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -187,8 +183,6 @@ public class S3SampleApp {
 
         File file = srcFilePath.toFile();
 
-        List<PartETag> partETags = new ArrayList<PartETag>();
-
         long contentLength = file.length();
         if (partSizeBytes <= 0) {
             System.out.println("Invalid partition size");
@@ -221,54 +215,21 @@ public class S3SampleApp {
         System.out.println("With chunk size of " + partSizeBytes + "bytes");
         System.out.println(totalChunksInt + " parts to upload");
 
-        // Step 1: Initiate multipart upload request
-        InitiateMultipartUploadRequest req =
-                new InitiateMultipartUploadRequest(bucketName, objectKey, null);
-        InitiateMultipartUploadResult res;
-        if (attributes != null) {
-            res = s3.initiateMultipartUpload(req, new CreateKeysRequest.Key("", 1, attributes));
-        } else {
-            res = s3.initiateMultipartUpload(req);
-        }
-
-        // Step 2: Upload parts.
-        long filePosition = 0L;
-        for (int i = 1; i <= Math.min(MAX_AWS_SDK_CHUNKS, totalChunksInt); i++) {
-            if (filePosition >= contentLength) {
-                break;
-            }
-            // Last part can be less than 5 MB. Adjust part size.
-            partSizeBytes = Math.min(partSizeBytes, (contentLength - filePosition));
-
-            boolean isLast = i == totalChunksInt;
-
-            // Create request to upload a part.
-            UploadPartRequest uploadRequest =
-                    new UploadPartRequest()
-                    .withBucketName(bucketName)
-                    .withKey(objectKey)
-                    .withUploadId(res.getUploadId())
-                    .withPartNumber(i)
-                    .withFileOffset(filePosition)
-                    .withFile(file)
-                    .withPartSize(partSizeBytes)
-                    .withLastPart(isLast);
-
-            // Upload part and add response to our list.
-            System.out.println("Uploading Part #" + i + " of " + totalChunksInt);
-            partETags.add(s3.uploadPart(uploadRequest).getPartETag());
-            if (isLast) {
-                System.out.println("Uploaded last part");
+        // Parts are encrypted in order and uploaded concurrently as each one is ready.
+        UploadObjectRequest req = new UploadObjectRequest(bucketName, objectKey, file)
+                .withPartSize(partSizeBytes);
+        try {
+            if (attributes != null) {
+                s3.uploadObject(req, new CreateKeysRequest.Key("", 1, attributes));
+            } else {
+                s3.uploadObject(req);
             }
-
-            filePosition += partSizeBytes;
+        } catch (IOException | ExecutionException e) {
+            throw new SdkClientException("Multipart upload failed: " + e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SdkClientException("Multipart upload interrupted", e);
         }
-
-        // Step 3: Complete.
-        CompleteMultipartUploadRequest compRequest = new CompleteMultipartUploadRequest(
-                bucketName, objectKey, res.getUploadId(), partETags);
-
-        s3.completeMultipartUpload(compRequest);
         System.out.println("Upload Complete");
     }
 
@@ -0,0 +1,81 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as
+ * the Terms & Conditions (https://dev.ionic.com/use) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.awss3;
+
+import com.ionic.sdk.agent.Agent;
+import com.ionic.sdk.agent.request.createkey.CreateKeysRequest;
+import com.ionic.sdk.agent.request.createkey.CreateKeysResponse;
+import com.ionic.sdk.agent.request.getkey.GetKeysRequest;
+import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
+import com.ionic.sdk.agent.request.updatekey.UpdateKeysRequest;
+import com.ionic.sdk.agent.request.updatekey.UpdateKeysResponse;
+import com.ionic.sdk.error.IonicException;
+
+/**
+ * The default {@link IonicKeyService}, sending every request to the Ionic key service through an
+ * Agent borrowed from an {@link IonicAgentPool}.
+ */
+public class AgentKeyService implements IonicKeyService {
+    private final IonicAgentPool agentPool;
+
+    /**
+     * Constructs an AgentKeyService with its own pool of clones of agent.
+     *
+     * @param agent an {@link com.ionic.sdk.agent.Agent}.
+     */
+    public AgentKeyService(Agent agent) {
+        this(new IonicAgentPool(agent));
+    }
+
+    /**
+     * Constructs an AgentKeyService borrowing Agents from agentPool.
+     *
+     * @param agentPool an {@link IonicAgentPool}.
+     */
+    public AgentKeyService(IonicAgentPool agentPool) {
+        this.agentPool = agentPool;
+    }
+
+    @Override
+    public CreateKeysResponse createKeys(CreateKeysRequest request) throws IonicException {
+        Agent agent = agentPool.borrow();
+        try {
+            return agent.createKeys(request);
+        } finally {
+            agentPool.release(agent);
+        }
+    }
+
+    @Override
+    public GetKeysResponse getKeys(GetKeysRequest request) throws IonicException {
+        Agent agent = agentPool.borrow();
+        try {
+            return agent.getKeys(request);
+        } finally {
+            agentPool.release(agent);
+        }
+    }
+
+    @Override
+    public UpdateKeysResponse updateKeys(UpdateKeysRequest request) throws IonicException {
+        Agent agent = agentPool.borrow();
+        try {
+            return agent.updateKeys(request);
+        } finally {
+            agentPool.release(agent);
+        }
+    }
+
+    /**
+     * Gets the pool Agents are borrowed from.
+     *
+     * @return the {@link IonicAgentPool}.
+     */
+    public IonicAgentPool getAgentPool() {
+        return agentPool;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as
+ * the Terms & Conditions (https://dev.ionic.com/use) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.awss3;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands values from one call to another, e.g. from {@link IonicS3EncryptionClient} into the
+ * provider callbacks made by the SDK, and back out again.
+ *
+ * <p>Every value is expected to be taken shortly after it was stored. Values that are never taken,
+ * because the request failed in between, are dropped once they are older than the TTL or once
+ * more than capacity values are stored, oldest first, so the map cannot grow without bound. A
+ * value counts against the capacity only until it is taken.
+ *
+ * @param <V> the value type.
+ */
+class BoundedHandoffMap<V> {
+    static final int DEFAULT_CAPACITY = 10000;
+    static final long DEFAULT_TTL_NANOS = 5L * 60 * 1000 * 1000 * 1000;
+
+    private final ConcurrentHashMap<String, Entry<V>> entries =
+            new ConcurrentHashMap<String, Entry<V>>();
+    private final ConcurrentLinkedQueue<Entry<V>> order = new ConcurrentLinkedQueue<Entry<V>>();
+    // Approximate length of order, which also holds entries that were taken or replaced until they
+    // reach its head or a sweep removes them.
+    private final AtomicInteger tracked = new AtomicInteger();
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    private final AtomicLong evictions = new AtomicLong();
+
+    // Correlation ids only need to be unique within this map, so a counter behind a random
+    // per-instance prefix replaces UUID.randomUUID() and its contended SecureRandom.
+    private final String idPrefix =
+            Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36) + "-";
+    private final AtomicLong sequence = new AtomicLong();
+
+    private volatile int capacity;
+    private volatile long ttlNanos;
+
+    BoundedHandoffMap() {
+        this(DEFAULT_CAPACITY, DEFAULT_TTL_NANOS);
+    }
+
+    BoundedHandoffMap(int capacity, long ttlNanos) {
+        setLimits(capacity, ttlNanos);
+    }
+
+    void setLimits(int capacity, long ttlNanos) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        if (ttlNanos <= 0) {
+            throw new IllegalArgumentException("ttl must be positive");
+        }
+        this.capacity = capacity;
+        this.ttlNanos = ttlNanos;
+    }
+
+    /**
+     * Stores value under a new correlation id.
+     *
+     * @return the correlation id.
+     */
+    String store(V value) {
+        String id = idPrefix + Long.toString(sequence.incrementAndGet(), 36);
+        put(id, value);
+        return id;
+    }
+
+    /**
+     * Stores value under id, replacing any value already stored under it.
+     */
+    void put(String id, V value) {
+        long now = System.nanoTime();
+        Entry<V> entry = new Entry<V>(id, value, now + ttlNanos);
+        Entry<V> replaced = entries.put(id, entry);
+        if (replaced != null) {
+            replaced.taken = true;
+        }
+        order.offer(entry);
+        tracked.incrementAndGet();
+        evict(now);
+        if (tracked.get() > 2 * capacity) {
+            sweep();
+        }
+    }
+
+    /**
+     * Removes and returns the value stored under id.
+     *
+     * @return the value, or null if none is stored or it has expired.
+     */
+    V take(String id) {
+        if (id == null) {
+            return null;
+        }
+        Entry<V> entry = entries.remove(id);
+        if (entry == null) {
+            return null;
+        }
+        entry.taken = true;
+        if (entry.isExpired(System.nanoTime())) {
+            evictions.incrementAndGet();
+            return null;
+        }
+        return entry.value;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of entries in the eviction order, including taken ones not yet dropped.
+     */
+    int getQueuedCount() {
+        return order.size();
+    }
+
+    long getEvictionCount() {
+        return evictions.get();
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    long getTtlNanos() {
+        return ttlNanos;
+    }
+
+    private void evict(long now) {
+        while (true) {
+            Entry<V> head = order.peek();
+            if (head == null) {
+                return;
+            }
+            boolean overCapacity = entries.size() > capacity;
+            if (!head.taken && !overCapacity && !head.isExpired(now)) {
+                return;
+            }
+            if (!order.remove(head)) {
+                // Another thread evicted the head concurrently.
+                continue;
+            }
+            tracked.decrementAndGet();
+            if (!head.taken && entries.remove(head.id, head)) {
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Drops the entries that were taken from anywhere in order, once they outnumber the stored
+     * ones, for when an old value that is still stored keeps them from reaching the head.
+     */
+    private void sweep() {
+        if (!sweeping.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            Iterator<Entry<V>> it = order.iterator();
+            while (it.hasNext()) {
+                if (it.next().taken) {
+                    it.remove();
+                }
+            }
+            tracked.set(order.size());
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    private static class Entry<V> {
+        private final String id;
+        private final V value;
+        private final long expiresAt;
+        private volatile boolean taken;
+
+        Entry(String id, V value, long expiresAt) {
+            this.id = id;
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+    }
+}
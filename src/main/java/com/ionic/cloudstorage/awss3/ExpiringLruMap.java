@@ -0,0 +1,128 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as
+ * the Terms & Conditions (https://dev.ionic.com/use) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.awss3;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size-bounded map whose entries expire a fixed time after insertion and whose least recently
+ * used entry is dropped once the map is full. Every value that leaves the map, whether evicted,
+ * expired, replaced or removed, is passed to {@link #onRemoval(Object)}.
+ *
+ * @param <K> the key type.
+ * @param <V> the value type.
+ */
+class ExpiringLruMap<K, V> {
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final LinkedHashMap<K, Entry<V>> map;
+
+    ExpiringLruMap(int maxEntries, long ttlNanos) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be at least 1");
+        }
+        if (ttlNanos <= 0) {
+            throw new IllegalArgumentException("ttl must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.ttlNanos = ttlNanos;
+        this.map = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+    }
+
+    /**
+     * Called, while holding the map lock, for every value that leaves the map.
+     *
+     * @param value the removed value.
+     */
+    protected void onRemoval(V value) {}
+
+    synchronized V get(K key) {
+        Entry<V> entry = map.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(System.nanoTime())) {
+            map.remove(key);
+            onRemoval(entry.value);
+            return null;
+        }
+        return entry.value;
+    }
+
+    synchronized void put(K key, V value) {
+        long now = System.nanoTime();
+        Entry<V> previous = map.put(key, new Entry<V>(value, now + ttlNanos));
+        if (previous != null) {
+            onRemoval(previous.value);
+        }
+        if (map.size() > maxEntries) {
+            purgeExpired(now);
+        }
+        Iterator<Map.Entry<K, Entry<V>>> it = map.entrySet().iterator();
+        while (map.size() > maxEntries && it.hasNext()) {
+            Entry<V> eldest = it.next().getValue();
+            it.remove();
+            onRemoval(eldest.value);
+        }
+    }
+
+    synchronized V remove(K key) {
+        Entry<V> entry = map.remove(key);
+        if (entry == null) {
+            return null;
+        }
+        onRemoval(entry.value);
+        return entry.value;
+    }
+
+    synchronized void clear() {
+        for (Entry<V> entry : map.values()) {
+            onRemoval(entry.value);
+        }
+        map.clear();
+    }
+
+    synchronized int size() {
+        purgeExpired(System.nanoTime());
+        return map.size();
+    }
+
+    int getMaxEntries() {
+        return maxEntries;
+    }
+
+    long getTtlNanos() {
+        return ttlNanos;
+    }
+
+    private void purgeExpired(long now) {
+        Iterator<Entry<V>> it = map.values().iterator();
+        while (it.hasNext()) {
+            Entry<V> entry = it.next();
+            if (entry.isExpired(now)) {
+                it.remove();
+                onRemoval(entry.value);
+            }
+        }
+    }
+
+    private static class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+    }
+}
@@ -0,0 +1,491 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as
+ * the Terms & Conditions (https://dev.ionic.com/use) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.awss3;
+
+import com.ionic.sdk.agent.key.KeyAttributesMap;
+import com.ionic.sdk.agent.key.KeyObligationsMap;
+import com.ionic.sdk.agent.request.createkey.CreateKeysRequest;
+import com.ionic.sdk.agent.request.createkey.CreateKeysResponse;
+import com.ionic.sdk.agent.request.getkey.GetKeysRequest;
+import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
+import com.ionic.sdk.agent.request.updatekey.UpdateKeysRequest;
+import com.ionic.sdk.agent.request.updatekey.UpdateKeysResponse;
+import com.ionic.sdk.error.AgentErrorModuleConstants;
+import com.ionic.sdk.error.IonicException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An {@link IonicKeyService} that keeps its keys in memory, for capacity tests and benchmarks that
+ * must run without an Ionic tenant.
+ *
+ * <p>Each operation waits for a delay drawn from a configurable {@link Latency} distribution,
+ * fails as a whole with a configurable probability, and is subject to {@link DenialRule}s that
+ * deny keys the way a data policy would. Denied or unknown keys are reported as errors in the
+ * response, as the key service does. Once more than maxKeys keys were created the oldest ones are
+ * forgotten.
+ *
+ * <p>Not for production use. Keys live only in this JVM, so objects encrypted under them cannot
+ * be decrypted by any other process, or by this one after it exits or the keys are forgotten, and
+ * no data policy of an Ionic tenant applies to them. {@link IonicS3EncryptionClientBuilder} does
+ * not offer it; tests set it directly with
+ * {@link IonicEncryptionMaterialsProvider#setKeyService(IonicKeyService)}.
+ */
+public class InMemoryKeyService implements IonicKeyService {
+    public static final String DEFAULT_KEYSPACE = "MEMK";
+    public static final int DEFAULT_MAX_KEYS = 1000000;
+
+    private static final String DEVICE_ID = "in-memory-key-service";
+    private static final String ORIGIN = "in-memory";
+
+    private final String keyspace;
+    private final int maxKeys;
+    private final ConcurrentHashMap<String, StoredKey> keys =
+            new ConcurrentHashMap<String, StoredKey>();
+    private final ConcurrentLinkedQueue<String> creationOrder = new ConcurrentLinkedQueue<String>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final SecureRandom secureRandom = new SecureRandom();
+
+    private volatile Latency createLatency = Latency.none();
+    private volatile Latency getLatency = Latency.none();
+    private volatile Latency updateLatency = Latency.none();
+    private volatile double errorRate;
+    private volatile int errorCode = AgentErrorModuleConstants.ISAGENT_REQUESTFAILED;
+    private final CopyOnWriteArrayList<DenialRule> denialRules =
+            new CopyOnWriteArrayList<DenialRule>();
+
+    private final AtomicLong createRequests = new AtomicLong();
+    private final AtomicLong getRequests = new AtomicLong();
+    private final AtomicLong updateRequests = new AtomicLong();
+    private final AtomicLong failedRequests = new AtomicLong();
+    private final AtomicLong deniedKeys = new AtomicLong();
+
+    /**
+     * Constructs an InMemoryKeyService issuing key ids in {@link #DEFAULT_KEYSPACE}.
+     */
+    public InMemoryKeyService() {
+        this(DEFAULT_KEYSPACE, DEFAULT_MAX_KEYS);
+    }
+
+    /**
+     * Constructs an InMemoryKeyService.
+     *
+     * @param keyspace the four character keyspace that prefixes every key id.
+     * @param maxKeys the number of keys kept before the oldest are forgotten.
+     */
+    public InMemoryKeyService(String keyspace, int maxKeys) {
+        if (keyspace == null || keyspace.length() != 4) {
+            throw new IllegalArgumentException("keyspace must be four characters");
+        }
+        if (maxKeys < 1) {
+            throw new IllegalArgumentException("maxKeys must be at least 1");
+        }
+        this.keyspace = keyspace;
+        this.maxKeys = maxKeys;
+    }
+
+    @Override
+    public CreateKeysResponse createKeys(CreateKeysRequest request) throws IonicException {
+        createRequests.incrementAndGet();
+        begin(createLatency);
+        CreateKeysResponse response = new CreateKeysResponse();
+        for (CreateKeysRequest.Key requested : request.getKeys()) {
+            KeyAttributesMap attributes = copyOf(requested.getAttributesMap());
+            if (isDenied(null, attributes)) {
+                deniedKeys.incrementAndGet();
+                throw new IonicException(AgentErrorModuleConstants.ISAGENT_KEY_DENIED);
+            }
+            for (int i = 0; i < Math.max(1, requested.getQuantity()); i++) {
+                StoredKey key = store(attributes, copyOf(requested.getMutableAttributesMap()));
+                response.add(new CreateKeysResponse.Key(requested.getRefId(), key.id,
+                        key.secret.clone(), DEVICE_ID, copyOf(key.attributes),
+                        copyOf(key.mutableAttributes), new KeyObligationsMap(), ORIGIN));
+            }
+        }
+        return response;
+    }
+
+    @Override
+    public GetKeysResponse getKeys(GetKeysRequest request) throws IonicException {
+        getRequests.incrementAndGet();
+        begin(getLatency);
+        GetKeysResponse response = new GetKeysResponse();
+        for (String keyId : request.getKeyIds()) {
+            StoredKey key = keys.get(keyId);
+            if (key == null) {
+                response.add(new GetKeysResponse.IonicError(keyId,
+                        AgentErrorModuleConstants.ISAGENT_RESOURCE_NOT_FOUND, 0,
+                        "Key not found"));
+            } else if (isDenied(keyId, key.attributes)) {
+                deniedKeys.incrementAndGet();
+                response.add(new GetKeysResponse.IonicError(keyId,
+                        AgentErrorModuleConstants.ISAGENT_KEY_DENIED, 0,
+                        "Key access denied by policy"));
+            } else {
+                response.add(new GetKeysResponse.Key(key.id, key.secret.clone(), DEVICE_ID,
+                        copyOf(key.attributes), copyOf(key.mutableAttributes),
+                        new KeyObligationsMap(), ORIGIN, null, null));
+            }
+        }
+        return response;
+    }
+
+    @Override
+    public UpdateKeysResponse updateKeys(UpdateKeysRequest request) throws IonicException {
+        updateRequests.incrementAndGet();
+        begin(updateLatency);
+        UpdateKeysResponse response = new UpdateKeysResponse();
+        for (UpdateKeysRequest.Key requested : request.getKeys()) {
+            String keyId = requested.getId();
+            StoredKey key = keys.get(keyId);
+            if (key == null) {
+                response.add(new UpdateKeysResponse.IonicError(keyId,
+                        AgentErrorModuleConstants.ISAGENT_RESOURCE_NOT_FOUND, 0,
+                        "Key not found"));
+            } else if (isDenied(keyId, key.attributes)) {
+                deniedKeys.incrementAndGet();
+                response.add(new UpdateKeysResponse.IonicError(keyId,
+                        AgentErrorModuleConstants.ISAGENT_KEY_DENIED, 0,
+                        "Key access denied by policy"));
+            } else {
+                key.mutableAttributes = copyOf(requested.getMutableAttributesMap());
+                response.add(new UpdateKeysResponse.Key(key.id, key.secret.clone(), DEVICE_ID,
+                        copyOf(key.attributes), copyOf(key.mutableAttributes),
+                        new KeyObligationsMap(), ORIGIN));
+            }
+        }
+        return response;
+    }
+
+    private void begin(Latency latency) throws IonicException {
+        long delay = latency.nextNanos();
+        if (delay > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        double rate = this.errorRate;
+        if (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate) {
+            failedRequests.incrementAndGet();
+            throw new IonicException(errorCode, "Injected key service failure");
+        }
+    }
+
+    private StoredKey store(KeyAttributesMap attributes, KeyAttributesMap mutableAttributes) {
+        String suffix = Long.toString(sequence.incrementAndGet(), 36);
+        StringBuilder id = new StringBuilder(11).append(keyspace);
+        for (int i = suffix.length(); i < 7; i++) {
+            id.append('0');
+        }
+        byte[] secret = new byte[32];
+        secureRandom.nextBytes(secret);
+        StoredKey key = new StoredKey(id.append(suffix).toString(), secret, attributes,
+                mutableAttributes);
+        keys.put(key.id, key);
+        creationOrder.offer(key.id);
+        while (keys.size() > maxKeys) {
+            String oldest = creationOrder.poll();
+            if (oldest == null) {
+                break;
+            }
+            keys.remove(oldest);
+        }
+        return key;
+    }
+
+    private boolean isDenied(String keyId, KeyAttributesMap attributes) {
+        for (DenialRule rule : denialRules) {
+            if (rule.isDenied(keyId, attributes)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sets the delay of every createKeys request.
+     *
+     * @param latency a {@link Latency}.
+     */
+    public void setCreateLatency(Latency latency) {
+        this.createLatency = latency == null ? Latency.none() : latency;
+    }
+
+    /**
+     * Sets the delay of every getKeys request.
+     *
+     * @param latency a {@link Latency}.
+     */
+    public void setGetLatency(Latency latency) {
+        this.getLatency = latency == null ? Latency.none() : latency;
+    }
+
+    /**
+     * Sets the delay of every updateKeys request.
+     *
+     * @param latency a {@link Latency}.
+     */
+    public void setUpdateLatency(Latency latency) {
+        this.updateLatency = latency == null ? Latency.none() : latency;
+    }
+
+    /**
+     * Makes a fraction of all requests fail with an IonicException after their delay.
+     *
+     * @param errorRate the probability, between 0 and 1, that a request fails.
+     * @param returnCode the return code of the injected IonicException, e.g.
+     *     {@link com.ionic.sdk.error.AgentErrorModuleConstants#ISAGENT_REQUESTFAILED}.
+     */
+    public void setErrorRate(double errorRate, int returnCode) {
+        if (errorRate < 0 || errorRate > 1) {
+            throw new IllegalArgumentException("errorRate must be between 0 and 1");
+        }
+        this.errorCode = returnCode;
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * Adds a rule denying access to keys.
+     *
+     * @param rule a {@link DenialRule}.
+     */
+    public void addDenialRule(DenialRule rule) {
+        denialRules.add(rule);
+    }
+
+    /**
+     * Denies every fetch and update of keyId.
+     *
+     * @param keyId the Ionic key id.
+     */
+    public void denyKeyId(final String keyId) {
+        addDenialRule(new DenialRule() {
+            @Override
+            public boolean isDenied(String id, KeyAttributesMap attributes) {
+                return keyId.equals(id);
+            }
+        });
+    }
+
+    /**
+     * Denies creating, fetching and updating keys whose attribute name has the given value.
+     *
+     * @param name the attribute name.
+     * @param value the attribute value.
+     */
+    public void denyAttribute(final String name, final String value) {
+        addDenialRule(new DenialRule() {
+            @Override
+            public boolean isDenied(String id, KeyAttributesMap attributes) {
+                List<String> values = attributes.get(name);
+                return values != null && values.contains(value);
+            }
+        });
+    }
+
+    /**
+     * Removes every denial rule.
+     */
+    public void clearDenialRules() {
+        denialRules.clear();
+    }
+
+    /**
+     * Returns the number of keys currently held.
+     *
+     * @return the key count.
+     */
+    public int getKeyCount() {
+        return keys.size();
+    }
+
+    public long getCreateRequestCount() {
+        return createRequests.get();
+    }
+
+    public long getGetRequestCount() {
+        return getRequests.get();
+    }
+
+    public long getUpdateRequestCount() {
+        return updateRequests.get();
+    }
+
+    /**
+     * Returns the number of requests failed by the injected error rate.
+     *
+     * @return the failed request count.
+     */
+    public long getFailedRequestCount() {
+        return failedRequests.get();
+    }
+
+    /**
+     * Returns the number of keys denied by a {@link DenialRule}.
+     *
+     * @return the denied key count.
+     */
+    public long getDeniedKeyCount() {
+        return deniedKeys.get();
+    }
+
+    private static KeyAttributesMap copyOf(KeyAttributesMap attributes) {
+        KeyAttributesMap copy = new KeyAttributesMap();
+        if (attributes != null) {
+            for (Map.Entry<String, List<String>> entry : attributes.entrySet()) {
+                copy.put(entry.getKey(), new ArrayList<String>(entry.getValue()));
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Decides whether access to a key is denied.
+     */
+    public interface DenialRule {
+
+        /**
+         * Returns whether access to a key is denied.
+         *
+         * @param keyId the key id, or null when the key is being created.
+         * @param attributes the attributes of the key.
+         * @return true to deny access.
+         */
+        boolean isDenied(String keyId, KeyAttributesMap attributes);
+    }
+
+    /**
+     * A distribution of request delays.
+     */
+    public abstract static class Latency {
+        private static final double Z_99 = 2.3263478740;
+
+        /**
+         * Draws the delay of one request.
+         *
+         * @return the delay in nanoseconds.
+         */
+        public abstract long nextNanos();
+
+        /**
+         * Returns a Latency without delay.
+         *
+         * @return a Latency.
+         */
+        public static Latency none() {
+            return fixed(0, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Returns a Latency that always delays by latency.
+         *
+         * @param latency the delay.
+         * @param unit the unit of latency.
+         * @return a Latency.
+         */
+        public static Latency fixed(long latency, TimeUnit unit) {
+            final long nanos = unit.toNanos(latency);
+            return new Latency() {
+                @Override
+                public long nextNanos() {
+                    return nanos;
+                }
+            };
+        }
+
+        /**
+         * Returns a Latency uniformly distributed between min and max.
+         *
+         * @param min the shortest delay.
+         * @param max the longest delay.
+         * @param unit the unit of min and max.
+         * @return a Latency.
+         */
+        public static Latency uniform(long min, long max, TimeUnit unit) {
+            if (max < min) {
+                throw new IllegalArgumentException("max must not be less than min");
+            }
+            final long minNanos = unit.toNanos(min);
+            final long maxNanos = unit.toNanos(max);
+            return new Latency() {
+                @Override
+                public long nextNanos() {
+                    return minNanos + (long) (ThreadLocalRandom.current().nextDouble()
+                            * (maxNanos - minNanos));
+                }
+            };
+        }
+
+        /**
+         * Returns a log-normal Latency, the usual shape of service response times, with the
+         * given median and 99th percentile.
+         *
+         * @param median the median delay.
+         * @param p99 the 99th percentile delay.
+         * @param unit the unit of median and p99.
+         * @return a Latency.
+         */
+        public static Latency logNormal(long median, long p99, TimeUnit unit) {
+            if (median <= 0 || p99 < median) {
+                throw new IllegalArgumentException("need 0 < median <= p99");
+            }
+            final double mu = Math.log(unit.toNanos(median));
+            final double sigma = (Math.log(unit.toNanos(p99)) - mu) / Z_99;
+            return new Latency() {
+                @Override
+                public long nextNanos() {
+                    return (long) Math.exp(mu + sigma * ThreadLocalRandom.current().nextGaussian());
+                }
+            };
+        }
+
+        /**
+         * Returns a Latency that draws from tail with the given probability and from base
+         * otherwise, e.g. to model occasional slow requests on top of a fast common case.
+         *
+         * @param base the common case.
+         * @param probability the probability of drawing from tail.
+         * @param tail the slow case.
+         * @return a Latency.
+         */
+        public static Latency withTail(final Latency base, final double probability,
+                final Latency tail) {
+            return new Latency() {
+                @Override
+                public long nextNanos() {
+                    return ThreadLocalRandom.current().nextDouble() < probability
+                            ? tail.nextNanos() : base.nextNanos();
+                }
+            };
+        }
+    }
+
+    private static class StoredKey {
+        private final String id;
+        private final byte[] secret;
+        private final KeyAttributesMap attributes;
+        private volatile KeyAttributesMap mutableAttributes;
+
+        StoredKey(String id, byte[] secret, KeyAttributesMap attributes,
+                KeyAttributesMap mutableAttributes) {
+            this.id = id;
+            this.secret = secret;
+            this.attributes = attributes;
+            this.mutableAttributes = mutableAttributes;
+        }
+    }
+}
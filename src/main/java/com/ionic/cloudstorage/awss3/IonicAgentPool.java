@@ -0,0 +1,206 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as
+ * the Terms & Conditions (https://dev.ionic.com/use) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.awss3;
+
+import com.ionic.sdk.agent.Agent;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of ready {@link com.ionic.sdk.agent.Agent} clones used by
+ * {@link IonicEncryptionMaterialsProvider} instead of cloning its Agent for every key operation.
+ *
+ * <p>A borrowed Agent is used by one thread at a time and must be handed back with
+ * {@link #release(Agent)}. Up to maxAgents clones are created on demand; once they are all
+ * borrowed further callers wait for one to be released. {@link #reset(Agent)} discards every
+ * pooled clone, so changes made to the source Agent are picked up by subsequent borrows.
+ */
+public class IonicAgentPool {
+    public static final int DEFAULT_MAX_AGENTS = 64;
+
+    private static final long WAIT_SLICE_MILLIS = 10;
+
+    private volatile Agent source;
+    private volatile int maxAgents;
+    private volatile int generation;
+
+    private final LinkedBlockingDeque<Agent> idle = new LinkedBlockingDeque<Agent>();
+    private final Set<Agent> members =
+            Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<Agent,
+                    Boolean>()));
+    private final AtomicInteger created = new AtomicInteger();
+
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong clones = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+
+    /**
+     * Constructs an IonicAgentPool of at most {@link #DEFAULT_MAX_AGENTS} clones of source.
+     *
+     * @param source the Agent that pooled Agents are cloned from.
+     */
+    public IonicAgentPool(Agent source) {
+        this(source, DEFAULT_MAX_AGENTS);
+    }
+
+    /**
+     * Constructs an IonicAgentPool of at most maxAgents clones of source.
+     *
+     * @param source the Agent that pooled Agents are cloned from.
+     * @param maxAgents the maximum number of clones.
+     */
+    public IonicAgentPool(Agent source, int maxAgents) {
+        this.source = source;
+        setMaxAgents(maxAgents);
+    }
+
+    /**
+     * Borrows an Agent, cloning a new one if none is idle and the pool is not yet full, and waiting
+     * for a release otherwise.
+     *
+     * @return an Agent for the exclusive use of the caller until it is released.
+     */
+    public Agent borrow() {
+        borrows.incrementAndGet();
+        Agent agent = idle.pollFirst();
+        if (agent != null) {
+            return agent;
+        }
+        boolean waited = false;
+        while (true) {
+            boolean reserved = false;
+            int cloneGeneration = 0;
+            synchronized (members) {
+                if (created.get() < maxAgents) {
+                    created.incrementAndGet();
+                    cloneGeneration = generation;
+                    reserved = true;
+                }
+            }
+            if (reserved) {
+                clones.incrementAndGet();
+                agent = Agent.clone(source);
+                synchronized (members) {
+                    // A reset while cloning leaves this clone unpooled.
+                    if (cloneGeneration == generation) {
+                        members.add(agent);
+                    }
+                }
+                return agent;
+            }
+            if (!waited) {
+                waits.incrementAndGet();
+                waited = true;
+            }
+            try {
+                agent = idle.pollFirst(WAIT_SLICE_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                // Serve the caller with an unpooled clone, dropped again on release.
+                clones.incrementAndGet();
+                return Agent.clone(source);
+            }
+            if (agent != null) {
+                return agent;
+            }
+        }
+    }
+
+    /**
+     * Returns a borrowed Agent to the pool. Agents cloned before the last {@link #reset(Agent)}
+     * are dropped.
+     *
+     * @param agent an Agent obtained from {@link #borrow()}.
+     */
+    public void release(Agent agent) {
+        if (agent != null && members.contains(agent)) {
+            idle.offerFirst(agent);
+        }
+    }
+
+    /**
+     * Discards every pooled clone and clones subsequent Agents from source.
+     *
+     * @param source the Agent that pooled Agents are cloned from.
+     */
+    public void reset(Agent source) {
+        this.source = source;
+        synchronized (members) {
+            generation++;
+            members.clear();
+            idle.clear();
+            created.set(0);
+        }
+    }
+
+    /**
+     * Sets the maximum number of clones held by the pool.
+     *
+     * @param maxAgents the maximum number of clones, at least 1.
+     */
+    public void setMaxAgents(int maxAgents) {
+        if (maxAgents < 1) {
+            throw new IllegalArgumentException("maxAgents must be at least 1");
+        }
+        this.maxAgents = maxAgents;
+    }
+
+    public int getMaxAgents() {
+        return maxAgents;
+    }
+
+    /**
+     * Returns the number of borrows served.
+     *
+     * @return the borrow count.
+     */
+    public long getBorrowCount() {
+        return borrows.get();
+    }
+
+    /**
+     * Returns the number of Agent clones made; the difference to {@link #getBorrowCount()} is the
+     * number of clones saved.
+     *
+     * @return the clone count.
+     */
+    public long getCloneCount() {
+        return clones.get();
+    }
+
+    /**
+     * Returns the number of borrows that had to wait for a release.
+     *
+     * @return the wait count.
+     */
+    public long getWaitCount() {
+        return waits.get();
+    }
+
+    /**
+     * Returns the number of pooled Agents currently idle.
+     *
+     * @return the idle count.
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Returns the number of pooled Agents, idle or borrowed.
+     *
+     * @return the pooled Agent count.
+     */
+    public int getPooledCount() {
+        return created.get();
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as
+ * the Terms & Conditions (https://dev.ionic.com/use) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.awss3;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+
+/**
+ * The content of an object to upload, which can be read from the start as often as needed. The
+ * client retries a request by opening the content again and encrypting it with the same content
+ * key, instead of holding what it has sent in memory, so an upload only ever holds the buffers of
+ * its cipher.
+ *
+ * <p>Every stream opened must return the same bytes.
+ *
+ * @see IonicS3EncryptionClient#putObject(String, String, IonicContentSource,
+ *     com.amazonaws.services.s3.model.ObjectMetadata)
+ */
+public abstract class IonicContentSource {
+
+    /**
+     * Opens a new stream over the content, positioned at its start. The caller closes it.
+     *
+     * @return the stream.
+     * @throws IOException if the content could not be opened.
+     */
+    public abstract InputStream openStream() throws IOException;
+
+    /**
+     * Returns the length of the content in bytes.
+     */
+    public abstract long getLength();
+
+    /**
+     * Returns a source of the content of a file.
+     *
+     * @param file the file.
+     * @return the source.
+     */
+    public static IonicContentSource fromFile(File file) {
+        if (file == null) {
+            throw new IllegalArgumentException("file must not be null");
+        }
+        return fromFile(file, 0, file.length());
+    }
+
+    /**
+     * Returns a source of a region of a file.
+     *
+     * @param file the file.
+     * @param offset the position in file the content starts at.
+     * @param length the length of the content.
+     * @return the source.
+     */
+    public static IonicContentSource fromFile(final File file, final long offset,
+            final long length) {
+        if (file == null) {
+            throw new IllegalArgumentException("file must not be null");
+        }
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("offset and length must not be negative");
+        }
+        return new IonicContentSource() {
+            @Override
+            public InputStream openStream() throws IOException {
+                FileInputStream in = new FileInputStream(file);
+                try {
+                    in.getChannel().position(offset);
+                } catch (IOException e) {
+                    in.close();
+                    throw e;
+                }
+                return new RegionInputStream(in, length);
+            }
+
+            @Override
+            public long getLength() {
+                return length;
+            }
+        };
+    }
+
+    /**
+     * Returns a source of the content opened by supplier.
+     *
+     * @param supplier opens a new stream over the whole content each time it is called.
+     * @param length the length of the content.
+     * @return the source.
+     */
+    public static IonicContentSource fromSupplier(final Callable<? extends InputStream> supplier,
+            final long length) {
+        if (supplier == null) {
+            throw new IllegalArgumentException("supplier must not be null");
+        }
+        if (length < 0) {
+            throw new IllegalArgumentException("length must not be negative");
+        }
+        return new IonicContentSource() {
+            @Override
+            public InputStream openStream() throws IOException {
+                try {
+                    return supplier.call();
+                } catch (IOException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException("Unable to open content", e);
+                }
+            }
+
+            @Override
+            public long getLength() {
+                return length;
+            }
+        };
+    }
+
+    /**
+     * Ends a stream of a file after the length of its region.
+     */
+    private static class RegionInputStream extends FilterInputStream {
+        private long remaining;
+
+        RegionInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return len == 0 ? 0 : -1;
+            }
+            int count = in.read(b, off, (int) Math.min(len, remaining));
+            if (count > 0) {
+                remaining -= count;
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long count = in.skip(Math.min(n, remaining));
+            remaining -= count;
+            return count;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
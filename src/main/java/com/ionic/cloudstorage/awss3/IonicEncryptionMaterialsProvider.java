@@ -6,6 +6,8 @@
 
 package com.ionic.cloudstorage.awss3;
 
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.services.s3.model.AbstractPutObjectRequest;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
 import com.amazonaws.services.s3.model.EncryptionMaterials;
 import com.amazonaws.services.s3.model.EncryptionMaterialsProvider;
@@ -14,21 +16,43 @@ import com.ionic.sdk.agent.data.MetadataMap;
 import com.ionic.sdk.agent.key.KeyAttributesMap;
 import com.ionic.sdk.agent.request.createkey.CreateKeysRequest;
 import com.ionic.sdk.agent.request.createkey.CreateKeysResponse;
+import com.ionic.sdk.agent.request.getkey.GetKeysRequest;
 import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
 import com.ionic.sdk.device.profile.persistor.DeviceProfilePersistorBase;
 import com.ionic.sdk.device.profile.persistor.DeviceProfilePersistorPlainText;
+import com.ionic.sdk.error.AgentErrorModuleConstants;
 import com.ionic.sdk.error.IonicException;
 import java.io.IOException;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 
 /**
  * IonicEncryptionMaterialsProvider class.
+ *
+ * <p>The Ionic keys it provides are key encrypting keys: the encryption client generates a random
+ * content key for every object and stores it in the object's metadata wrapped with the Ionic key,
+ * next to the Ionic key id in the materials description. Objects therefore never share a content
+ * key, even when they share an Ionic key under an {@link IonicKeySharingPolicy}, and key service
+ * traffic follows the number of Ionic keys rather than the number of objects once an
+ * {@link IonicKeyCache} serves the reads.
  */
 public class IonicEncryptionMaterialsProvider implements EncryptionMaterialsProvider {
     // String constants
@@ -36,17 +60,53 @@ public class IonicEncryptionMaterialsProvider implements EncryptionMaterialsProv
     static final String IONICVERSIONKEY = "ionic-s3-version";
     static final String IONICKEYREQUUID = "ionic-kam-uuid";
 
+    public static final int DEFAULT_DENIED_KEY_MAX_ENTRIES = 1024;
+    public static final int DEFAULT_MATERIALS_THREADS = 16;
+    public static final int DEFAULT_MATERIALS_QUEUE_SIZE = 1024;
+    public static final int DEFAULT_PREFETCH_MAX_ENTRIES = 1024;
+    public static final long DEFAULT_PREFETCH_TTL_SECONDS = 30;
+    public static final int MAX_CREATE_KEYS_QUANTITY = 1000;
+    public static final int MAX_GET_KEYS_QUANTITY = 1000;
+
     private static final String HOME = System.getProperty("user.home");
 
     private boolean enabledMetadataCapture = false;
 
     private KeyAttributesMap defaultAttributes = new KeyAttributesMap();
     private Agent agent = new Agent();
+    private final IonicAgentPool agentPool = new IonicAgentPool(agent);
+    private final IonicKeyService agentKeyService = new AgentKeyService(agentPool);
+    private final IonicMetrics metrics = new IonicMetrics(this);
+    private volatile IonicKeyService keyService = agentKeyService;
+    private volatile IonicKeyService meteredKeyService =
+            new MeteredKeyService(agentKeyService, metrics);
+    private volatile IonicKeyPool keyPool;
+    private volatile IonicKeySharingPolicy keySharingPolicy;
+    private volatile IonicKeyCache keyCache;
+    private volatile IonicKeyCoalescer keyCoalescer;
+
+    final ConcurrentHashMap<String, CompletableFuture<GetKeysResponse.Key>> inFlightKeys =
+            new ConcurrentHashMap<String, CompletableFuture<GetKeysResponse.Key>>();
+    private final AtomicLong joinedKeyFetches = new AtomicLong();
+    private final BoundedHandoffMap<CompletableFuture<GetKeysResponse.Key>> prefetchedKeys =
+            new BoundedHandoffMap<CompletableFuture<GetKeysResponse.Key>>(
+                    DEFAULT_PREFETCH_MAX_ENTRIES,
+                    TimeUnit.SECONDS.toNanos(DEFAULT_PREFETCH_TTL_SECONDS));
+    private final AtomicLong prefetchHits = new AtomicLong();
+    private final ConcurrentHashMap<String, HeldKey> heldKeys =
+            new ConcurrentHashMap<String, HeldKey>();
+
+    private volatile ExpiringLruMap<String, IonicException> deniedKeys;
+    private final AtomicLong deniedKeyHits = new AtomicLong();
+
+    private volatile Executor materialsExecutor;
 
-    private ConcurrentHashMap<String, CreateKeysRequest.Key> requestKeyMap =
-            new ConcurrentHashMap<String, CreateKeysRequest.Key>();
-    private ConcurrentHashMap<String, GetKeysResponse.Key> responseKeyMap =
-            new ConcurrentHashMap<String, GetKeysResponse.Key>();
+    private final BoundedHandoffMap<RequestKey> requestKeyMap =
+            new BoundedHandoffMap<RequestKey>();
+    private final BoundedHandoffMap<GetKeysResponse.Key> responseKeyMap =
+            new BoundedHandoffMap<GetKeysResponse.Key>();
+    private final BoundedHandoffMap<CreateKeysResponse.Key> createdKeyMap =
+            new BoundedHandoffMap<CreateKeysResponse.Key>();
 
     /**
      * Default constructor for IonicEncryptionMaterialsProvider.
@@ -60,7 +120,7 @@ public class IonicEncryptionMaterialsProvider implements EncryptionMaterialsProv
      * @param agent an {@link com.ionic.sdk.agent.Agent} object.
      */
     public IonicEncryptionMaterialsProvider(Agent agent) {
-        this.agent = agent;
+        setAgent(agent);
     }
 
     /**
@@ -99,11 +159,13 @@ public class IonicEncryptionMaterialsProvider implements EncryptionMaterialsProv
     }
 
     /**
-     * Not implemented.
-     * @deprecated No op.
+     * Discards the pooled clones of the internal Agent, so that changes made directly to the
+     * Agent returned by {@link #getAgent()} apply to subsequent key requests.
      */
     @Override
-    public void refresh() {}
+    public void refresh() {
+        agentPool.reset(this.agent);
+    }
 
     /**
      * Produces EncryptionMaterials by creating a new encryption key via IDC.
@@ -114,11 +176,7 @@ public class IonicEncryptionMaterialsProvider implements EncryptionMaterialsProv
         try {
             return generateEncryptionMaterials(new HashMap<String, String>());
         } catch (IonicException e) {
-            AmazonS3Exception s3Exception = new AmazonS3Exception(e.getLocalizedMessage(), e);
-            s3Exception.setStatusCode(e.getReturnCode());
-            s3Exception.setErrorCode(String.valueOf(e.getReturnCode()));
-            s3Exception.setServiceName("Ionic Security");
-            throw s3Exception;
+            throw toAmazonS3Exception(e);
         }
     }
 
@@ -139,16 +197,193 @@ public class IonicEncryptionMaterialsProvider implements EncryptionMaterialsProv
             }
             return retrieveEncryptionMaterials(desc);
         } catch (IonicException e) {
-            AmazonS3Exception s3Exception = new AmazonS3Exception(e.getLocalizedMessage(), e);
-            s3Exception.setStatusCode(e.getReturnCode());
-            s3Exception.setErrorCode(String.valueOf(e.getReturnCode()));
-            s3Exception.setServiceName("Ionic Security");
-            throw s3Exception;
+            throw toAmazonS3Exception(e);
+        }
+    }
+
+    /**
+     * Asynchronously produces EncryptionMaterials by creating a new encryption key via IDC.
+     *
+     * @return a future completed with the EncryptionMaterials, or with the AmazonS3Exception
+     *     {@link #getEncryptionMaterials()} would have thrown.
+     */
+    public CompletableFuture<EncryptionMaterials> getEncryptionMaterialsAsync() {
+        return getEncryptionMaterialsAsync(new HashMap<String, String>());
+    }
+
+    /**
+     * Asynchronously produces EncryptionMaterials like {@link #getEncryptionMaterials(Map)}.
+     *
+     * <p>Keys are created on the materials executor. Keys are retrieved from the key cache on the
+     * calling thread, through the key coalescer without occupying any thread while the request is
+     * in flight, or otherwise on the materials executor. Concurrent retrievals of the same key id
+     * share one key service request with blocking callers.
+     *
+     * @param materialsDescription the materials description of the object.
+     * @return a future completed with the EncryptionMaterials, or with the AmazonS3Exception
+     *     {@link #getEncryptionMaterials(Map)} would have thrown.
+     */
+    public CompletableFuture<EncryptionMaterials> getEncryptionMaterialsAsync(
+            final Map<String, String> materialsDescription) {
+        if (materialsDescription == null || materialsDescription.get(KEYIDKEY) == null) {
+            return generateEncryptionMaterialsAsync(materialsDescription);
         }
+        return retrieveEncryptionMaterialsAsync(materialsDescription.get(KEYIDKEY));
+    }
+
+    private CompletableFuture<EncryptionMaterials> generateEncryptionMaterialsAsync(
+            final Map<String, String> desc) {
+        final CompletableFuture<EncryptionMaterials> result =
+                new CompletableFuture<EncryptionMaterials>();
+        try {
+            getMaterialsExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        result.complete(generateEncryptionMaterials(desc));
+                    } catch (IonicException e) {
+                        result.completeExceptionally(toAmazonS3Exception(e));
+                    } catch (RuntimeException e) {
+                        result.completeExceptionally(e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    private CompletableFuture<EncryptionMaterials> retrieveEncryptionMaterialsAsync(
+            String ionicKeyId) {
+        final CompletableFuture<EncryptionMaterials> result =
+                new CompletableFuture<EncryptionMaterials>();
+        IonicKeyCache cache = this.keyCache;
+        GetKeysResponse.Key cached = cache == null ? null : cache.get(ionicKeyId);
+        if (cached == null) {
+            cached = heldKey(ionicKeyId);
+        }
+        if (cached != null) {
+            result.complete(toEncryptionMaterials(cached));
+            return result;
+        }
+        try {
+            throwIfDenied(ionicKeyId);
+        } catch (IonicException e) {
+            result.completeExceptionally(toAmazonS3Exception(e));
+            return result;
+        }
+        CompletableFuture<GetKeysResponse.Key> flight = takePrefetchedKey(ionicKeyId);
+        if (flight == null) {
+            flight = fetchKeyAsync(ionicKeyId, getMaterialsExecutor());
+        }
+        flight.whenComplete(new KeyFetchCompletion<EncryptionMaterials>(result) {
+            @Override
+            EncryptionMaterials onKey(GetKeysResponse.Key key) {
+                return toEncryptionMaterials(IonicKeyCache.copyOf(key));
+            }
+        });
+        return result;
     }
 
     private EncryptionMaterials generateEncryptionMaterials(Map<String, String> desc)
             throws IonicException {
+        CreateKeysRequest.Key reqKey = new CreateKeysRequest.Key("");
+        String bucket = null;
+        String objectKey = null;
+        if (desc != null) {
+            String uuid = desc.get(IONICKEYREQUUID);
+            if (uuid != null) {
+                CreateKeysResponse.Key created = createdKeyMap.take(uuid);
+                if (created != null) {
+                    return toEncryptionMaterials(created);
+                }
+                RequestKey requested = retrieveRequestKey(uuid);
+                if (requested == null) {
+                    // Never fall back to a key without the attributes the caller asked for.
+                    throw new IonicException(AgentErrorModuleConstants.ISAGENT_MISSINGVALUE,
+                            "Ionic key request " + uuid + " expired or was already used");
+                }
+                reqKey = requested.key;
+                bucket = requested.bucket;
+                objectKey = requested.objectKey;
+            }
+        }
+        return toEncryptionMaterials(createKey(desc, reqKey, bucket, objectKey));
+    }
+
+    /**
+     * Creates the key of a PUT, or takes it from the key sharing policy or the key pool. The
+     * bucket and key of the object, when known, select the limits of the key sharing policy.
+     */
+    private CreateKeysResponse.Key createKey(Map<String, String> desc,
+            CreateKeysRequest.Key reqKey, String bucket, String objectKey)
+            throws IonicException {
+        KeyAttributesMap kam = keyAttributes(desc, reqKey);
+        CreateKeysResponse.Key ionicKey = null;
+        IonicKeyPool pool = this.keyPool;
+        IonicKeySharingPolicy sharing = this.keySharingPolicy;
+        IonicKeyService service = this.meteredKeyService;
+        if (reqKey.getMutableAttributesMap().isEmpty()) {
+            if (sharing != null) {
+                ionicKey = sharing.take(bucket, objectKey, kam, service, pool);
+            }
+            if (ionicKey == null && pool != null) {
+                ionicKey = pool.take(kam, service);
+            }
+        }
+        if (ionicKey == null) {
+            CreateKeysRequest request = new CreateKeysRequest();
+            request.add(new CreateKeysRequest.Key("", 1, kam, reqKey.getMutableAttributesMap()));
+            ionicKey = service.createKeys(request).getFirstKey();
+        }
+        return ionicKey;
+    }
+
+    /**
+     * Creates the key of a PUT on the materials executor, as {@link #getEncryptionMaterials(Map)}
+     * would for the same request, and stores it to be collected by the PUT without a key service
+     * round trip, like the keys of {@link #storeCreatedKeys}.
+     *
+     * @param request the S3 request the key is for, reported as the original request of the key
+     *     service request; its bucket and key select the limits of the key sharing policy.
+     * @param desc the captured metadata of the PUT.
+     * @param reqKey the CreateKeysRequest.Key of the PUT.
+     * @return a future completed with the id to pass under {@code ionic-kam-uuid}, or with the
+     *     AmazonS3Exception the key creation failed with.
+     */
+    CompletableFuture<String> createKeyAsync(final AbstractPutObjectRequest request,
+            final Map<String, String> desc, final CreateKeysRequest.Key reqKey) {
+        final CompletableFuture<String> result = new CompletableFuture<String>();
+        try {
+            getMaterialsExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    AmazonWebServiceRequest previous = IonicMetrics.enterRequest(request);
+                    try {
+                        result.complete(createdKeyMap.store(createKey(desc, reqKey,
+                                request == null ? null : request.getBucketName(),
+                                request == null ? null : request.getKey())));
+                    } catch (IonicException e) {
+                        result.completeExceptionally(toAmazonS3Exception(e));
+                    } catch (RuntimeException e) {
+                        result.completeExceptionally(e);
+                    } finally {
+                        IonicMetrics.exitRequest(previous);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the attributes of a key created for a PUT: its captured metadata, the default
+     * attributes, then the attributes of its request key, each overriding the ones before.
+     */
+    private KeyAttributesMap keyAttributes(Map<String, String> desc, CreateKeysRequest.Key reqKey) {
         KeyAttributesMap kam = new KeyAttributesMap();
         if (desc != null && enabledMetadataCapture) {
             for (Map.Entry<String, String> entry : desc.entrySet()) {
@@ -161,32 +396,657 @@ public class IonicEncryptionMaterialsProvider implements EncryptionMaterialsProv
         }
 
         kam.putAll(defaultAttributes);
-        CreateKeysRequest.Key reqKey = new CreateKeysRequest.Key("");
-        if (desc != null) {
-            String uuid = desc.get(IONICKEYREQUUID);
-            if (uuid != null) {
-                reqKey = retrieveRequestKey(uuid);
-                kam.putAll(reqKey.getAttributesMap());
-            }
-        }
-        Agent agent = Agent.clone(this.agent);
-        CreateKeysResponse.Key ionicKey = null;
-        ionicKey = agent.createKey(kam, reqKey.getMutableAttributesMap()).getFirstKey();
+        kam.putAll(reqKey.getAttributesMap());
+        return kam;
+    }
+
+    private EncryptionMaterials toEncryptionMaterials(CreateKeysResponse.Key ionicKey) {
         EncryptionMaterials materials = new EncryptionMaterials(ionicKey.getSecretKey());
         materials.addDescription(KEYIDKEY, ionicKey.getId());
         materials.addDescription(IONICVERSIONKEY, "1.0.0");
         return materials;
     }
 
+    /**
+     * Creates the keys of a batch of PUTs up front, in as few createKeys requests as possible.
+     * PUTs whose keys have the same attributes and mutable attributes share one key entry of the
+     * request, with a quantity of the number of such PUTs, and a request holds at most
+     * {@link #MAX_CREATE_KEYS_QUANTITY} keys. The keys are collected by
+     * {@link #getEncryptionMaterials(Map)} when it is given the returned id under
+     * {@code ionic-kam-uuid}, instead of creating a key or taking one from the key pool.
+     *
+     * @param descs the materials description of each PUT, holding its captured metadata.
+     * @param keys the CreateKeysRequest.Key of each PUT.
+     * @return the id of the key created for each PUT, in order.
+     * @throws IonicException if a createKeys request fails or returns too few keys.
+     */
+    List<String> storeCreatedKeys(List<Map<String, String>> descs,
+            List<CreateKeysRequest.Key> keys) throws IonicException {
+        LinkedHashMap<List<Object>, List<Integer>> groups =
+                new LinkedHashMap<List<Object>, List<Integer>>();
+        for (int i = 0; i < keys.size(); i++) {
+            CreateKeysRequest.Key reqKey = keys.get(i);
+            List<Object> group = Arrays.<Object>asList(keyAttributes(descs.get(i), reqKey),
+                    reqKey.getMutableAttributesMap());
+            List<Integer> indexes = groups.get(group);
+            if (indexes == null) {
+                indexes = new ArrayList<Integer>();
+                groups.put(group, indexes);
+            }
+            indexes.add(i);
+        }
+        String[] ids = new String[keys.size()];
+        CreateKeysRequest request = new CreateKeysRequest();
+        HashMap<String, List<Integer>> batch = new HashMap<String, List<Integer>>();
+        int quantity = 0;
+        for (Map.Entry<List<Object>, List<Integer>> group : groups.entrySet()) {
+            KeyAttributesMap kam = (KeyAttributesMap) group.getKey().get(0);
+            KeyAttributesMap mutable = (KeyAttributesMap) group.getKey().get(1);
+            List<Integer> indexes = group.getValue();
+            int offset = 0;
+            while (offset < indexes.size()) {
+                int count = Math.min(indexes.size() - offset, MAX_CREATE_KEYS_QUANTITY - quantity);
+                String refId = Integer.toString(batch.size());
+                request.add(new CreateKeysRequest.Key(refId, count, kam, mutable));
+                batch.put(refId, indexes.subList(offset, offset + count));
+                offset += count;
+                quantity += count;
+                if (quantity == MAX_CREATE_KEYS_QUANTITY) {
+                    createBatch(request, batch, ids);
+                    request = new CreateKeysRequest();
+                    batch.clear();
+                    quantity = 0;
+                }
+            }
+        }
+        if (quantity > 0) {
+            createBatch(request, batch, ids);
+        }
+        return Arrays.asList(ids);
+    }
+
+    private void createBatch(CreateKeysRequest request, Map<String, List<Integer>> batch,
+            String[] ids) throws IonicException {
+        HashMap<String, Integer> assigned = new HashMap<String, Integer>();
+        for (CreateKeysResponse.Key key : meteredKeyService.createKeys(request).getKeys()) {
+            List<Integer> indexes = batch.get(key.getRefId());
+            Integer count = assigned.get(key.getRefId());
+            int next = count == null ? 0 : count;
+            if (indexes != null && next < indexes.size()) {
+                ids[indexes.get(next)] = createdKeyMap.store(key);
+                assigned.put(key.getRefId(), next + 1);
+            }
+        }
+        for (Map.Entry<String, List<Integer>> entry : batch.entrySet()) {
+            Integer count = assigned.get(entry.getKey());
+            if (count == null || count < entry.getValue().size()) {
+                throw new IonicException(AgentErrorModuleConstants.ISAGENT_MISSINGVALUE,
+                        "createKeys returned too few keys for a batch of "
+                        + entry.getValue().size());
+            }
+        }
+    }
+
     private EncryptionMaterials retrieveEncryptionMaterials(Map<String, String> desc)
             throws IonicException {
         String ionicKeyId = desc.get(KEYIDKEY);
-        Agent agent = Agent.clone(this.agent);
-        GetKeysResponse.Key ionicKey;
-        ionicKey = agent.getKey(ionicKeyId).getFirstKey();
+        IonicKeyCache cache = this.keyCache;
+        GetKeysResponse.Key ionicKey = null;
+        if (cache != null) {
+            ionicKey = cache.get(ionicKeyId);
+        }
+        if (ionicKey == null) {
+            ionicKey = heldKey(ionicKeyId);
+        }
+        if (ionicKey == null) {
+            throwIfDenied(ionicKeyId);
+            CompletableFuture<GetKeysResponse.Key> flight = takePrefetchedKey(ionicKeyId);
+            if (flight == null) {
+                flight = fetchKeyAsync(ionicKeyId, null);
+            }
+            ionicKey = awaitKey(flight);
+        }
+        return toEncryptionMaterials(ionicKey);
+    }
+
+    private EncryptionMaterials toEncryptionMaterials(GetKeysResponse.Key ionicKey) {
         storeResponseKey(ionicKey);
-        EncryptionMaterials materials = new EncryptionMaterials(ionicKey.getSecretKey());
-        return materials;
+        return new EncryptionMaterials(ionicKey.getSecretKey());
+    }
+
+    /**
+     * Fetches a key from the key service. Concurrent fetches of the same key id are joined into a
+     * single request whose result, or failure, is shared by every caller.
+     *
+     * @param executor runs the request when no coalescer is set, or null to run it on the calling
+     *     thread before returning.
+     */
+    private CompletableFuture<GetKeysResponse.Key> fetchKeyAsync(final String ionicKeyId,
+            Executor executor) {
+        final CompletableFuture<GetKeysResponse.Key> flight =
+                new CompletableFuture<GetKeysResponse.Key>();
+        CompletableFuture<GetKeysResponse.Key> existing =
+                inFlightKeys.putIfAbsent(ionicKeyId, flight);
+        if (existing != null) {
+            joinedKeyFetches.incrementAndGet();
+            return existing;
+        }
+        IonicKeyCoalescer coalescer = this.keyCoalescer;
+        if (coalescer != null) {
+            coalescer.request(ionicKeyId).whenComplete(
+                    new BiConsumer<GetKeysResponse.Key, Throwable>() {
+                        @Override
+                        public void accept(GetKeysResponse.Key key, Throwable error) {
+                            settleFetch(ionicKeyId, flight, key, error);
+                        }
+                    });
+        } else if (executor == null) {
+            runFetch(ionicKeyId, flight);
+        } else {
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        runFetch(ionicKeyId, flight);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                settleFetch(ionicKeyId, flight, null, e);
+            }
+        }
+        return flight;
+    }
+
+    /**
+     * Starts fetching a key on the materials executor ahead of the GET that will need it, e.g.
+     * from the materials description returned by a HEAD of the object. The next retrieval of the
+     * key waits for this fetch instead of issuing its own. Keys already cached or remembered as
+     * denied are not fetched, and a prefetched key no retrieval asks for is dropped after
+     * {@link #DEFAULT_PREFETCH_TTL_SECONDS}.
+     *
+     * @param ionicKeyId the Ionic key id.
+     */
+    public void prefetchKey(String ionicKeyId) {
+        IonicKeyCache cache = this.keyCache;
+        if (cache != null && cache.contains(ionicKeyId)) {
+            return;
+        }
+        ExpiringLruMap<String, IonicException> denied = this.deniedKeys;
+        if (denied != null && denied.get(ionicKeyId) != null) {
+            return;
+        }
+        prefetchedKeys.put(ionicKeyId, fetchKeyAsync(ionicKeyId, getMaterialsExecutor()));
+    }
+
+    /**
+     * Drops a prefetched key no retrieval asked for, e.g. because the GET it was fetched for
+     * failed or fetched the key itself first.
+     */
+    void discardPrefetchedKey(String ionicKeyId) {
+        prefetchedKeys.take(ionicKeyId);
+    }
+
+    private CompletableFuture<GetKeysResponse.Key> takePrefetchedKey(String ionicKeyId) {
+        CompletableFuture<GetKeysResponse.Key> flight = prefetchedKeys.take(ionicKeyId);
+        if (flight != null) {
+            prefetchHits.incrementAndGet();
+        }
+        return flight;
+    }
+
+    /**
+     * Returns the number of key retrievals served by a fetch started with {@link #prefetchKey}.
+     *
+     * @return the prefetch hit count.
+     */
+    public long getPrefetchHitCount() {
+        return prefetchHits.get();
+    }
+
+    /**
+     * Fetches a key, unless it is cached or already held, and keeps it for every retrieval until
+     * the matching {@link #releaseKey}, so that the ranged GETs of a parallel download share one
+     * key service request whether or not a key cache is set. Holds of the same key nest.
+     *
+     * @param ionicKeyId the Ionic key id.
+     * @throws IonicException if the key service denies or does not know the key.
+     */
+    void holdKey(String ionicKeyId) throws IonicException {
+        synchronized (heldKeys) {
+            HeldKey held = heldKeys.get(ionicKeyId);
+            if (held != null) {
+                held.holds++;
+                return;
+            }
+        }
+        IonicKeyCache cache = this.keyCache;
+        GetKeysResponse.Key ionicKey = cache == null ? null : cache.get(ionicKeyId);
+        if (ionicKey == null) {
+            throwIfDenied(ionicKeyId);
+            CompletableFuture<GetKeysResponse.Key> flight = takePrefetchedKey(ionicKeyId);
+            if (flight == null) {
+                flight = fetchKeyAsync(ionicKeyId, null);
+            }
+            ionicKey = awaitKey(flight);
+        }
+        addHold(ionicKeyId, ionicKey);
+    }
+
+    /**
+     * Holds a key as {@link #holdKey} does without blocking the calling thread: a key that is
+     * neither held nor cached is fetched through the key coalescer, if one is set, or on the
+     * materials executor.
+     *
+     * @param ionicKeyId the Ionic key id.
+     * @return a future completed once the key is held, or with the AmazonS3Exception a retrieval
+     *     of the key would have thrown.
+     */
+    CompletableFuture<Void> holdKeyAsync(final String ionicKeyId) {
+        final CompletableFuture<Void> result = new CompletableFuture<Void>();
+        synchronized (heldKeys) {
+            HeldKey held = heldKeys.get(ionicKeyId);
+            if (held != null) {
+                held.holds++;
+                result.complete(null);
+                return result;
+            }
+        }
+        IonicKeyCache cache = this.keyCache;
+        GetKeysResponse.Key cached = cache == null ? null : cache.get(ionicKeyId);
+        if (cached != null) {
+            addHold(ionicKeyId, cached);
+            result.complete(null);
+            return result;
+        }
+        try {
+            throwIfDenied(ionicKeyId);
+        } catch (IonicException e) {
+            result.completeExceptionally(toAmazonS3Exception(e));
+            return result;
+        }
+        CompletableFuture<GetKeysResponse.Key> flight = takePrefetchedKey(ionicKeyId);
+        if (flight == null) {
+            flight = fetchKeyAsync(ionicKeyId, getMaterialsExecutor());
+        }
+        flight.whenComplete(new KeyFetchCompletion<Void>(result) {
+            @Override
+            Void onKey(GetKeysResponse.Key key) {
+                addHold(ionicKeyId, IonicKeyCache.copyOf(key));
+                return null;
+            }
+        });
+        return result;
+    }
+
+    private void addHold(String ionicKeyId, GetKeysResponse.Key ionicKey) {
+        synchronized (heldKeys) {
+            HeldKey held = heldKeys.get(ionicKeyId);
+            if (held != null) {
+                held.holds++;
+            } else {
+                heldKeys.put(ionicKeyId, new HeldKey(ionicKey));
+            }
+        }
+    }
+
+    /**
+     * Releases a hold taken with {@link #holdKey}. The key is dropped with its last hold.
+     */
+    void releaseKey(String ionicKeyId) {
+        synchronized (heldKeys) {
+            HeldKey held = heldKeys.get(ionicKeyId);
+            if (held != null && --held.holds == 0) {
+                heldKeys.remove(ionicKeyId);
+            }
+        }
+    }
+
+    /**
+     * Holds a batch of keys as {@link #holdKey} does, but fetches the ones neither cached nor
+     * held in getKeys requests of at most {@link #MAX_GET_KEYS_QUANTITY} key ids instead of one
+     * request per key. Keys the key service denies or does not know are remembered as denied and
+     * not held, so their retrievals fail as they would have without the hold.
+     *
+     * @param ionicKeyIds the Ionic key ids, possibly repeated.
+     * @return the distinct key ids now held, to be passed to {@link #releaseKeys}.
+     * @throws IonicException if a getKeys request fails.
+     */
+    List<String> holdKeys(Collection<String> ionicKeyIds) throws IonicException {
+        List<String> held = new ArrayList<String>();
+        Map<String, GetKeysResponse.Key> found = new LinkedHashMap<String, GetKeysResponse.Key>();
+        List<String> missing = new ArrayList<String>();
+        IonicKeyCache cache = this.keyCache;
+        ExpiringLruMap<String, IonicException> denied = this.deniedKeys;
+        for (String ionicKeyId : new LinkedHashSet<String>(ionicKeyIds)) {
+            synchronized (heldKeys) {
+                HeldKey heldKey = heldKeys.get(ionicKeyId);
+                if (heldKey != null) {
+                    heldKey.holds++;
+                    held.add(ionicKeyId);
+                    continue;
+                }
+            }
+            GetKeysResponse.Key ionicKey = cache == null ? null : cache.get(ionicKeyId);
+            if (ionicKey != null) {
+                found.put(ionicKeyId, ionicKey);
+            } else if (denied == null || denied.get(ionicKeyId) == null) {
+                missing.add(ionicKeyId);
+            }
+        }
+        try {
+            for (int start = 0; start < missing.size(); start += MAX_GET_KEYS_QUANTITY) {
+                List<String> batch = missing.subList(start,
+                        Math.min(start + MAX_GET_KEYS_QUANTITY, missing.size()));
+                GetKeysRequest request = new GetKeysRequest();
+                for (String ionicKeyId : batch) {
+                    request.add(ionicKeyId);
+                }
+                GetKeysResponse response = meteredKeyService.getKeys(request);
+                for (String ionicKeyId : batch) {
+                    try {
+                        GetKeysResponse.Key ionicKey = requireKey(response, ionicKeyId);
+                        if (cache != null) {
+                            cache.put(ionicKey);
+                        }
+                        found.put(ionicKeyId, ionicKey);
+                    } catch (IonicException e) {
+                        rememberDenial(ionicKeyId, e);
+                    }
+                }
+            }
+        } catch (IonicException e) {
+            // The caller gets no list of holds to release, so release the ones already taken.
+            releaseKeys(held);
+            throw e;
+        } catch (RuntimeException e) {
+            releaseKeys(held);
+            throw e;
+        }
+        synchronized (heldKeys) {
+            for (Map.Entry<String, GetKeysResponse.Key> entry : found.entrySet()) {
+                HeldKey heldKey = heldKeys.get(entry.getKey());
+                if (heldKey != null) {
+                    heldKey.holds++;
+                } else {
+                    heldKeys.put(entry.getKey(), new HeldKey(entry.getValue()));
+                }
+                held.add(entry.getKey());
+            }
+        }
+        return held;
+    }
+
+    /**
+     * Releases the holds taken with {@link #holdKeys}.
+     */
+    void releaseKeys(Collection<String> ionicKeyIds) {
+        for (String ionicKeyId : ionicKeyIds) {
+            releaseKey(ionicKeyId);
+        }
+    }
+
+    /**
+     * Returns a copy of a key held with {@link #holdKey} or {@link #holdKeys}, or null if it is
+     * not held.
+     */
+    GetKeysResponse.Key heldKey(String ionicKeyId) {
+        if (heldKeys.isEmpty()) {
+            return null;
+        }
+        HeldKey held = heldKeys.get(ionicKeyId);
+        return held == null ? null : IonicKeyCache.copyOf(held.key);
+    }
+
+    /**
+     * A key kept by {@link #holdKey}, with the number of holds not yet released. Holds are
+     * guarded by the heldKeys map.
+     */
+    private static class HeldKey {
+        private final GetKeysResponse.Key key;
+        private int holds = 1;
+
+        HeldKey(GetKeysResponse.Key key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * The CreateKeysRequest.Key of a PUT, with the bucket and key of its object if known, stored
+     * until the SDK asks for the PUT's encryption materials.
+     */
+    private static class RequestKey {
+        private final CreateKeysRequest.Key key;
+        private final String bucket;
+        private final String objectKey;
+
+        RequestKey(CreateKeysRequest.Key key, String bucket, String objectKey) {
+            this.key = key;
+            this.bucket = bucket;
+            this.objectKey = objectKey;
+        }
+    }
+
+    /**
+     * Completes the future of an asynchronous materials method once the key it waited for was
+     * fetched: with the value onKey derives from the key, or with the AmazonS3Exception a
+     * synchronous call would have thrown.
+     */
+    private abstract static class KeyFetchCompletion<T>
+            implements BiConsumer<GetKeysResponse.Key, Throwable> {
+        private final CompletableFuture<T> result;
+
+        KeyFetchCompletion(CompletableFuture<T> result) {
+            this.result = result;
+        }
+
+        abstract T onKey(GetKeysResponse.Key key);
+
+        @Override
+        public void accept(GetKeysResponse.Key key, Throwable error) {
+            if (error instanceof CompletionException && error.getCause() != null) {
+                error = error.getCause();
+            }
+            if (error instanceof IonicException) {
+                result.completeExceptionally(toAmazonS3Exception((IonicException) error));
+            } else if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                try {
+                    result.complete(onKey(key));
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            }
+        }
+    }
+
+    private void runFetch(String ionicKeyId, CompletableFuture<GetKeysResponse.Key> flight) {
+        GetKeysResponse.Key ionicKey;
+        try {
+            ionicKey = requireKey(meteredKeyService.getKeys(new GetKeysRequest(ionicKeyId)),
+                    ionicKeyId);
+        } catch (IonicException e) {
+            settleFetch(ionicKeyId, flight, null, e);
+            return;
+        } catch (RuntimeException e) {
+            settleFetch(ionicKeyId, flight, null, e);
+            return;
+        }
+        settleFetch(ionicKeyId, flight, ionicKey, null);
+    }
+
+    private void settleFetch(String ionicKeyId, CompletableFuture<GetKeysResponse.Key> flight,
+            GetKeysResponse.Key ionicKey, Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error == null) {
+            IonicKeyCache cache = this.keyCache;
+            if (cache != null) {
+                cache.put(ionicKey);
+            }
+        } else if (error instanceof IonicException) {
+            rememberDenial(ionicKeyId, (IonicException) error);
+        }
+        // Removed before completing, so callers woken by the completion that fetch the key again
+        // start a new request rather than joining this settled one.
+        inFlightKeys.remove(ionicKeyId, flight);
+        if (error == null) {
+            flight.complete(ionicKey);
+        } else {
+            flight.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * Fails fast, with a fresh exception caused by the original one, when the key service recently
+     * denied keyId or did not know it.
+     */
+    private void throwIfDenied(String ionicKeyId) throws IonicException {
+        ExpiringLruMap<String, IonicException> denied = this.deniedKeys;
+        if (denied == null) {
+            return;
+        }
+        IonicException e = denied.get(ionicKeyId);
+        if (e != null) {
+            deniedKeyHits.incrementAndGet();
+            throw new IonicException(e.getReturnCode(), e);
+        }
+    }
+
+    /**
+     * Records a failed fetch of keyId when it reflects a policy decision rather than a transient
+     * failure, so retries and other readers do not ask the key service again within the TTL.
+     */
+    void rememberDenial(String ionicKeyId, IonicException e) {
+        ExpiringLruMap<String, IonicException> denied = this.deniedKeys;
+        if (denied == null) {
+            return;
+        }
+        int code = e.getReturnCode();
+        if (code == AgentErrorModuleConstants.ISAGENT_KEY_DENIED
+                || code == AgentErrorModuleConstants.ISAGENT_RESOURCE_NOT_FOUND) {
+            denied.put(ionicKeyId, e);
+        }
+    }
+
+    private static GetKeysResponse.Key awaitKey(CompletableFuture<GetKeysResponse.Key> flight)
+            throws IonicException {
+        try {
+            return IonicKeyCache.copyOf(flight.join());
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IonicException) {
+                throw (IonicException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the key for keyId from response, or throws the error the key service reported for
+     * it.
+     */
+    static GetKeysResponse.Key requireKey(GetKeysResponse response, String keyId)
+            throws IonicException {
+        GetKeysResponse.Key key = response.getKey(keyId);
+        if (key != null) {
+            return key;
+        }
+        GetKeysResponse.IonicError error = response.getError(keyId);
+        if (error != null && error.getClientError() != 0) {
+            throw new IonicException(error.getClientError(), error.getServerMessage());
+        }
+        throw new IonicException(AgentErrorModuleConstants.ISAGENT_KEY_DENIED);
+    }
+
+    /**
+     * Maps an IonicException to the AmazonS3Exception surfaced through the S3 client, carrying the
+     * Ionic return code as status and error code.
+     */
+    static AmazonS3Exception toAmazonS3Exception(IonicException e) {
+        AmazonS3Exception s3Exception = new AmazonS3Exception(e.getLocalizedMessage(), e);
+        s3Exception.setStatusCode(e.getReturnCode());
+        s3Exception.setErrorCode(String.valueOf(e.getReturnCode()));
+        s3Exception.setServiceName("Ionic Security");
+        return s3Exception;
+    }
+
+    /**
+     * Returns the number of key fetches currently waiting for the key service.
+     *
+     * @return the in-flight key fetch count.
+     */
+    public int getInFlightKeyFetchCount() {
+        return inFlightKeys.size();
+    }
+
+    /**
+     * Returns the number of key fetches that joined a concurrent fetch of the same key id instead
+     * of issuing their own key service request.
+     *
+     * @return the joined fetch count.
+     */
+    public long getJoinedKeyFetchCount() {
+        return joinedKeyFetches.get();
+    }
+
+    /**
+     * Sets how long a key id the key service denied, or did not know, keeps failing without a key
+     * service request. Within that time GETs of the key fail immediately with the same
+     * AmazonS3Exception. Transient failures are never remembered. Disabled by default.
+     *
+     * @param ttl how long a denial is remembered, or 0 to disable the denied key cache.
+     * @param unit the unit of ttl.
+     */
+    public void setDeniedKeyTtl(long ttl, TimeUnit unit) {
+        if (ttl < 0) {
+            throw new IllegalArgumentException("ttl must not be negative");
+        }
+        this.deniedKeys = ttl == 0 ? null : new ExpiringLruMap<String, IonicException>(
+                DEFAULT_DENIED_KEY_MAX_ENTRIES, unit.toNanos(ttl));
+    }
+
+    /**
+     * Returns how long denials are remembered.
+     *
+     * @return the TTL in milliseconds, or 0 if the denied key cache is disabled.
+     */
+    public long getDeniedKeyTtlMillis() {
+        ExpiringLruMap<String, IonicException> denied = this.deniedKeys;
+        return denied == null ? 0 : TimeUnit.NANOSECONDS.toMillis(denied.getTtlNanos());
+    }
+
+    /**
+     * Forgets every remembered denial, e.g. after access policy was changed.
+     */
+    public void invalidateDeniedKeys() {
+        ExpiringLruMap<String, IonicException> denied = this.deniedKeys;
+        if (denied != null) {
+            denied.clear();
+        }
+    }
+
+    /**
+     * Returns the number of key ids currently remembered as denied or unknown.
+     *
+     * @return the denied key count.
+     */
+    public int getDeniedKeyCount() {
+        ExpiringLruMap<String, IonicException> denied = this.deniedKeys;
+        return denied == null ? 0 : denied.size();
+    }
+
+    /**
+     * Returns the number of GETs failed from the denied key cache without a key service request.
+     *
+     * @return the denied key hit count.
+     */
+    public long getDeniedKeyHitCount() {
+        return deniedKeyHits.get();
     }
 
     /**
@@ -201,7 +1061,10 @@ public class IonicEncryptionMaterialsProvider implements EncryptionMaterialsProv
     /**
      * Sets enabledMetadataCapture, while true S3 requests to store
      * objects with client side Encryption will have their userMetadata parsed and passed as ionic
-     * attributes when content encryption keys are generated.
+     * attributes when content encryption keys are generated. The captured metadata is sent to the
+     * key service only: the {@code x-amz-matdesc} stored with an object holds the Ionic key id and
+     * format version whether or not capture is enabled, so it adds nothing to the object's share of
+     * the 2 KB S3 allows for user metadata.
      *
      * @param enabledMetadataCapture a boolean.
      */
@@ -235,6 +1098,7 @@ public class IonicEncryptionMaterialsProvider implements EncryptionMaterialsProv
     @Deprecated
     public void setIonicMetadataMap(MetadataMap map) {
         this.agent.setMetadata(map);
+        agentPool.reset(this.agent);
     }
 
     /**
@@ -267,6 +1131,20 @@ public class IonicEncryptionMaterialsProvider implements EncryptionMaterialsProv
      */
     public void setAgent(Agent agent) {
         this.agent = agent;
+        agentPool.reset(agent);
+        IonicKeyPool pool = this.keyPool;
+        if (pool != null) {
+            pool.clear();
+        }
+        IonicKeySharingPolicy sharing = this.keySharingPolicy;
+        if (sharing != null) {
+            sharing.clear();
+        }
+        IonicKeyCache cache = this.keyCache;
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+        invalidateDeniedKeys();
     }
 
     /**
@@ -277,14 +1155,277 @@ public class IonicEncryptionMaterialsProvider implements EncryptionMaterialsProv
         return this.agent;
     }
 
+    /**
+     * Sets the pool of pre-created keys used to serve key creation on the PUT path. Requests with
+     * mutable attributes always create their key synchronously. Pass null to disable pooling. A
+     * pool that is replaced is shut down.
+     *
+     * @param keyPool an {@link IonicKeyPool}, or null.
+     */
+    public void setKeyPool(IonicKeyPool keyPool) {
+        IonicKeyPool previous = this.keyPool;
+        this.keyPool = keyPool;
+        if (previous != null && previous != keyPool) {
+            previous.shutdown();
+        }
+    }
+
+    /**
+     * Gets the pool of pre-created keys, if one is set.
+     *
+     * @return an {@link IonicKeyPool}, or null.
+     */
+    public IonicKeyPool getKeyPool() {
+        return this.keyPool;
+    }
+
+    /**
+     * Sets the policy under which objects with the same key attributes share an Ionic key. Keys
+     * are shared only within the limits of the policy, and requests with mutable attributes never
+     * share one. Sharing is off by default; pass null to turn it off again.
+     *
+     * @param keySharingPolicy an {@link IonicKeySharingPolicy}, or null.
+     */
+    public void setKeySharingPolicy(IonicKeySharingPolicy keySharingPolicy) {
+        this.keySharingPolicy = keySharingPolicy;
+    }
+
+    /**
+     * Gets the key sharing policy, if one is set.
+     *
+     * @return an {@link IonicKeySharingPolicy}, or null.
+     */
+    public IonicKeySharingPolicy getKeySharingPolicy() {
+        return this.keySharingPolicy;
+    }
+
+    /**
+     * Sets the cache of keys used to serve GETs without a key service round trip. Pass null to
+     * disable caching, in which case every GET fetches its key.
+     *
+     * @param keyCache an {@link IonicKeyCache}, or null.
+     */
+    public void setKeyCache(IonicKeyCache keyCache) {
+        this.keyCache = keyCache;
+    }
+
+    /**
+     * Gets the cache of keys, if one is set.
+     *
+     * @return an {@link IonicKeyCache}, or null.
+     */
+    public IonicKeyCache getKeyCache() {
+        return this.keyCache;
+    }
+
+    /**
+     * Removes a key from the key cache and forgets any denial of it, e.g. after its access policy
+     * was changed, so the next GET that needs it asks the key service again.
+     *
+     * @param keyId the Ionic key id.
+     */
+    public void invalidateCachedKey(String keyId) {
+        IonicKeyCache cache = this.keyCache;
+        if (cache != null) {
+            cache.invalidate(keyId);
+        }
+        ExpiringLruMap<String, IonicException> denied = this.deniedKeys;
+        if (denied != null) {
+            denied.remove(keyId);
+        }
+    }
+
+    /**
+     * Sets the coalescer that batches key fetches from many threads into multi-key requests.
+     * Pass null to fetch every key with its own request. A coalescer that is replaced is shut
+     * down.
+     *
+     * @param keyCoalescer an {@link IonicKeyCoalescer}, or null.
+     */
+    public void setKeyCoalescer(IonicKeyCoalescer keyCoalescer) {
+        if (keyCoalescer != null) {
+            keyCoalescer.setKeyService(meteredKeyService);
+        }
+        IonicKeyCoalescer previous = this.keyCoalescer;
+        this.keyCoalescer = keyCoalescer;
+        if (previous != null && previous != keyCoalescer) {
+            previous.shutdown();
+        }
+    }
+
+    /**
+     * Gets the key fetch coalescer, if one is set.
+     *
+     * @return an {@link IonicKeyCoalescer}, or null.
+     */
+    public IonicKeyCoalescer getKeyCoalescer() {
+        return this.keyCoalescer;
+    }
+
+    /**
+     * Sets the executor the asynchronous materials methods run blocking key requests on. Callers
+     * supplying their own executor are responsible for shutting it down.
+     *
+     * @param materialsExecutor an Executor, or null to use a default bounded pool of
+     *     {@link #DEFAULT_MATERIALS_THREADS} daemon threads.
+     */
+    public void setMaterialsExecutor(Executor materialsExecutor) {
+        this.materialsExecutor = materialsExecutor;
+    }
+
+    /**
+     * Gets the executor the asynchronous materials methods run blocking key requests on, creating
+     * the default pool on first use. The default pool queues at most
+     * {@link #DEFAULT_MATERIALS_QUEUE_SIZE} requests and fails further ones with a
+     * RejectedExecutionException instead of blocking the caller.
+     *
+     * @return the materials Executor.
+     */
+    public Executor getMaterialsExecutor() {
+        Executor executor = this.materialsExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = this.materialsExecutor;
+                if (executor == null) {
+                    ThreadPoolExecutor pool = new ThreadPoolExecutor(DEFAULT_MATERIALS_THREADS,
+                            DEFAULT_MATERIALS_THREADS, 60, TimeUnit.SECONDS,
+                            new ArrayBlockingQueue<Runnable>(DEFAULT_MATERIALS_QUEUE_SIZE),
+                            new IonicThreadFactory("ionic-materials"));
+                    pool.allowCoreThreadTimeOut(true);
+                    executor = pool;
+                    this.materialsExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Sets the key service keys are created and fetched with, e.g. an {@link InMemoryKeyService}
+     * for load tests. Pooled and cached keys of the previous key service are discarded.
+     *
+     * @param keyService an {@link IonicKeyService}, or null to use the internal Agent.
+     */
+    public void setKeyService(IonicKeyService keyService) {
+        IonicKeyService service = keyService == null ? agentKeyService : keyService;
+        IonicKeyService metered = new MeteredKeyService(service, metrics);
+        this.keyService = service;
+        this.meteredKeyService = metered;
+        IonicKeyCoalescer coalescer = this.keyCoalescer;
+        if (coalescer != null) {
+            coalescer.setKeyService(metered);
+        }
+        IonicKeyPool pool = this.keyPool;
+        if (pool != null) {
+            pool.clear();
+        }
+        IonicKeySharingPolicy sharing = this.keySharingPolicy;
+        if (sharing != null) {
+            sharing.clear();
+        }
+        IonicKeyCache cache = this.keyCache;
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+        invalidateDeniedKeys();
+    }
+
+    /**
+     * Gets the key service keys are created and fetched with. Unless replaced with
+     * {@link #setKeyService(IonicKeyService)} this is an {@link AgentKeyService} using the internal
+     * Agent.
+     *
+     * @return the {@link IonicKeyService}.
+     */
+    public IonicKeyService getKeyService() {
+        return this.keyService;
+    }
+
+    /**
+     * Gets the key service wrapped to report to the metrics of this provider, which all key
+     * requests of the provider go through.
+     */
+    IonicKeyService getMeteredKeyService() {
+        return this.meteredKeyService;
+    }
+
+    /**
+     * Gets the key service metrics of this provider, which are also reported to the
+     * RequestMetricCollector of the client using it.
+     *
+     * @return the {@link IonicMetrics}.
+     */
+    public IonicMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Gets the pool of Agent clones used for key requests, e.g. to read its metrics or resize it.
+     *
+     * @return the {@link IonicAgentPool}.
+     */
+    public IonicAgentPool getAgentPool() {
+        return this.agentPool;
+    }
+
+    /**
+     * Bounds the state handed between {@link IonicS3EncryptionClient} calls and the provider.
+     * Request attributes stored for a PUT and keys stored for a GET are dropped when they have not
+     * been collected within ttl, or when more than capacity of them are pending, so failed requests
+     * cannot make the provider grow without bound.
+     *
+     * @param capacity the maximum number of pending entries of each kind.
+     * @param ttl how long a pending entry is kept.
+     * @param unit the unit of ttl.
+     */
+    public void setRequestContextLimits(int capacity, long ttl, TimeUnit unit) {
+        requestKeyMap.setLimits(capacity, unit.toNanos(ttl));
+        responseKeyMap.setLimits(capacity, unit.toNanos(ttl));
+        createdKeyMap.setLimits(capacity, unit.toNanos(ttl));
+    }
+
+    /**
+     * Returns the number of PUT request attributes and created PUT keys not yet collected.
+     *
+     * @return the pending request key count.
+     */
+    public int getPendingRequestKeyCount() {
+        return requestKeyMap.size() + createdKeyMap.size();
+    }
+
+    /**
+     * Returns the number of GET response keys stored but not yet collected.
+     *
+     * @return the pending response key count.
+     */
+    public int getPendingResponseKeyCount() {
+        return responseKeyMap.size();
+    }
+
+    /**
+     * Returns the number of pending request attributes and response keys dropped because they
+     * expired or exceeded the capacity set by {@link #setRequestContextLimits}.
+     *
+     * @return the eviction count.
+     */
+    public long getEvictedRequestContextCount() {
+        return requestKeyMap.getEvictionCount() + responseKeyMap.getEvictionCount()
+                + createdKeyMap.getEvictionCount();
+    }
+
     protected String storeRequestKey(CreateKeysRequest.Key key) {
-        String uuid = UUID.randomUUID().toString();
-        this.requestKeyMap.put(uuid, key);
-        return uuid;
+        return storeRequestKey(key, null, null);
+    }
+
+    /**
+     * Stores the CreateKeysRequest.Key of the PUT of an object whose bucket and key are known.
+     */
+    String storeRequestKey(CreateKeysRequest.Key key, String bucket, String objectKey) {
+        return this.requestKeyMap.store(new RequestKey(key, bucket, objectKey));
     }
 
-    private CreateKeysRequest.Key retrieveRequestKey(String uuid) {
-        return this.requestKeyMap.remove(uuid);
+    private RequestKey retrieveRequestKey(String uuid) {
+        return this.requestKeyMap.take(uuid);
     }
 
     private void storeResponseKey(GetKeysResponse.Key key) {
@@ -292,6 +1433,6 @@ public class IonicEncryptionMaterialsProvider implements EncryptionMaterialsProv
     }
 
     protected GetKeysResponse.Key retrieveResponseKey(String keyId) {
-        return this.responseKeyMap.remove(keyId);
+        return this.responseKeyMap.take(keyId);
     }
 }
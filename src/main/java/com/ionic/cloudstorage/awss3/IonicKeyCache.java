@@ -0,0 +1,186 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as
+ * the Terms & Conditions (https://dev.ionic.com/use) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.awss3;
+
+import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size-bounded cache of {@link com.ionic.sdk.agent.request.getkey.GetKeysResponse.Key} by key id,
+ * used by {@link IonicEncryptionMaterialsProvider} to serve repeated GETs without a key service
+ * round trip.
+ *
+ * <p>Entries expire a fixed time after they were fetched, so a revoked key stops being served
+ * within the TTL, and the least recently used entry is evicted once the cache is full. The cache
+ * keeps its own copy of the key bytes, which is zeroed as soon as the entry leaves the cache, and
+ * hands out a fresh copy on every hit.
+ */
+public class IonicKeyCache {
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+    public static final long DEFAULT_TTL_SECONDS = 300;
+
+    private static final byte[] NO_KEY = new byte[0];
+
+    private final ExpiringLruMap<String, CachedKey> keys;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong removals = new AtomicLong();
+
+    /**
+     * Constructs an IonicKeyCache with {@link #DEFAULT_MAX_ENTRIES} and
+     * {@link #DEFAULT_TTL_SECONDS}.
+     */
+    public IonicKeyCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Constructs an IonicKeyCache.
+     *
+     * @param maxEntries the maximum number of cached keys.
+     * @param ttl how long a key is served after it was fetched.
+     * @param unit the unit of ttl.
+     */
+    public IonicKeyCache(int maxEntries, long ttl, TimeUnit unit) {
+        this.keys = new ExpiringLruMap<String, CachedKey>(maxEntries, unit.toNanos(ttl)) {
+            @Override
+            protected void onRemoval(CachedKey value) {
+                value.destroy();
+                removals.incrementAndGet();
+            }
+        };
+    }
+
+    /**
+     * Returns a copy of the cached key for keyId.
+     *
+     * @param keyId the Ionic key id.
+     * @return a {@link com.ionic.sdk.agent.request.getkey.GetKeysResponse.Key}, or null if the key
+     *     is not cached or has expired.
+     */
+    public GetKeysResponse.Key get(String keyId) {
+        CachedKey cached = keys.get(keyId);
+        GetKeysResponse.Key key = cached == null ? null : cached.copy();
+        if (key == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return key;
+    }
+
+    /**
+     * Returns whether a live key is cached for keyId, without counting a hit or miss.
+     */
+    boolean contains(String keyId) {
+        return keys.get(keyId) != null;
+    }
+
+    /**
+     * Caches a copy of key under its key id.
+     *
+     * @param key a {@link com.ionic.sdk.agent.request.getkey.GetKeysResponse.Key}.
+     */
+    public void put(GetKeysResponse.Key key) {
+        keys.put(key.getId(), new CachedKey(key));
+    }
+
+    /**
+     * Removes keyId from the cache, so the next GET that needs it asks the key service again.
+     *
+     * @param keyId the Ionic key id.
+     */
+    public void invalidate(String keyId) {
+        keys.remove(keyId);
+    }
+
+    /**
+     * Removes every key from the cache.
+     */
+    public void invalidateAll() {
+        keys.clear();
+    }
+
+    /**
+     * Returns the number of keys currently cached.
+     *
+     * @return the entry count.
+     */
+    public int size() {
+        return keys.size();
+    }
+
+    /**
+     * Returns the number of lookups served from the cache.
+     *
+     * @return the hit count.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups the cache could not serve.
+     *
+     * @return the miss count.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of keys that left the cache through eviction, expiry or invalidation.
+     *
+     * @return the removal count.
+     */
+    public long getRemovalCount() {
+        return removals.get();
+    }
+
+    public int getMaxEntries() {
+        return keys.getMaxEntries();
+    }
+
+    public long getTtlMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(keys.getTtlNanos());
+    }
+
+    /**
+     * Copies key, including its key bytes. Attribute and obligation maps are shared.
+     */
+    static GetKeysResponse.Key copyOf(GetKeysResponse.Key key) {
+        return new GetKeysResponse.Key(key.getId(), key.getKey(), key.getDeviceId(),
+                key.getAttributesMap(), key.getMutableAttributesMap(), key.getObligationsMap(),
+                key.getOrigin(), key.getAttributesSigBase64FromServer(),
+                key.getMutableAttributesSigBase64FromServer());
+    }
+
+    private static class CachedKey {
+        private final GetKeysResponse.Key template;
+        private final byte[] secret;
+        private volatile boolean destroyed;
+
+        CachedKey(GetKeysResponse.Key key) {
+            this.secret = key.getKey();
+            this.template = copyOf(key);
+            this.template.setKey(NO_KEY);
+        }
+
+        GetKeysResponse.Key copy() {
+            GetKeysResponse.Key key = copyOf(template);
+            key.setKey(secret);
+            return destroyed ? null : key;
+        }
+
+        void destroy() {
+            destroyed = true;
+            Arrays.fill(secret, (byte) 0);
+        }
+    }
+}
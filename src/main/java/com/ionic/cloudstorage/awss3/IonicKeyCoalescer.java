@@ -0,0 +1,276 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as
+ * the Terms & Conditions (https://dev.ionic.com/use) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.awss3;
+
+import com.ionic.sdk.agent.request.getkey.GetKeysRequest;
+import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
+import com.ionic.sdk.error.AgentErrorModuleConstants;
+import com.ionic.sdk.error.IonicException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces single-key fetches issued by many threads into multi-key
+ * {@link com.ionic.sdk.agent.request.getkey.GetKeysRequest}s for
+ * {@link IonicEncryptionMaterialsProvider}.
+ *
+ * <p>The first key id requested after a batch was sent opens a new batching window. The batch is
+ * sent when the window closes or as soon as it holds maxBatchSize key ids, whichever comes first,
+ * and every key in the response is handed back to the threads that asked for it. The number of
+ * key ids per request and the time each id spent queued are recorded in histograms. The batching
+ * threads are started by the first request and stopped by {@link #shutdown()}.
+ */
+public class IonicKeyCoalescer {
+    public static final long DEFAULT_WINDOW_MICROS = 2000;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+    public static final int DEFAULT_MAX_CONCURRENT_BATCHES = 4;
+
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final int maxConcurrentBatches;
+
+    private final Object lock = new Object();
+    private List<Pending> batch = new ArrayList<Pending>();
+    private volatile IonicKeyService keyService;
+
+    // Started by the first request, under lock.
+    private ScheduledExecutorService timer;
+    private volatile ExecutorService senders;
+    private boolean shutdown;
+
+    private final IonicHistogram batchSizes = new IonicHistogram(" keys");
+    private final IonicHistogram queueDelays = new IonicHistogram("ns");
+
+    /**
+     * Constructs an IonicKeyCoalescer with a window of {@link #DEFAULT_WINDOW_MICROS} and
+     * batches of at most {@link #DEFAULT_MAX_BATCH_SIZE} key ids.
+     */
+    public IonicKeyCoalescer() {
+        this(DEFAULT_WINDOW_MICROS, TimeUnit.MICROSECONDS, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * Constructs an IonicKeyCoalescer.
+     *
+     * @param window how long a batch collects key ids before it is sent.
+     * @param unit the unit of window.
+     * @param maxBatchSize the number of key ids that causes a batch to be sent immediately, at
+     *     most {@link IonicEncryptionMaterialsProvider#MAX_GET_KEYS_QUANTITY}.
+     */
+    public IonicKeyCoalescer(long window, TimeUnit unit, int maxBatchSize) {
+        this(window, unit, maxBatchSize, DEFAULT_MAX_CONCURRENT_BATCHES);
+    }
+
+    /**
+     * Constructs an IonicKeyCoalescer.
+     *
+     * @param window how long a batch collects key ids before it is sent.
+     * @param unit the unit of window.
+     * @param maxBatchSize the number of key ids that causes a batch to be sent immediately, at
+     *     most {@link IonicEncryptionMaterialsProvider#MAX_GET_KEYS_QUANTITY}.
+     * @param maxConcurrentBatches the number of batches that may be in flight at once.
+     */
+    public IonicKeyCoalescer(long window, TimeUnit unit, int maxBatchSize,
+            int maxConcurrentBatches) {
+        if (window < 0) {
+            throw new IllegalArgumentException("window must not be negative");
+        }
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be at least 1");
+        }
+        if (maxBatchSize > IonicEncryptionMaterialsProvider.MAX_GET_KEYS_QUANTITY) {
+            throw new IllegalArgumentException("maxBatchSize must be at most "
+                    + IonicEncryptionMaterialsProvider.MAX_GET_KEYS_QUANTITY);
+        }
+        if (maxConcurrentBatches < 1) {
+            throw new IllegalArgumentException("maxConcurrentBatches must be at least 1");
+        }
+        this.windowNanos = unit.toNanos(window);
+        this.maxBatchSize = maxBatchSize;
+        this.maxConcurrentBatches = maxConcurrentBatches;
+    }
+
+    /**
+     * Sets the key service batches are sent to. Called by
+     * {@link IonicEncryptionMaterialsProvider#setKeyCoalescer(IonicKeyCoalescer)}.
+     */
+    void setKeyService(IonicKeyService keyService) {
+        this.keyService = keyService;
+    }
+
+    /**
+     * Queues keyId for the current batch.
+     *
+     * @param keyId the Ionic key id.
+     * @return a future completed with the key, or with the IonicException the key service returned
+     *     for it.
+     */
+    CompletableFuture<GetKeysResponse.Key> request(String keyId) {
+        Pending pending = new Pending(keyId);
+        List<Pending> full = null;
+        synchronized (lock) {
+            if (timer == null && !shutdown) {
+                timer = Executors.newSingleThreadScheduledExecutor(
+                        new IonicThreadFactory("ionic-key-batch"));
+                senders = Executors.newFixedThreadPool(maxConcurrentBatches,
+                        new IonicThreadFactory("ionic-key-batch-send"));
+            }
+            batch.add(pending);
+            if (batch.size() >= maxBatchSize || shutdown) {
+                full = batch;
+                batch = new ArrayList<Pending>();
+            } else if (batch.size() == 1) {
+                final List<Pending> opened = batch;
+                try {
+                    timer.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            flush(opened);
+                        }
+                    }, windowNanos, TimeUnit.NANOSECONDS);
+                } catch (RejectedExecutionException e) {
+                    full = batch;
+                    batch = new ArrayList<Pending>();
+                }
+            }
+        }
+        if (full != null) {
+            send(full);
+        }
+        return pending.future;
+    }
+
+    private void flush(List<Pending> opened) {
+        synchronized (lock) {
+            // The window's batch may already have been sent because it filled up.
+            if (batch != opened) {
+                return;
+            }
+            batch = new ArrayList<Pending>();
+        }
+        send(opened);
+    }
+
+    private void send(final List<Pending> pending) {
+        ExecutorService executor = this.senders;
+        if (executor != null) {
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        fetch(pending);
+                    }
+                });
+                return;
+            } catch (RejectedExecutionException e) {
+                // Shut down; fetch on the calling thread.
+            }
+        }
+        fetch(pending);
+    }
+
+    private void fetch(List<Pending> pending) {
+        long now = System.nanoTime();
+        LinkedHashSet<String> keyIds = new LinkedHashSet<String>();
+        for (Pending p : pending) {
+            queueDelays.record(now - p.queuedAt);
+            keyIds.add(p.keyId);
+        }
+        batchSizes.record(keyIds.size());
+        GetKeysRequest request = new GetKeysRequest();
+        for (String keyId : keyIds) {
+            request.add(keyId);
+        }
+        GetKeysResponse response;
+        IonicKeyService service = this.keyService;
+        try {
+            if (service == null) {
+                throw new IonicException(AgentErrorModuleConstants.ISAGENT_NOINIT,
+                        "IonicKeyCoalescer is not attached to an IonicEncryptionMaterialsProvider");
+            }
+            response = service.getKeys(request);
+        } catch (Exception e) {
+            for (Pending p : pending) {
+                p.future.completeExceptionally(e);
+            }
+            return;
+        }
+        for (Pending p : pending) {
+            try {
+                p.future.complete(IonicKeyCache.copyOf(
+                        IonicEncryptionMaterialsProvider.requireKey(response, p.keyId)));
+            } catch (IonicException e) {
+                p.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Stops the batching threads. Fetches requested afterwards are sent immediately on the
+     * calling thread.
+     */
+    public void shutdown() {
+        List<Pending> remaining;
+        synchronized (lock) {
+            shutdown = true;
+            if (timer != null) {
+                timer.shutdownNow();
+                senders.shutdown();
+            }
+            remaining = batch;
+            batch = new ArrayList<Pending>();
+        }
+        if (!remaining.isEmpty()) {
+            fetch(remaining);
+        }
+    }
+
+    /**
+     * Returns a histogram of the number of distinct key ids sent per GetKeysRequest.
+     *
+     * @return the batch size histogram.
+     */
+    public IonicHistogram getBatchSizeHistogram() {
+        return batchSizes;
+    }
+
+    /**
+     * Returns a histogram of the time, in nanoseconds, each key id waited before its batch was
+     * sent.
+     *
+     * @return the queue delay histogram.
+     */
+    public IonicHistogram getQueueDelayHistogram() {
+        return queueDelays;
+    }
+
+    public long getWindowMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(windowNanos);
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    private static class Pending {
+        private final String keyId;
+        private final long queuedAt = System.nanoTime();
+        private final CompletableFuture<GetKeysResponse.Key> future =
+                new CompletableFuture<GetKeysResponse.Key>();
+
+        Pending(String keyId) {
+            this.keyId = keyId;
+        }
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as
+ * the Terms & Conditions (https://dev.ionic.com/use) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.awss3;
+
+import com.ionic.sdk.agent.key.KeyAttributesMap;
+import com.ionic.sdk.agent.request.createkey.CreateKeysRequest;
+import com.ionic.sdk.agent.request.createkey.CreateKeysResponse;
+import com.ionic.sdk.error.IonicException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of pre-created Ionic keys used by {@link IonicEncryptionMaterialsProvider} to take the
+ * createKey round trip off the PUT path.
+ *
+ * <p>Keys are pooled separately for each distinct set of attributes (the default attributes plus
+ * any captured metadata or request attributes). Whenever a pool drops below the low-water mark a
+ * background refill creates a batch of keys through a single
+ * {@link com.ionic.sdk.agent.request.createkey.CreateKeysRequest}. Requests that carry mutable
+ * attributes are never served from the pool. The number of distinct attribute sets is bounded, so
+ * workloads whose attributes are unique per object fall back to a synchronous createKey. Keys
+ * that stayed in the pool longer than the maximum key age are discarded when they come up.
+ */
+public class IonicKeyPool {
+    public static final int DEFAULT_BATCH_SIZE = 32;
+    public static final int DEFAULT_LOW_WATER_MARK = 8;
+    public static final int DEFAULT_MAX_ATTRIBUTE_SETS = 64;
+    public static final long DEFAULT_MAX_KEY_AGE_MINUTES = 60;
+
+    private static final String POOL_REF_ID = "ionic-key-pool";
+
+    private final int batchSize;
+    private final int lowWaterMark;
+    private final int maxAttributeSets;
+    private final long maxKeyAgeNanos;
+
+    private final ConcurrentHashMap<KeyAttributesMap, Pool> pools =
+            new ConcurrentHashMap<KeyAttributesMap, Pool>();
+    private final ExecutorService refillExecutor =
+            Executors.newSingleThreadExecutor(new IonicThreadFactory("ionic-key-pool"));
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong refills = new AtomicLong();
+    private final AtomicLong refillFailures = new AtomicLong();
+    private final AtomicLong expiredKeys = new AtomicLong();
+
+    /**
+     * Constructs an IonicKeyPool with {@link #DEFAULT_BATCH_SIZE} and
+     * {@link #DEFAULT_LOW_WATER_MARK}.
+     */
+    public IonicKeyPool() {
+        this(DEFAULT_BATCH_SIZE, DEFAULT_LOW_WATER_MARK);
+    }
+
+    /**
+     * Constructs an IonicKeyPool.
+     *
+     * @param batchSize the number of keys requested by each background refill, at most
+     *     {@link IonicEncryptionMaterialsProvider#MAX_CREATE_KEYS_QUANTITY}.
+     * @param lowWaterMark the number of available keys below which a refill is started.
+     */
+    public IonicKeyPool(int batchSize, int lowWaterMark) {
+        this(batchSize, lowWaterMark, DEFAULT_MAX_ATTRIBUTE_SETS);
+    }
+
+    /**
+     * Constructs an IonicKeyPool.
+     *
+     * @param batchSize the number of keys requested by each background refill, at most
+     *     {@link IonicEncryptionMaterialsProvider#MAX_CREATE_KEYS_QUANTITY}.
+     * @param lowWaterMark the number of available keys below which a refill is started.
+     * @param maxAttributeSets the maximum number of distinct attribute sets that are pooled.
+     */
+    public IonicKeyPool(int batchSize, int lowWaterMark, int maxAttributeSets) {
+        this(batchSize, lowWaterMark, maxAttributeSets, DEFAULT_MAX_KEY_AGE_MINUTES,
+                TimeUnit.MINUTES);
+    }
+
+    /**
+     * Constructs an IonicKeyPool.
+     *
+     * @param batchSize the number of keys requested by each background refill, at most
+     *     {@link IonicEncryptionMaterialsProvider#MAX_CREATE_KEYS_QUANTITY}.
+     * @param lowWaterMark the number of available keys below which a refill is started.
+     * @param maxAttributeSets the maximum number of distinct attribute sets that are pooled.
+     * @param maxKeyAge the maximum time a key is handed out for after it is created.
+     * @param unit the unit of maxKeyAge.
+     */
+    public IonicKeyPool(int batchSize, int lowWaterMark, int maxAttributeSets, long maxKeyAge,
+            TimeUnit unit) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        }
+        if (batchSize > IonicEncryptionMaterialsProvider.MAX_CREATE_KEYS_QUANTITY) {
+            throw new IllegalArgumentException("batchSize must be at most "
+                    + IonicEncryptionMaterialsProvider.MAX_CREATE_KEYS_QUANTITY);
+        }
+        if (lowWaterMark < 0) {
+            throw new IllegalArgumentException("lowWaterMark must not be negative");
+        }
+        if (maxAttributeSets < 1) {
+            throw new IllegalArgumentException("maxAttributeSets must be at least 1");
+        }
+        if (maxKeyAge <= 0) {
+            throw new IllegalArgumentException("maxKeyAge must be positive");
+        }
+        this.batchSize = batchSize;
+        this.lowWaterMark = lowWaterMark;
+        this.maxAttributeSets = maxAttributeSets;
+        this.maxKeyAgeNanos = unit.toNanos(maxKeyAge);
+    }
+
+    /**
+     * Takes a ready key for attributes, scheduling a refill when the pool for attributes runs low.
+     * Keys older than the maximum key age are discarded on the way.
+     *
+     * @param attributes the attributes the key must carry.
+     * @param keyService the key service refills are sent to.
+     * @return a pooled key, or null on a miss.
+     */
+    CreateKeysResponse.Key take(KeyAttributesMap attributes, IonicKeyService keyService) {
+        Pool pool = pools.get(attributes);
+        if (pool == null) {
+            if (pools.size() >= maxAttributeSets) {
+                misses.incrementAndGet();
+                return null;
+            }
+            KeyAttributesMap poolAttributes = copyOf(attributes);
+            Pool created = new Pool(poolAttributes);
+            pool = pools.putIfAbsent(poolAttributes, created);
+            if (pool == null) {
+                pool = created;
+            }
+        }
+        CreateKeysResponse.Key key = null;
+        long now = System.nanoTime();
+        PooledKey pooled;
+        while ((pooled = pool.keys.poll()) != null) {
+            pool.available.decrementAndGet();
+            if (now - pooled.createdAt < maxKeyAgeNanos) {
+                key = pooled.key;
+                break;
+            }
+            expiredKeys.incrementAndGet();
+        }
+        if (key != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        if (pool.available.get() < lowWaterMark || key == null) {
+            scheduleRefill(pool, keyService);
+        }
+        return key;
+    }
+
+    /**
+     * Creates a batch of keys for attributes ahead of the first PUT that needs them.
+     *
+     * @param attributes the attributes the pooled keys carry.
+     * @param provider the IonicEncryptionMaterialsProvider whose key service creates the keys, as
+     *     it does for refills once the pool is set on it.
+     * @throws IonicException if the keys could not be created.
+     */
+    public void prefill(KeyAttributesMap attributes, IonicEncryptionMaterialsProvider provider)
+            throws IonicException {
+        prefill(attributes, provider.getMeteredKeyService());
+    }
+
+    /**
+     * Creates a batch of keys for attributes ahead of the first PUT that needs them.
+     *
+     * @param attributes the attributes the pooled keys carry.
+     * @param keyService the key service used to create the keys.
+     * @throws IonicException if the keys could not be created.
+     */
+    public void prefill(KeyAttributesMap attributes, IonicKeyService keyService)
+            throws IonicException {
+        KeyAttributesMap poolAttributes = copyOf(attributes);
+        Pool created = new Pool(poolAttributes);
+        Pool pool = pools.putIfAbsent(poolAttributes, created);
+        refill(pool == null ? created : pool, keyService);
+    }
+
+    private void scheduleRefill(final Pool pool, final IonicKeyService keyService) {
+        if (!pool.refilling.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            refillExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        refill(pool, keyService);
+                    } catch (IonicException e) {
+                        refillFailures.incrementAndGet();
+                    } catch (RuntimeException e) {
+                        refillFailures.incrementAndGet();
+                    } finally {
+                        pool.refilling.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pool.refilling.set(false);
+        }
+    }
+
+    private void refill(Pool pool, IonicKeyService keyService) throws IonicException {
+        CreateKeysRequest request = new CreateKeysRequest();
+        request.add(new CreateKeysRequest.Key(POOL_REF_ID, batchSize,
+                new KeyAttributesMap(pool.attributes)));
+        CreateKeysResponse response = keyService.createKeys(request);
+        long createdAt = System.nanoTime();
+        for (CreateKeysResponse.Key key : response.getKeys()) {
+            pool.keys.offer(new PooledKey(key, createdAt));
+            pool.available.incrementAndGet();
+        }
+        refills.incrementAndGet();
+    }
+
+    /**
+     * Discards every pooled key, e.g. after the default attributes or the Agent have changed.
+     */
+    public void clear() {
+        pools.clear();
+    }
+
+    /**
+     * Stops background refills. Keys already pooled remain available.
+     */
+    public void shutdown() {
+        refillExecutor.shutdownNow();
+    }
+
+    boolean isShutdown() {
+        return refillExecutor.isShutdown();
+    }
+
+    /**
+     * Returns the number of keys handed out from the pool.
+     *
+     * @return the hit count.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of requests the pool could not serve.
+     *
+     * @return the miss count.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of completed background refills.
+     *
+     * @return the refill count.
+     */
+    public long getRefillCount() {
+        return refills.get();
+    }
+
+    /**
+     * Returns the number of background refills that failed.
+     *
+     * @return the refill failure count.
+     */
+    public long getRefillFailureCount() {
+        return refillFailures.get();
+    }
+
+    /**
+     * Returns the number of pooled keys discarded because they exceeded the maximum key age.
+     *
+     * @return the expired key count.
+     */
+    public long getExpiredKeyCount() {
+        return expiredKeys.get();
+    }
+
+    /**
+     * Returns the number of keys currently available across all attribute sets.
+     *
+     * @return the available key count.
+     */
+    public int getAvailableKeyCount() {
+        int count = 0;
+        for (Pool pool : pools.values()) {
+            count += pool.available.get();
+        }
+        return count;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int getLowWaterMark() {
+        return lowWaterMark;
+    }
+
+    public int getMaxAttributeSets() {
+        return maxAttributeSets;
+    }
+
+    public long getMaxKeyAge(TimeUnit unit) {
+        return unit.convert(maxKeyAgeNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Copies attributes, including their value lists, so that later changes to the caller's map
+     * do not change the copy.
+     */
+    static KeyAttributesMap copyOf(KeyAttributesMap attributes) {
+        KeyAttributesMap copy = new KeyAttributesMap();
+        for (Map.Entry<String, List<String>> entry : attributes.entrySet()) {
+            copy.put(entry.getKey(), new ArrayList<String>(entry.getValue()));
+        }
+        return copy;
+    }
+
+    private static class Pool {
+        private final KeyAttributesMap attributes;
+        private final ConcurrentLinkedQueue<PooledKey> keys =
+                new ConcurrentLinkedQueue<PooledKey>();
+        private final AtomicInteger available = new AtomicInteger();
+        private final AtomicBoolean refilling = new AtomicBoolean();
+
+        Pool(KeyAttributesMap attributes) {
+            this.attributes = attributes;
+        }
+    }
+
+    private static class PooledKey {
+        private final CreateKeysResponse.Key key;
+        private final long createdAt;
+
+        PooledKey(CreateKeysResponse.Key key, long createdAt) {
+            this.key = key;
+            this.createdAt = createdAt;
+        }
+    }
+}
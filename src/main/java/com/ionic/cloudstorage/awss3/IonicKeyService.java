@@ -0,0 +1,54 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as
+ * the Terms & Conditions (https://dev.ionic.com/use) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.awss3;
+
+import com.ionic.sdk.agent.request.createkey.CreateKeysRequest;
+import com.ionic.sdk.agent.request.createkey.CreateKeysResponse;
+import com.ionic.sdk.agent.request.getkey.GetKeysRequest;
+import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
+import com.ionic.sdk.agent.request.updatekey.UpdateKeysRequest;
+import com.ionic.sdk.agent.request.updatekey.UpdateKeysResponse;
+import com.ionic.sdk.error.IonicException;
+
+/**
+ * The key operations {@link IonicEncryptionMaterialsProvider} and its helpers depend on. The
+ * default implementation, {@link AgentKeyService}, sends them to an Ionic key service through an
+ * {@link com.ionic.sdk.agent.Agent}; {@link InMemoryKeyService} serves them from memory for
+ * load tests and benchmarks.
+ *
+ * <p>Implementations must be safe for use by many threads at once. Per-key failures are reported
+ * as errors in the response, failures of a whole request as an IonicException.
+ */
+public interface IonicKeyService {
+
+    /**
+     * Creates keys.
+     *
+     * @param request a {@link com.ionic.sdk.agent.request.createkey.CreateKeysRequest}.
+     * @return a {@link com.ionic.sdk.agent.request.createkey.CreateKeysResponse}.
+     * @throws IonicException if the request failed.
+     */
+    CreateKeysResponse createKeys(CreateKeysRequest request) throws IonicException;
+
+    /**
+     * Fetches keys by key id.
+     *
+     * @param request a {@link com.ionic.sdk.agent.request.getkey.GetKeysRequest}.
+     * @return a {@link com.ionic.sdk.agent.request.getkey.GetKeysResponse}.
+     * @throws IonicException if the request failed.
+     */
+    GetKeysResponse getKeys(GetKeysRequest request) throws IonicException;
+
+    /**
+     * Updates the mutable attributes of keys.
+     *
+     * @param request a {@link com.ionic.sdk.agent.request.updatekey.UpdateKeysRequest}.
+     * @return a {@link com.ionic.sdk.agent.request.updatekey.UpdateKeysResponse}.
+     * @throws IonicException if the request failed.
+     */
+    UpdateKeysResponse updateKeys(UpdateKeysRequest request) throws IonicException;
+}
@@ -0,0 +1,321 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as
+ * the Terms & Conditions (https://dev.ionic.com/use) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.awss3;
+
+import com.ionic.sdk.agent.key.KeyAttributesMap;
+import com.ionic.sdk.agent.request.createkey.CreateKeysRequest;
+import com.ionic.sdk.agent.request.createkey.CreateKeysResponse;
+import com.ionic.sdk.error.IonicException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An opt-in policy under which {@link IonicEncryptionMaterialsProvider} encrypts several objects
+ * with the same Ionic key, for high-volume ingest where a key per object is more key service load
+ * than the data warrants.
+ *
+ * <p>A key is shared by objects whose keys would carry the same attributes, until it has been used
+ * for a maximum number of objects or a maximum time has passed since it was created, whichever
+ * comes first; the next object then gets a new key. Each object still records the id of its key
+ * in its materials description, so objects are read as usual. Limits apply to every object unless
+ * a bucket or key prefix has limits of its own, see {@link #setLimits}; the object a key is for is
+ * known when the PUT is sent through {@link IonicS3EncryptionClient}. Requests that carry mutable
+ * attributes never share a key. The number of distinct attribute sets sharing keys is bounded, so
+ * workloads whose attributes are unique per object fall back to a key per object.
+ *
+ * <p>Sharing an Ionic key does not share content keys: each object is still encrypted with its
+ * own random content key, wrapped locally with the shared Ionic key. With an {@link IonicKeyCache}
+ * set on the provider, reading the objects that share a key takes a single getKeys request.
+ */
+public class IonicKeySharingPolicy {
+    public static final int DEFAULT_MAX_ATTRIBUTE_SETS = 64;
+
+    private final Limits defaultLimits;
+    private final int maxAttributeSets;
+
+    private final CopyOnWriteArrayList<Scope> scopes = new CopyOnWriteArrayList<Scope>();
+    private final ConcurrentHashMap<List<Object>, SharedKey> sharedKeys =
+            new ConcurrentHashMap<List<Object>, SharedKey>();
+
+    private final AtomicLong sharedUses = new AtomicLong();
+    private final AtomicLong createdKeys = new AtomicLong();
+
+    /**
+     * Constructs an IonicKeySharingPolicy sharing keys among up to
+     * {@link #DEFAULT_MAX_ATTRIBUTE_SETS} distinct attribute sets.
+     *
+     * @param maxObjects the maximum number of objects encrypted with one key.
+     * @param maxAge the maximum time a key is used for after it is created.
+     * @param unit the unit of maxAge.
+     */
+    public IonicKeySharingPolicy(int maxObjects, long maxAge, TimeUnit unit) {
+        this(maxObjects, maxAge, unit, DEFAULT_MAX_ATTRIBUTE_SETS);
+    }
+
+    /**
+     * Constructs an IonicKeySharingPolicy.
+     *
+     * @param maxObjects the maximum number of objects encrypted with one key.
+     * @param maxAge the maximum time a key is used for after it is created.
+     * @param unit the unit of maxAge.
+     * @param maxAttributeSets the maximum number of distinct attribute sets that share keys.
+     */
+    public IonicKeySharingPolicy(int maxObjects, long maxAge, TimeUnit unit,
+            int maxAttributeSets) {
+        if (maxAttributeSets < 1) {
+            throw new IllegalArgumentException("maxAttributeSets must be at least 1");
+        }
+        this.defaultLimits = new Limits(maxObjects, maxAge, unit);
+        this.maxAttributeSets = maxAttributeSets;
+    }
+
+    /**
+     * Sets the limits for the objects of a bucket whose keys start with prefix, replacing the
+     * limits previously set for the same bucket and prefix. An object gets the limits of the
+     * longest prefix it matches, or the default limits if it matches none. A maxObjects of 1 turns
+     * sharing off for the objects. Keys shared under replaced limits that no other scope has are
+     * no longer shared.
+     *
+     * @param bucket the bucket name.
+     * @param prefix the object key prefix, or "" for the whole bucket.
+     * @param maxObjects the maximum number of objects encrypted with one key.
+     * @param maxAge the maximum time a key is used for after it is created.
+     * @param unit the unit of maxAge.
+     */
+    public synchronized void setLimits(String bucket, String prefix, int maxObjects, long maxAge,
+            TimeUnit unit) {
+        if (bucket == null || prefix == null) {
+            throw new IllegalArgumentException("bucket and prefix must not be null");
+        }
+        Scope scope = new Scope(bucket, prefix, new Limits(maxObjects, maxAge, unit));
+        Limits replaced = null;
+        for (Scope existing : scopes) {
+            if (existing.bucket.equals(bucket) && existing.prefix.equals(prefix)) {
+                scopes.remove(existing);
+                replaced = existing.limits;
+            }
+        }
+        scopes.add(scope);
+        if (replaced != null && !isInUse(replaced)) {
+            // Their keys would otherwise hold attribute set slots until the policy is cleared.
+            Iterator<SharedKey> it = sharedKeys.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().limits.equals(replaced)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    private boolean isInUse(Limits limits) {
+        if (defaultLimits.equals(limits)) {
+            return true;
+        }
+        for (Scope scope : scopes) {
+            if (scope.limits.equals(limits)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Takes the shared key for attributes, creating one when there is none or the current one has
+     * reached its limits. Callers sharing a key wait while its replacement is created rather than
+     * each creating their own.
+     *
+     * @param bucket the bucket of the object the key is for, or null if not known.
+     * @param objectKey the key of the object the key is for, or null if not known.
+     * @param attributes the attributes the key must carry.
+     * @param keyService the key service new keys are created with.
+     * @param keyPool the pool new keys are taken from when it has one ready, or null.
+     * @return the key, or null if the request's limits do not allow sharing or too many attribute
+     *     sets already share keys.
+     * @throws IonicException if a new key could not be created.
+     */
+    CreateKeysResponse.Key take(String bucket, String objectKey, KeyAttributesMap attributes,
+            IonicKeyService keyService, IonicKeyPool keyPool) throws IonicException {
+        Limits limits = limitsFor(bucket, objectKey);
+        if (limits.maxObjects == 1) {
+            return null;
+        }
+        List<Object> id = Arrays.<Object>asList(limits, attributes);
+        SharedKey shared = sharedKeys.get(id);
+        if (shared == null) {
+            if (sharedKeys.size() >= maxAttributeSets) {
+                purgeExhausted(System.nanoTime());
+                if (sharedKeys.size() >= maxAttributeSets) {
+                    return null;
+                }
+            }
+            KeyAttributesMap sharedAttributes = IonicKeyPool.copyOf(attributes);
+            SharedKey created = new SharedKey(limits, sharedAttributes);
+            shared = sharedKeys.putIfAbsent(
+                    Arrays.<Object>asList(limits, sharedAttributes), created);
+            if (shared == null) {
+                shared = created;
+            }
+        }
+        return shared.take(keyService, keyPool);
+    }
+
+    /**
+     * Returns the limits of an object.
+     */
+    private Limits limitsFor(String bucket, String objectKey) {
+        if (bucket == null || objectKey == null) {
+            return defaultLimits;
+        }
+        Scope match = null;
+        for (Scope scope : scopes) {
+            if (scope.bucket.equals(bucket) && objectKey.startsWith(scope.prefix)
+                    && (match == null || scope.prefix.length() > match.prefix.length())) {
+                match = scope;
+            }
+        }
+        return match == null ? defaultLimits : match.limits;
+    }
+
+    private void purgeExhausted(long now) {
+        Iterator<SharedKey> it = sharedKeys.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().isExhausted(now)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Stops sharing every current key, e.g. after the Agent or key service has changed. Limits
+     * are kept.
+     */
+    public void clear() {
+        sharedKeys.clear();
+    }
+
+    /**
+     * Returns the number of objects that were given a key already used for another object.
+     *
+     * @return the shared use count.
+     */
+    public long getSharedUseCount() {
+        return sharedUses.get();
+    }
+
+    /**
+     * Returns the number of keys obtained for sharing.
+     *
+     * @return the created key count.
+     */
+    public long getCreatedKeyCount() {
+        return createdKeys.get();
+    }
+
+    public int getMaxObjects() {
+        return defaultLimits.maxObjects;
+    }
+
+    public long getMaxAge(TimeUnit unit) {
+        return unit.convert(defaultLimits.maxAgeNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public int getMaxAttributeSets() {
+        return maxAttributeSets;
+    }
+
+    private static class Limits {
+        private final int maxObjects;
+        private final long maxAgeNanos;
+
+        Limits(int maxObjects, long maxAge, TimeUnit unit) {
+            if (maxObjects < 1) {
+                throw new IllegalArgumentException("maxObjects must be at least 1");
+            }
+            if (maxAge <= 0) {
+                throw new IllegalArgumentException("maxAge must be positive");
+            }
+            this.maxObjects = maxObjects;
+            this.maxAgeNanos = unit.toNanos(maxAge);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Limits)) {
+                return false;
+            }
+            Limits other = (Limits) obj;
+            return maxObjects == other.maxObjects && maxAgeNanos == other.maxAgeNanos;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * maxObjects + (int) (maxAgeNanos ^ (maxAgeNanos >>> 32));
+        }
+    }
+
+    private static class Scope {
+        private final String bucket;
+        private final String prefix;
+        private final Limits limits;
+
+        Scope(String bucket, String prefix, Limits limits) {
+            this.bucket = bucket;
+            this.prefix = prefix;
+            this.limits = limits;
+        }
+    }
+
+    private class SharedKey {
+        private final Limits limits;
+        private final KeyAttributesMap attributes;
+
+        // Guarded by this.
+        private CreateKeysResponse.Key key;
+        private int uses;
+        private long createdAt;
+
+        SharedKey(Limits limits, KeyAttributesMap attributes) {
+            this.limits = limits;
+            this.attributes = attributes;
+        }
+
+        synchronized CreateKeysResponse.Key take(IonicKeyService keyService,
+                IonicKeyPool keyPool) throws IonicException {
+            long now = System.nanoTime();
+            if (isExhausted(now)) {
+                key = null;
+                CreateKeysResponse.Key pooled =
+                        keyPool == null ? null : keyPool.take(attributes, keyService);
+                if (pooled != null) {
+                    key = pooled;
+                } else {
+                    CreateKeysRequest request = new CreateKeysRequest();
+                    request.add(new CreateKeysRequest.Key("", 1,
+                            new KeyAttributesMap(attributes)));
+                    key = keyService.createKeys(request).getFirstKey();
+                }
+                uses = 0;
+                createdAt = now;
+                createdKeys.incrementAndGet();
+            } else {
+                sharedUses.incrementAndGet();
+            }
+            uses++;
+            return key;
+        }
+
+        synchronized boolean isExhausted(long now) {
+            return key == null || uses >= limits.maxObjects
+                    || now - createdAt >= limits.maxAgeNanos;
+        }
+    }
+}
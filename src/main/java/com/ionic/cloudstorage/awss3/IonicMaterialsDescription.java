@@ -0,0 +1,249 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as
+ * the Terms & Conditions (https://dev.ionic.com/use) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.awss3;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+
+/**
+ * Reads values from the {@code x-amz-matdesc} materials description of an encrypted object, the
+ * JSON object of strings the encryption client stores in its metadata. The description is scanned
+ * once, in place: names are compared without being copied and only the value asked for is
+ * allocated, so a large description, e.g. one holding captured metadata, costs no more than its
+ * length to read. Values may have any length and contain JSON escapes.
+ */
+public final class IonicMaterialsDescription {
+    public static final String MATDESC_HEADER = "x-amz-matdesc";
+
+    private IonicMaterialsDescription() {}
+
+    /**
+     * Returns the Ionic key id in the materials description of an object.
+     *
+     * @param meta the metadata of an object, e.g. as returned by a HEAD.
+     * @return the key id, or null if the object has no materials description or no Ionic key.
+     */
+    public static String getKeyId(ObjectMetadata meta) {
+        return getKeyId(meta.getUserMetaDataOf(MATDESC_HEADER));
+    }
+
+    /**
+     * Returns the Ionic key id in a materials description.
+     *
+     * @param matdesc the value of the {@code x-amz-matdesc} metadata, or null.
+     * @return the key id, or null if matdesc is null, malformed or has no Ionic key.
+     */
+    public static String getKeyId(String matdesc) {
+        return get(matdesc, IonicEncryptionMaterialsProvider.KEYIDKEY);
+    }
+
+    /**
+     * Returns the value of a name in a materials description.
+     *
+     * @param matdesc the value of the {@code x-amz-matdesc} metadata, or null.
+     * @param name the name to look up.
+     * @return the unescaped string value of the first occurrence of name, or null if matdesc is
+     *     null or malformed, does not hold name or holds a value other than a string for it.
+     */
+    public static String get(String matdesc, String name) {
+        if (matdesc == null) {
+            return null;
+        }
+        int length = matdesc.length();
+        int i = skipWhitespace(matdesc, 0);
+        if (i == length || matdesc.charAt(i) != '{') {
+            return null;
+        }
+        i = skipWhitespace(matdesc, i + 1);
+        if (i < length && matdesc.charAt(i) == '}') {
+            return null;
+        }
+        while (i < length && matdesc.charAt(i) == '"') {
+            int nameEnd = endOfString(matdesc, i + 1);
+            if (nameEnd < 0) {
+                return null;
+            }
+            boolean match = equalsUnescaped(matdesc, i + 1, nameEnd, name);
+            i = skipWhitespace(matdesc, nameEnd + 1);
+            if (i == length || matdesc.charAt(i) != ':') {
+                return null;
+            }
+            i = skipWhitespace(matdesc, i + 1);
+            if (i == length) {
+                return null;
+            }
+            if (matdesc.charAt(i) == '"') {
+                int valueEnd = endOfString(matdesc, i + 1);
+                if (valueEnd < 0) {
+                    return null;
+                }
+                if (match) {
+                    return unescape(matdesc, i + 1, valueEnd);
+                }
+                i = valueEnd + 1;
+            } else {
+                if (match) {
+                    return null;
+                }
+                i = endOfValue(matdesc, i);
+                if (i < 0) {
+                    return null;
+                }
+            }
+            i = skipWhitespace(matdesc, i);
+            if (i == length || matdesc.charAt(i) != ',') {
+                return null;
+            }
+            i = skipWhitespace(matdesc, i + 1);
+        }
+        return null;
+    }
+
+    private static int skipWhitespace(String s, int i) {
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the index of the quote closing the string starting at start, or -1 if it is not
+     * closed.
+     */
+    private static int endOfString(String s, int start) {
+        for (int i = start; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '"') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index just past the number, literal, object or array starting at start, or -1
+     * if it is not terminated. The SDK only writes strings; other values are skipped.
+     */
+    private static int endOfValue(String s, int start) {
+        int depth = 0;
+        for (int i = start; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"') {
+                i = endOfString(s, i + 1);
+                if (i < 0) {
+                    return -1;
+                }
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                if (depth == 0) {
+                    return i;
+                }
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean equalsUnescaped(String s, int start, int end, String name) {
+        int n = 0;
+        int i = start;
+        while (i < end) {
+            int c = s.charAt(i);
+            if (c == '\\') {
+                c = escapedChar(s, i, end);
+                i += escapeLength(s, i);
+            } else {
+                i++;
+            }
+            if (c < 0 || n == name.length() || name.charAt(n) != c) {
+                return false;
+            }
+            n++;
+        }
+        return n == name.length();
+    }
+
+    private static String unescape(String s, int start, int end) {
+        int escape = s.indexOf('\\', start);
+        if (escape < 0 || escape >= end) {
+            return s.substring(start, end);
+        }
+        StringBuilder value = new StringBuilder(end - start);
+        value.append(s, start, escape);
+        int i = escape;
+        while (i < end) {
+            char c = s.charAt(i);
+            if (c == '\\') {
+                int unescaped = escapedChar(s, i, end);
+                if (unescaped < 0) {
+                    return null;
+                }
+                value.append((char) unescaped);
+                i += escapeLength(s, i);
+            } else {
+                value.append(c);
+                i++;
+            }
+        }
+        return value.toString();
+    }
+
+    private static int escapeLength(String s, int i) {
+        return s.charAt(i + 1) == 'u' ? 6 : 2;
+    }
+
+    /**
+     * Returns the character of the escape sequence at i, or -1 if it is not a valid JSON escape
+     * ending before end.
+     */
+    private static int escapedChar(String s, int i, int end) {
+        if (i + 1 >= end) {
+            return -1;
+        }
+        switch (s.charAt(i + 1)) {
+            case '"':
+                return '"';
+            case '\\':
+                return '\\';
+            case '/':
+                return '/';
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                if (i + 6 > end) {
+                    return -1;
+                }
+                int c = 0;
+                for (int j = i + 2; j < i + 6; j++) {
+                    int digit = Character.digit(s.charAt(j), 16);
+                    if (digit < 0) {
+                        return -1;
+                    }
+                    c = c * 16 + digit;
+                }
+                return c;
+            default:
+                return -1;
+        }
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as
+ * the Terms & Conditions (https://dev.ionic.com/use) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.awss3;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.DefaultRequest;
+import com.amazonaws.metrics.AwsSdkMetrics;
+import com.amazonaws.metrics.MetricType;
+import com.amazonaws.metrics.RequestMetricCollector;
+import com.amazonaws.util.AWSRequestMetrics;
+import com.amazonaws.util.AWSRequestMetricsFullSupport;
+import com.amazonaws.util.TimingInfo;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Key service metrics of an {@link IonicEncryptionMaterialsProvider}: latency histograms of key
+ * creation and retrieval, error counts by IonicException return code, and the hit ratios and
+ * sizes of the provider's caches and maps.
+ *
+ * <p>Every key service request is also reported to the RequestMetricCollector of the
+ * {@link IonicS3EncryptionClient} using the provider, as a request of service
+ * {@link #SERVICE_NAME} whose original request is the S3 request that needed the key, when it was
+ * made on the calling thread. The request's timing holds a sub-measurement named after the
+ * {@link Field} of the operation.
+ */
+public final class IonicMetrics implements IonicMetricsMXBean {
+    public static final String SERVICE_NAME = "Ionic Security";
+    public static final String MBEAN_DOMAIN = "com.ionic.cloudstorage.awss3";
+
+    /**
+     * Metric types of the key service requests reported to a RequestMetricCollector.
+     */
+    public enum Field implements MetricType {
+        /** Timing of a createKeys request. */
+        CreateKeysTime,
+        /** Timing of a getKeys request. */
+        GetKeysTime,
+        /** Timing of an updateKeys request. */
+        UpdateKeysTime,
+        /** Counter of the keys in the request. */
+        IonicKeyCount,
+        /** Property holding the return code of a failed request or key. */
+        IonicErrorCode,
+    }
+
+    private static final ThreadLocal<AmazonWebServiceRequest> CURRENT_REQUEST =
+            new ThreadLocal<AmazonWebServiceRequest>();
+
+    private final IonicEncryptionMaterialsProvider provider;
+    private final IonicHistogram createKeysLatency = new IonicHistogram("ns");
+    private final IonicHistogram getKeysLatency = new IonicHistogram("ns");
+    private final IonicHistogram updateKeysLatency = new IonicHistogram("ns");
+    private final ConcurrentHashMap<Integer, AtomicLong> errorCounts =
+            new ConcurrentHashMap<Integer, AtomicLong>();
+    private volatile RequestMetricCollector requestMetricCollector;
+
+    IonicMetrics(IonicEncryptionMaterialsProvider provider) {
+        this.provider = provider;
+    }
+
+    /**
+     * Marks request as the S3 request the calling thread is executing, so key service requests it
+     * triggers are reported with it as their original request.
+     *
+     * @return the previously marked request, to be passed to {@link #exitRequest}.
+     */
+    static AmazonWebServiceRequest enterRequest(AmazonWebServiceRequest request) {
+        AmazonWebServiceRequest previous = CURRENT_REQUEST.get();
+        CURRENT_REQUEST.set(request);
+        return previous;
+    }
+
+    static void exitRequest(AmazonWebServiceRequest previous) {
+        if (previous == null) {
+            CURRENT_REQUEST.remove();
+        } else {
+            CURRENT_REQUEST.set(previous);
+        }
+    }
+
+    /**
+     * Records a key service request that started at startNanos and has just finished.
+     *
+     * @param operation the timing field of the operation.
+     * @param keyCount the number of keys in the request.
+     * @param errorCode the return code of the failed request or of a failed key in it, or 0. Errors
+     *     are counted separately with {@link #recordError}.
+     */
+    void recordRequest(Field operation, long startNanos, int keyCount, int errorCode) {
+        long endNanos = System.nanoTime();
+        histogram(operation).record(endNanos - startNanos);
+        RequestMetricCollector collector = this.requestMetricCollector;
+        if (collector == null) {
+            collector = AwsSdkMetrics.getRequestMetricCollector();
+        }
+        if (collector == null || !collector.isEnabled()) {
+            return;
+        }
+        AWSRequestMetricsFullSupport metrics = new AWSRequestMetricsFullSupport();
+        metrics.addProperty(AWSRequestMetrics.Field.ServiceName, SERVICE_NAME);
+        metrics.getTimingInfo().addSubMeasurement(operation.name(),
+                TimingInfo.newTimingInfoFullSupport(startNanos, endNanos));
+        metrics.setCounter(Field.IonicKeyCount, keyCount);
+        if (errorCode != 0) {
+            metrics.addProperty(Field.IonicErrorCode, errorCode);
+        }
+        metrics.getTimingInfo().endTiming();
+        DefaultRequest<Void> request =
+                new DefaultRequest<Void>(CURRENT_REQUEST.get(), SERVICE_NAME);
+        request.setAWSRequestMetrics(metrics);
+        collector.collectMetrics(request, null);
+    }
+
+    void recordError(int errorCode) {
+        AtomicLong count = errorCounts.get(errorCode);
+        if (count == null) {
+            AtomicLong created = new AtomicLong();
+            count = errorCounts.putIfAbsent(errorCode, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    private IonicHistogram histogram(Field operation) {
+        switch (operation) {
+            case CreateKeysTime:
+                return createKeysLatency;
+            case GetKeysTime:
+                return getKeysLatency;
+            default:
+                return updateKeysLatency;
+        }
+    }
+
+    /**
+     * Sets the collector key service requests are reported to. {@link IonicS3EncryptionClient}
+     * sets the collector it was built with, so a provider shared by several clients reports to the
+     * collector of the last one built.
+     *
+     * @param requestMetricCollector a RequestMetricCollector, or null to use the SDK default.
+     */
+    public void setRequestMetricCollector(RequestMetricCollector requestMetricCollector) {
+        this.requestMetricCollector = requestMetricCollector;
+    }
+
+    public RequestMetricCollector getRequestMetricCollector() {
+        return requestMetricCollector;
+    }
+
+    /**
+     * Returns the latencies of createKeys requests, in nanoseconds.
+     *
+     * @return the createKeys {@link IonicHistogram}.
+     */
+    public IonicHistogram getCreateKeysHistogram() {
+        return createKeysLatency;
+    }
+
+    /**
+     * Returns the latencies of getKeys requests, in nanoseconds.
+     *
+     * @return the getKeys {@link IonicHistogram}.
+     */
+    public IonicHistogram getGetKeysHistogram() {
+        return getKeysLatency;
+    }
+
+    /**
+     * Returns the latencies of updateKeys requests, in nanoseconds.
+     *
+     * @return the updateKeys {@link IonicHistogram}.
+     */
+    public IonicHistogram getUpdateKeysHistogram() {
+        return updateKeysLatency;
+    }
+
+    /**
+     * Returns the number of key service errors with the given return code.
+     *
+     * @param returnCode an IonicException return code.
+     * @return the error count.
+     */
+    public long getErrorCount(int returnCode) {
+        AtomicLong count = errorCounts.get(returnCode);
+        return count == null ? 0 : count.get();
+    }
+
+    @Override
+    public long getCreateKeysCount() {
+        return createKeysLatency.getCount();
+    }
+
+    @Override
+    public double getCreateKeysMeanMicros() {
+        return createKeysLatency.getMean() / 1000;
+    }
+
+    @Override
+    public long getCreateKeysP50Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(createKeysLatency.getPercentile(50));
+    }
+
+    @Override
+    public long getCreateKeysP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(createKeysLatency.getPercentile(99));
+    }
+
+    @Override
+    public long getCreateKeysMaxMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(createKeysLatency.getMax());
+    }
+
+    @Override
+    public long getGetKeysCount() {
+        return getKeysLatency.getCount();
+    }
+
+    @Override
+    public double getGetKeysMeanMicros() {
+        return getKeysLatency.getMean() / 1000;
+    }
+
+    @Override
+    public long getGetKeysP50Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(getKeysLatency.getPercentile(50));
+    }
+
+    @Override
+    public long getGetKeysP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(getKeysLatency.getPercentile(99));
+    }
+
+    @Override
+    public long getGetKeysMaxMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(getKeysLatency.getMax());
+    }
+
+    @Override
+    public Map<Integer, Long> getErrorCounts() {
+        TreeMap<Integer, Long> counts = new TreeMap<Integer, Long>();
+        for (Map.Entry<Integer, AtomicLong> entry : errorCounts.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    @Override
+    public long getTotalErrorCount() {
+        long total = 0;
+        for (AtomicLong count : errorCounts.values()) {
+            total += count.get();
+        }
+        return total;
+    }
+
+    @Override
+    public double getKeyCacheHitRatio() {
+        IonicKeyCache cache = provider.getKeyCache();
+        return cache == null ? 0 : ratio(cache.getHitCount(), cache.getMissCount());
+    }
+
+    @Override
+    public int getKeyCacheSize() {
+        IonicKeyCache cache = provider.getKeyCache();
+        return cache == null ? 0 : cache.size();
+    }
+
+    @Override
+    public double getKeyPoolHitRatio() {
+        IonicKeyPool pool = provider.getKeyPool();
+        return pool == null ? 0 : ratio(pool.getHitCount(), pool.getMissCount());
+    }
+
+    @Override
+    public int getKeyPoolAvailableCount() {
+        IonicKeyPool pool = provider.getKeyPool();
+        return pool == null ? 0 : pool.getAvailableKeyCount();
+    }
+
+    @Override
+    public int getPendingRequestKeyCount() {
+        return provider.getPendingRequestKeyCount();
+    }
+
+    @Override
+    public int getPendingResponseKeyCount() {
+        return provider.getPendingResponseKeyCount();
+    }
+
+    @Override
+    public long getEvictedRequestContextCount() {
+        return provider.getEvictedRequestContextCount();
+    }
+
+    @Override
+    public int getInFlightKeyFetchCount() {
+        return provider.getInFlightKeyFetchCount();
+    }
+
+    @Override
+    public long getJoinedKeyFetchCount() {
+        return provider.getJoinedKeyFetchCount();
+    }
+
+    @Override
+    public int getDeniedKeyCount() {
+        return provider.getDeniedKeyCount();
+    }
+
+    @Override
+    public long getDeniedKeyHitCount() {
+        return provider.getDeniedKeyHitCount();
+    }
+
+    @Override
+    public void reset() {
+        createKeysLatency.reset();
+        getKeysLatency.reset();
+        updateKeysLatency.reset();
+        errorCounts.clear();
+    }
+
+    private static double ratio(long hits, long misses) {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Registers these metrics with the platform MBeanServer as
+     * {@code com.ionic.cloudstorage.awss3:type=IonicMetrics,name=<name>}.
+     *
+     * @param name the name property of the ObjectName.
+     * @return the registered ObjectName.
+     * @throws IllegalArgumentException if name is not valid or already registered.
+     */
+    ObjectName registerMBean(String name) {
+        try {
+            ObjectName objectName = new ObjectName(MBEAN_DOMAIN + ":type=IonicMetrics,name="
+                    + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalArgumentException(
+                    "Cannot register IonicMetrics MBean named " + name, e);
+        }
+    }
+
+    static void unregisterMBean(ObjectName objectName) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            // Already unregistered concurrently.
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as
+ * the Terms & Conditions (https://dev.ionic.com/use) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.awss3;
+
+import java.util.Map;
+
+/**
+ * The JMX view of {@link IonicMetrics}, registered by {@link IonicS3EncryptionClientBuilder} when
+ * a metrics MBean name is set. Latencies are in microseconds and percentiles are accurate to
+ * within a factor of two.
+ */
+public interface IonicMetricsMXBean {
+
+    long getCreateKeysCount();
+
+    double getCreateKeysMeanMicros();
+
+    long getCreateKeysP50Micros();
+
+    long getCreateKeysP99Micros();
+
+    long getCreateKeysMaxMicros();
+
+    long getGetKeysCount();
+
+    double getGetKeysMeanMicros();
+
+    long getGetKeysP50Micros();
+
+    long getGetKeysP99Micros();
+
+    long getGetKeysMaxMicros();
+
+    /**
+     * Returns the number of key service errors, by IonicException return code.
+     *
+     * @return error counts keyed by return code.
+     */
+    Map<Integer, Long> getErrorCounts();
+
+    long getTotalErrorCount();
+
+    /**
+     * Returns the share of key cache lookups that were hits.
+     *
+     * @return a ratio between 0 and 1, or 0 when no key cache is set or it was never used.
+     */
+    double getKeyCacheHitRatio();
+
+    int getKeyCacheSize();
+
+    /**
+     * Returns the share of key creations served from the key pool.
+     *
+     * @return a ratio between 0 and 1, or 0 when no key pool is set or it was never used.
+     */
+    double getKeyPoolHitRatio();
+
+    int getKeyPoolAvailableCount();
+
+    int getPendingRequestKeyCount();
+
+    int getPendingResponseKeyCount();
+
+    long getEvictedRequestContextCount();
+
+    int getInFlightKeyFetchCount();
+
+    long getJoinedKeyFetchCount();
+
+    int getDeniedKeyCount();
+
+    long getDeniedKeyHitCount();
+
+    /**
+     * Clears the latency histograms and error counts. Counters owned by the key cache, key pool and
+     * provider are not affected.
+     */
+    void reset();
+}
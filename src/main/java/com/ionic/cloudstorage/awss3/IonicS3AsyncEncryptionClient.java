@@ -0,0 +1,362 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as
+ * the Terms & Conditions (https://dev.ionic.com/use) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.awss3;
+
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.UploadObjectRequest;
+import com.ionic.sdk.agent.request.createkey.CreateKeysRequest;
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * An asynchronous front end to an {@link IonicS3EncryptionClient} whose operations return
+ * CompletableFutures.
+ *
+ * <p>Each operation is a chain of a key service step and an S3 step, and only the S3 step takes a
+ * transfer thread. A PUT or upload first creates its key on the provider's materials executor, or
+ * takes it from the key sharing policy or key pool, and only then queues its S3 request with the
+ * key already in hand. A GET first sends a HEAD of the object, fetches the key named in its
+ * materials description without holding a thread, through the provider's key coalescer if one is
+ * set, and then sends the GET, which finds the key held for it. This costs one HEAD per GET but
+ * keeps transfer threads from waiting on the key service. S3 requests are made with the
+ * synchronous client, so every S3 request in progress holds a transfer thread while it runs; the
+ * number of transfer threads is the number of S3 requests sent at once.
+ *
+ * <p>At most maxConcurrency operations are in flight at once, counting those waiting for a key or
+ * a transfer thread. An operation started beyond that completes at once with a
+ * RejectedExecutionException, so callers can slow down instead of queueing without bound.
+ */
+public class IonicS3AsyncEncryptionClient {
+    public static final int DEFAULT_TRANSFER_THREADS = 32;
+    public static final int DEFAULT_MAX_CONCURRENCY = 4096;
+
+    private final IonicS3EncryptionClient client;
+    private final IonicEncryptionMaterialsProvider iemp;
+    private final ExecutorService transferExecutor;
+    private final Semaphore permits;
+    private final int maxConcurrency;
+
+    /**
+     * Constructs an IonicS3AsyncEncryptionClient with {@link #DEFAULT_TRANSFER_THREADS} and
+     * {@link #DEFAULT_MAX_CONCURRENCY}.
+     *
+     * @param client the client S3 requests are sent with.
+     */
+    public IonicS3AsyncEncryptionClient(IonicS3EncryptionClient client) {
+        this(client, DEFAULT_TRANSFER_THREADS, DEFAULT_MAX_CONCURRENCY);
+    }
+
+    /**
+     * Constructs an IonicS3AsyncEncryptionClient.
+     *
+     * @param client the client S3 requests are sent with.
+     * @param transferThreads the number of S3 requests sent at once.
+     * @param maxConcurrency the maximum number of operations in flight.
+     */
+    public IonicS3AsyncEncryptionClient(IonicS3EncryptionClient client, int transferThreads,
+            int maxConcurrency) {
+        if (transferThreads < 1) {
+            throw new IllegalArgumentException("transferThreads must be at least 1");
+        }
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("maxConcurrency must be at least 1");
+        }
+        this.client = client;
+        this.iemp = client.getIonicEncryptionMaterialsProvider();
+        this.transferExecutor = Executors.newFixedThreadPool(transferThreads,
+                new IonicThreadFactory("ionic-async-transfer"));
+        this.permits = new Semaphore(maxConcurrency);
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * Uploads an object as {@link IonicS3EncryptionClient#putObject(PutObjectRequest)} does.
+     *
+     * @param req the PutObjectRequest of the object.
+     * @return a future completed with the PutObjectResult, or with the exception the upload
+     *     failed with.
+     */
+    public CompletableFuture<PutObjectResult> putObjectAsync(PutObjectRequest req) {
+        return putObjectAsync(req, new CreateKeysRequest.Key(""));
+    }
+
+    /**
+     * Uploads an object as
+     * {@link IonicS3EncryptionClient#putObject(PutObjectRequest, CreateKeysRequest.Key)} does.
+     *
+     * @param req the PutObjectRequest of the object.
+     * @param key the CreateKeysRequest.Key containing attributes for the object's Ionic key.
+     * @return a future completed with the PutObjectResult, or with the exception the upload
+     *     failed with.
+     */
+    public CompletableFuture<PutObjectResult> putObjectAsync(final PutObjectRequest req,
+            final CreateKeysRequest.Key key) {
+        if (!permits.tryAcquire()) {
+            return rejected();
+        }
+        CompletableFuture<PutObjectResult> result;
+        try {
+            if (!IonicS3EncryptionClient.hasContent(req)) {
+                // Nothing to encrypt, so no key to create.
+                result = transfer(new Callable<PutObjectResult>() {
+                    @Override
+                    public PutObjectResult call() {
+                        return client.putObject(req);
+                    }
+                });
+            } else {
+                result = iemp.createKeyAsync(req, client.capturedMetadata(req.getMetadata()), key)
+                        .thenCompose(new Function<String, CompletionStage<PutObjectResult>>() {
+                            @Override
+                            public CompletionStage<PutObjectResult> apply(final String uuid) {
+                                return transfer(new Callable<PutObjectResult>() {
+                                    @Override
+                                    public PutObjectResult call() {
+                                        return client.putObjectWithStoredKey(req, uuid);
+                                    }
+                                });
+                            }
+                        });
+            }
+        } catch (RuntimeException e) {
+            result = failed(e);
+        }
+        return releaseWhenDone(result);
+    }
+
+    /**
+     * Uploads an object in parts as
+     * {@link IonicS3EncryptionClient#uploadObject(UploadObjectRequest)} does. The parts are
+     * uploaded on the request's executor, or the client's upload executor, while a transfer thread
+     * encrypts them.
+     *
+     * @param req the UploadObjectRequest of the object.
+     * @return a future completed with the CompleteMultipartUploadResult, or with the exception
+     *     the upload failed with.
+     */
+    public CompletableFuture<CompleteMultipartUploadResult> uploadObjectAsync(
+            UploadObjectRequest req) {
+        return uploadObjectAsync(req, new CreateKeysRequest.Key(""));
+    }
+
+    /**
+     * Uploads an object in parts as
+     * {@link IonicS3EncryptionClient#uploadObject(UploadObjectRequest, CreateKeysRequest.Key)}
+     * does.
+     *
+     * @param req the UploadObjectRequest of the object.
+     * @param key the CreateKeysRequest.Key containing attributes for the object's Ionic key.
+     * @return a future completed with the CompleteMultipartUploadResult, or with the exception
+     *     the upload failed with.
+     */
+    public CompletableFuture<CompleteMultipartUploadResult> uploadObjectAsync(
+            final UploadObjectRequest req, final CreateKeysRequest.Key key) {
+        if (!permits.tryAcquire()) {
+            return rejected();
+        }
+        CompletableFuture<CompleteMultipartUploadResult> result;
+        try {
+            result = iemp.createKeyAsync(req, client.capturedMetadata(req.getMetadata()), key)
+                    .thenCompose(new Function<String,
+                            CompletionStage<CompleteMultipartUploadResult>>() {
+                        @Override
+                        public CompletionStage<CompleteMultipartUploadResult> apply(
+                                final String uuid) {
+                            return transfer(new Callable<CompleteMultipartUploadResult>() {
+                                @Override
+                                public CompleteMultipartUploadResult call() throws Exception {
+                                    return client.uploadObjectWithStoredKey(req, uuid);
+                                }
+                            });
+                        }
+                    });
+        } catch (RuntimeException e) {
+            result = failed(e);
+        }
+        return releaseWhenDone(result);
+    }
+
+    /**
+     * Downloads an object as {@link IonicS3EncryptionClient#getObject(GetObjectRequest)} does.
+     * The caller must close the returned object's content.
+     *
+     * @param req the GetObjectRequest of the object.
+     * @return a future completed with the S3Object, or with the exception the download failed
+     *     with.
+     */
+    public CompletableFuture<S3Object> getObjectAsync(final GetObjectRequest req) {
+        return getAsync(req, new Callable<S3Object>() {
+            @Override
+            public S3Object call() {
+                return client.getObject(req);
+            }
+        });
+    }
+
+    /**
+     * Downloads an object to a file as
+     * {@link IonicS3EncryptionClient#getObject(GetObjectRequest, File)} does.
+     *
+     * @param req the GetObjectRequest of the object.
+     * @param dest the file the object is written to.
+     * @return a future completed with the ObjectMetadata of the object, or with the exception the
+     *     download failed with.
+     */
+    public CompletableFuture<ObjectMetadata> getObjectAsync(final GetObjectRequest req,
+            final File dest) {
+        return getAsync(req, new Callable<ObjectMetadata>() {
+            @Override
+            public ObjectMetadata call() {
+                return client.getObject(req, dest);
+            }
+        });
+    }
+
+    private <T> CompletableFuture<T> getAsync(final GetObjectRequest req, final Callable<T> get) {
+        if (!permits.tryAcquire()) {
+            return rejected();
+        }
+        CompletableFuture<T> result;
+        try {
+            result = transfer(new Callable<String>() {
+                @Override
+                public String call() {
+                    return IonicMaterialsDescription.getKeyId(
+                            client.getObjectMetadata(IonicS3EncryptionClient.headRequest(req)));
+                }
+            }).thenCompose(new Function<String, CompletionStage<T>>() {
+                @Override
+                public CompletionStage<T> apply(final String keyId) {
+                    if (keyId == null) {
+                        // Not encrypted with an Ionic key.
+                        return transfer(get);
+                    }
+                    return iemp.holdKeyAsync(keyId).thenCompose(
+                            new Function<Void, CompletionStage<T>>() {
+                                @Override
+                                public CompletionStage<T> apply(Void held) {
+                                    return transfer(get).whenComplete(
+                                            new BiConsumer<T, Throwable>() {
+                                                @Override
+                                                public void accept(T value, Throwable error) {
+                                                    iemp.releaseKey(keyId);
+                                                }
+                                            });
+                                }
+                            });
+                }
+            });
+        } catch (RuntimeException e) {
+            result = failed(e);
+        }
+        return releaseWhenDone(result);
+    }
+
+    private <T> CompletableFuture<T> transfer(final Callable<T> call) {
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        try {
+            transferExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        result.complete(call.call());
+                    } catch (Exception e) {
+                        result.completeExceptionally(e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    private <T> CompletableFuture<T> releaseWhenDone(CompletableFuture<T> operation) {
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        operation.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T value, Throwable error) {
+                permits.release();
+                if (error != null) {
+                    result.completeExceptionally(unwrap(error));
+                } else {
+                    result.complete(value);
+                }
+            }
+        });
+        return result;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            return error.getCause();
+        }
+        return error;
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable error) {
+        CompletableFuture<T> result = new CompletableFuture<T>();
+        result.completeExceptionally(error);
+        return result;
+    }
+
+    private <T> CompletableFuture<T> rejected() {
+        return failed(new RejectedExecutionException(
+                "More than " + maxConcurrency + " operations in flight"));
+    }
+
+    /**
+     * Returns the number of operations that can be started before new ones are rejected.
+     *
+     * @return the available concurrency.
+     */
+    public int getAvailableConcurrency() {
+        return permits.availablePermits();
+    }
+
+    /**
+     * Returns the maximum number of operations in flight, beyond which new ones are rejected.
+     *
+     * @return the maximum concurrency.
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Returns the client S3 requests are sent with.
+     *
+     * @return an {@link IonicS3EncryptionClient}.
+     */
+    public IonicS3EncryptionClient getClient() {
+        return client;
+    }
+
+    /**
+     * Stops the transfer threads once the S3 requests already queued have been sent, and shuts
+     * down the underlying client. Operations still waiting for their key fail with a
+     * RejectedExecutionException.
+     */
+    public void shutdown() {
+        transferExecutor.shutdown();
+        client.shutdown();
+    }
+}
@@ -6,39 +6,95 @@
 
 package com.ionic.cloudstorage.awss3;
 
+import com.amazonaws.AmazonWebServiceRequest;
 import com.amazonaws.ClientConfiguration;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.SdkClientException;
 import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.handlers.RequestHandler2;
 import com.amazonaws.metrics.RequestMetricCollector;
 import com.amazonaws.services.s3.AmazonS3Encryption;
+import com.amazonaws.services.s3.Headers;
 import com.amazonaws.services.s3.AmazonS3EncryptionClient;
+import com.amazonaws.services.s3.UploadObjectObserver;
+import com.amazonaws.services.s3.internal.PartCreationEvent;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
 import com.amazonaws.services.s3.model.CryptoConfiguration;
+import com.amazonaws.services.s3.model.CryptoMode;
 import com.amazonaws.services.s3.model.EncryptedGetObjectRequest;
 import com.amazonaws.services.s3.model.EncryptedInitiateMultipartUploadRequest;
 import com.amazonaws.services.s3.model.EncryptedPutObjectRequest;
 import com.amazonaws.services.s3.model.EncryptionMaterialsProvider;
+import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
 import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
 import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
 import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
 import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.PutObjectResult;
 import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import com.amazonaws.services.s3.model.UploadObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
 import com.amazonaws.util.StringUtils;
 import com.ionic.sdk.agent.request.createkey.CreateKeysRequest;
 import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
+import com.ionic.sdk.error.IonicException;
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.management.ObjectName;
 
 /**
  * A Ionic backed subclass of {@link com.amazonaws.services.s3.AmazonS3EncryptionClient}.
  */
 public class IonicS3EncryptionClient extends AmazonS3EncryptionClient
         implements AmazonS3Encryption {
+    public static final int DEFAULT_PREFETCH_THREADS = 16;
+    public static final int DEFAULT_PREFETCH_QUEUE_SIZE = 256;
+    public static final long DEFAULT_PARALLEL_RANGE_SIZE = 8L * 1024 * 1024;
+    public static final int DEFAULT_UPLOAD_THREADS = 16;
+    public static final long DEFAULT_UPLOAD_BUFFER_BYTES = 256L * 1024 * 1024;
+    public static final long DEFAULT_STREAM_PART_SIZE = 8L * 1024 * 1024;
+    public static final int DEFAULT_BULK_PARALLELISM = 16;
 
     private IonicEncryptionMaterialsProvider iemp;
+    private final CryptoMode cryptoMode;
+    private volatile ObjectName metricsObjectName;
+    private volatile boolean keyPrefetchEnabled;
+    private volatile int readAheadBytes;
+    private volatile ExecutorService prefetchExecutor;
+    private volatile ExecutorService uploadExecutor;
+    private volatile long uploadBufferBytes = DEFAULT_UPLOAD_BUFFER_BYTES;
+    private volatile long streamPartSize = DEFAULT_STREAM_PART_SIZE;
 
     IonicS3EncryptionClient(IonicS3EncryptionClientParams params) {
         this(params.getClientParams().getCredentialsProvider(), params.getEncryptionMaterials(),
@@ -54,6 +110,9 @@ public class IonicS3EncryptionClient extends AmazonS3EncryptionClient
                 credentialsProvider, kekMaterialsProvider, clientConfig, cryptoConfig,
                 requestMetricCollector);
         this.iemp = (IonicEncryptionMaterialsProvider) kekMaterialsProvider;
+        this.cryptoMode = cryptoConfig.getCryptoMode();
+        this.iemp.getMetrics().setRequestMetricCollector(requestMetricCollector);
+        addRequestHandler(new ReadAheadHandler());
     }
 
     @Override
@@ -132,6 +191,103 @@ public class IonicS3EncryptionClient extends AmazonS3EncryptionClient
         return putObject(new PutObjectRequest(bucketName, key, is, metadata), ionicKey);
     }
 
+    /**
+     * Uploads the remaining bytes of a ByteBuffer as the content of an object.
+     *
+     * @param bucketName The Bucket to store the Object in.
+     * @param key The key to store the Object under.
+     * @param content The buffer holding the Object contents between its position and limit.
+     * @param metadata The ObjectMetadata associated with the Object, or null.
+     * @return A {@link com.amazonaws.services.s3.model.PutObjectResult} object containing the
+     *         information returned by Amazon S3 for the newly created object.
+     * @see #putObject(String, String, ByteBuffer, ObjectMetadata, CreateKeysRequest.Key)
+     */
+    public PutObjectResult putObject(String bucketName, String key, ByteBuffer content,
+            ObjectMetadata metadata) {
+        return putObject(bucketName, key, content, metadata, new CreateKeysRequest.Key(""));
+    }
+
+    /**
+     * A version of {@link #putObject(String, String, ByteBuffer, ObjectMetadata)} that takes a
+     * {@link com.ionic.sdk.agent.request.createkey.CreateKeysRequest.Key} as an argument for
+     * setting {@link com.ionic.sdk.agent.key.KeyAttributesMap Attributes} and mutableAttributes on
+     * the Ionic Key associated with the object.
+     *
+     * <p>The content is read straight from the buffer, heap or direct, into the cipher, without
+     * being copied to an array of its own or buffered for retries; a file can be uploaded the same
+     * way by passing a MappedByteBuffer of it. The position of content is not changed, and the
+     * content length of metadata is set on a copy of it.
+     *
+     * @param bucketName The Bucket to store the Object in.
+     * @param key The key to store the Object under.
+     * @param content The buffer holding the Object contents between its position and limit.
+     * @param metadata The ObjectMetadata associated with the Object, or null.
+     * @param ionicKey The CreateKeysRequest.Key containing attributes for associated Ionic Key.
+     * @return A {@link com.amazonaws.services.s3.model.PutObjectResult} object containing the
+     *         information returned by Amazon S3 for the newly created object.
+     * @see #putObject(PutObjectRequest, CreateKeysRequest.Key)
+     */
+    public PutObjectResult putObject(String bucketName, String key, ByteBuffer content,
+            ObjectMetadata metadata, CreateKeysRequest.Key ionicKey) {
+        rejectNull(bucketName, "Bucket name must be provided");
+        rejectNull(key, "Object key must be provided");
+        rejectNull(content, "ByteBuffer content must be provided");
+
+        ObjectMetadata meta = metadata == null ? new ObjectMetadata() : metadata.clone();
+        meta.setContentLength(content.remaining());
+        return putObject(new PutObjectRequest(bucketName, key,
+                new ByteBufferInputStream(content), meta), ionicKey);
+    }
+
+    /**
+     * Uploads the content of an {@link IonicContentSource} as the content of an object.
+     *
+     * @param bucketName The Bucket to store the Object in.
+     * @param key The key to store the Object under.
+     * @param content The source of the Object contents.
+     * @param metadata The ObjectMetadata associated with the Object, or null.
+     * @return A {@link com.amazonaws.services.s3.model.PutObjectResult} object containing the
+     *         information returned by Amazon S3 for the newly created object.
+     * @see #putObject(String, String, IonicContentSource, ObjectMetadata, CreateKeysRequest.Key)
+     */
+    public PutObjectResult putObject(String bucketName, String key, IonicContentSource content,
+            ObjectMetadata metadata) {
+        return putObject(bucketName, key, content, metadata, new CreateKeysRequest.Key(""));
+    }
+
+    /**
+     * A version of {@link #putObject(String, String, IonicContentSource, ObjectMetadata)} that
+     * takes a {@link com.ionic.sdk.agent.request.createkey.CreateKeysRequest.Key} as an argument
+     * for setting {@link com.ionic.sdk.agent.key.KeyAttributesMap Attributes} and
+     * mutableAttributes on the Ionic Key associated with the object.
+     *
+     * <p>The SDK retries a request by resetting the encrypted stream to its start, which encrypts
+     * the content again with the same content key and IV. Here that reset opens the source again
+     * rather than replaying a copy of what was sent, so the content is never buffered for retries
+     * and an upload holds no more than the buffers of its cipher. The content length of metadata
+     * is set on a copy of it.
+     *
+     * @param bucketName The Bucket to store the Object in.
+     * @param key The key to store the Object under.
+     * @param content The source of the Object contents.
+     * @param metadata The ObjectMetadata associated with the Object, or null.
+     * @param ionicKey The CreateKeysRequest.Key containing attributes for associated Ionic Key.
+     * @return A {@link com.amazonaws.services.s3.model.PutObjectResult} object containing the
+     *         information returned by Amazon S3 for the newly created object.
+     * @see #putObject(PutObjectRequest, CreateKeysRequest.Key)
+     */
+    public PutObjectResult putObject(String bucketName, String key, IonicContentSource content,
+            ObjectMetadata metadata, CreateKeysRequest.Key ionicKey) {
+        rejectNull(bucketName, "Bucket name must be provided");
+        rejectNull(key, "Object key must be provided");
+        rejectNull(content, "Content source must be provided");
+
+        ObjectMetadata meta = metadata == null ? new ObjectMetadata() : metadata.clone();
+        meta.setContentLength(content.getLength());
+        return putObject(new PutObjectRequest(bucketName, key,
+                new ReopenableInputStream(content), meta), ionicKey);
+    }
+
     /**
      * A version of {@link #putObject(PutObjectRequest)} that takes a
      * {@link com.ionic.sdk.agent.request.createkey.CreateKeysRequest.Key} as an argument for
@@ -159,25 +315,62 @@ public class IonicS3EncryptionClient extends AmazonS3EncryptionClient
      *         information returned by Amazon S3 for the newly created object.
      */
     public PutObjectResult putObject(PutObjectRequest req, CreateKeysRequest.Key key) {
-        EncryptedPutObjectRequest cryptoReq;
+        if (!hasContent(req)) {
+            // Nothing to encrypt. Pass through to super.
+            return super.putObject(req);
+        }
+        return putObjectWithStoredKey(req,
+                iemp.storeRequestKey(key, req.getBucketName(), req.getKey()));
+    }
+
+    /**
+     * Uploads an object as {@link #putObject(PutObjectRequest, CreateKeysRequest.Key)} does,
+     * with the key stored under uuid by the provider.
+     */
+    PutObjectResult putObjectWithStoredKey(PutObjectRequest req, String uuid) {
+        EncryptedPutObjectRequest cryptoReq = toEncryptedRequest(req);
+        if (cryptoReq == null) {
+            return super.putObject(req);
+        }
+        HashMap<String, String> materialsDescription = capturedMetadata(req.getMetadata());
+        materialsDescription.put(IonicEncryptionMaterialsProvider.IONICKEYREQUUID, uuid);
+        return putEncryptedObject(req, cryptoReq, materialsDescription);
+    }
+
+    /**
+     * Returns whether req has content, and so is encrypted.
+     */
+    static boolean hasContent(PutObjectRequest req) {
+        return req instanceof EncryptedPutObjectRequest || req.getInputStream() != null
+                || req.getFile() != null;
+    }
+
+    /**
+     * Returns req as an EncryptedPutObjectRequest, or null if it has no content to encrypt.
+     */
+    private static EncryptedPutObjectRequest toEncryptedRequest(PutObjectRequest req) {
         if (req instanceof EncryptedPutObjectRequest) {
-            cryptoReq = ((EncryptedPutObjectRequest) req);
-        } else {
-            if (req.getInputStream() != null) {
-                cryptoReq = new EncryptedPutObjectRequest(req.getBucketName(), req.getKey(),
-                        req.getInputStream(), req.getMetadata());
-            } else if (req.getFile() != null) {
-                cryptoReq = new EncryptedPutObjectRequest(req.getBucketName(), req.getKey(),
-                        req.getFile());
-                cryptoReq.setMetadata(req.getMetadata());
-            } else {
-                // Nothing to encrypt. Pass through to super.
-                return super.putObject(req);
-            }
+            return (EncryptedPutObjectRequest) req;
+        }
+        EncryptedPutObjectRequest cryptoReq = null;
+        if (req.getInputStream() != null) {
+            cryptoReq = new EncryptedPutObjectRequest(req.getBucketName(), req.getKey(),
+                    req.getInputStream(), req.getMetadata());
+        } else if (req.getFile() != null) {
+            cryptoReq = new EncryptedPutObjectRequest(req.getBucketName(), req.getKey(),
+                    req.getFile());
+            cryptoReq.setMetadata(req.getMetadata());
         }
+        return cryptoReq;
+    }
+
+    /**
+     * Returns a new materials description holding the user metadata of objMetadata when metadata
+     * capture is enabled, for the provider to turn into key attributes.
+     */
+    HashMap<String, String> capturedMetadata(ObjectMetadata objMetadata) {
         HashMap<String, String> materialsDescription = new HashMap<String, String>();
         if (iemp.isEnabledMetadataCapture()) {
-            ObjectMetadata objMetadata = req.getMetadata();
             if (objMetadata != null) {
                 Map<String, String> userMetadata = objMetadata.getUserMetadata();
                 if (userMetadata != null) {
@@ -185,28 +378,356 @@ public class IonicS3EncryptionClient extends AmazonS3EncryptionClient
                 }
             }
         }
-        materialsDescription.put(IonicEncryptionMaterialsProvider.IONICKEYREQUUID,
-                iemp.storeRequestKey(key));
+        return materialsDescription;
+    }
+
+    private PutObjectResult putEncryptedObject(PutObjectRequest req,
+            EncryptedPutObjectRequest cryptoReq, Map<String, String> materialsDescription) {
+        if (hasUnknownLength(req)) {
+            InputStream input = req.getInputStream();
+            byte[] head = readHead(req, input, this.streamPartSize + 1);
+            if (head.length > this.streamPartSize) {
+                return putObjectInParts(req,
+                        new SequenceInputStream(new ByteArrayInputStream(head), input),
+                        materialsDescription);
+            }
+            // The stream fits in one part: put it as it is, with its length now known.
+            closeQuietly(input);
+            ObjectMetadata meta =
+                    req.getMetadata() == null ? new ObjectMetadata() : req.getMetadata().clone();
+            meta.setContentLength(head.length);
+            cryptoReq = cryptoReq.clone();
+            cryptoReq.setInputStream(new ByteArrayInputStream(head));
+            cryptoReq.setMetadata(meta);
+        }
         cryptoReq.setMaterialsDescription(materialsDescription);
 
-        return super.putObject(cryptoReq);
+        AmazonWebServiceRequest previous = IonicMetrics.enterRequest(req);
+        try {
+            return super.putObject(cryptoReq);
+        } finally {
+            IonicMetrics.exitRequest(previous);
+        }
+    }
+
+    /**
+     * Returns whether req uploads a stream whose length its metadata does not give, which the SDK
+     * would buffer in memory in full to learn it.
+     */
+    private static boolean hasUnknownLength(PutObjectRequest req) {
+        return req.getInputStream() != null && (req.getMetadata() == null
+                || req.getMetadata().getRawMetadataValue(Headers.CONTENT_LENGTH) == null);
+    }
+
+    /**
+     * Reads the first bytes of the content of req, up to limit or the end of the stream.
+     */
+    private static byte[] readHead(PutObjectRequest req, InputStream input, long limit) {
+        byte[] head = new byte[(int) Math.min(limit, 64 * 1024)];
+        int length = 0;
+        try {
+            while (length < limit) {
+                if (length == head.length) {
+                    head = Arrays.copyOf(head, (int) Math.min(limit, 2L * head.length));
+                }
+                int read = input.read(head, length, head.length - length);
+                if (read < 0) {
+                    break;
+                }
+                length += read;
+            }
+        } catch (IOException e) {
+            throw new SdkClientException("Unable to read object contents of " + req.getKey()
+                    + ": " + e.getMessage(), e);
+        }
+        return length == head.length ? head : Arrays.copyOf(head, length);
+    }
+
+    private static void closeQuietly(InputStream input) {
+        try {
+            input.close();
+        } catch (IOException e) {
+            // The stream was read to its end; there is nothing left to lose.
+        }
+    }
+
+    /**
+     * Uploads a stream of unknown length, larger than one part, as an encrypted multipart upload,
+     * as {@link #uploadObject(UploadObjectRequest)} does, in parts of the client's stream part
+     * size.
+     */
+    private PutObjectResult putObjectInParts(PutObjectRequest req, InputStream input,
+            Map<String, String> materialsDescription) {
+        UploadObjectRequest uploadReq = new UploadObjectRequest(req.getBucketName(), req.getKey(),
+                input, req.getMetadata() == null ? new ObjectMetadata() : req.getMetadata())
+                .withPartSize(this.streamPartSize);
+        // Setters rather than the with methods, some of which cast to PutObjectRequest. The object
+        // lock setters cast too; the observer sets those and the tagging on the initiate request.
+        uploadReq.setCannedAcl(req.getCannedAcl());
+        uploadReq.setAccessControlList(req.getAccessControlList());
+        uploadReq.setStorageClass(req.getStorageClass());
+        uploadReq.setRedirectLocation(req.getRedirectLocation());
+        uploadReq.setSSECustomerKey(req.getSSECustomerKey());
+        uploadReq.setSSEAwsKeyManagementParams(req.getSSEAwsKeyManagementParams());
+        uploadReq.setGeneralProgressListener(req.getGeneralProgressListener());
+        uploadReq.setRequestCredentialsProvider(req.getRequestCredentialsProvider());
+        uploadReq.withUploadObjectObserver(new PutRequestUploadObserver(req));
+        CompleteMultipartUploadResult completed;
+        try {
+            completed = uploadEncryptedObject(uploadReq, materialsDescription);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new SdkClientException("Unable to upload " + req.getKey() + ": "
+                    + cause.getMessage(), cause);
+        } catch (IOException e) {
+            throw new SdkClientException("Unable to upload " + req.getKey() + ": "
+                    + e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SdkClientException("Interrupted uploading " + req.getKey(), e);
+        }
+        PutObjectResult result = new PutObjectResult();
+        result.setETag(completed.getETag());
+        result.setVersionId(completed.getVersionId());
+        result.setExpirationTime(completed.getExpirationTime());
+        result.setExpirationTimeRuleId(completed.getExpirationTimeRuleId());
+        result.setSSEAlgorithm(completed.getSSEAlgorithm());
+        result.setSSECustomerAlgorithm(completed.getSSECustomerAlgorithm());
+        result.setSSECustomerKeyMd5(completed.getSSECustomerKeyMd5());
+        result.setRequesterCharged(completed.isRequesterCharged());
+        return result;
+    }
+
+    /**
+     * Carries the settings of a PutObjectRequest that UploadObjectObserver leaves out, its tagging,
+     * object lock, requester pays flag, custom headers and custom query parameters, into the
+     * requests of the multipart upload it is sent as.
+     */
+    private static class PutRequestUploadObserver extends UploadObjectObserver {
+        private final PutObjectRequest original;
+
+        PutRequestUploadObserver(PutObjectRequest original) {
+            this.original = original;
+        }
+
+        @Override
+        protected InitiateMultipartUploadRequest newInitiateMultipartUploadRequest(
+                UploadObjectRequest req) {
+            InitiateMultipartUploadRequest initiate = super.newInitiateMultipartUploadRequest(req);
+            initiate.setTagging(original.getTagging());
+            initiate.setObjectLockMode(original.getObjectLockMode());
+            initiate.setObjectLockRetainUntilDate(original.getObjectLockRetainUntilDate());
+            initiate.setObjectLockLegalHoldStatus(original.getObjectLockLegalHoldStatus());
+            initiate.setRequesterPays(original.isRequesterPays());
+            copyRequestSettings(original, initiate);
+            return initiate;
+        }
+
+        @Override
+        protected UploadPartRequest newUploadPartRequest(PartCreationEvent event, File part) {
+            UploadPartRequest upload = super.newUploadPartRequest(event, part);
+            upload.setRequesterPays(original.isRequesterPays());
+            copyRequestSettings(original, upload);
+            return upload;
+        }
+
+        @Override
+        public CompleteMultipartUploadResult onCompletion(List<PartETag> partETags) {
+            CompleteMultipartUploadRequest complete = new CompleteMultipartUploadRequest(
+                    original.getBucketName(), original.getKey(), getUploadId(), partETags);
+            complete.setRequesterPays(original.isRequesterPays());
+            copyRequestSettings(original, complete);
+            return getAmazonS3().completeMultipartUpload(complete);
+        }
+
+        @Override
+        public void onAbort() {
+            for (Future<UploadPartResult> upload : getFutures()) {
+                upload.cancel(true);
+            }
+            if (getUploadId() == null) {
+                return;
+            }
+            AbortMultipartUploadRequest abort = new AbortMultipartUploadRequest(
+                    original.getBucketName(), original.getKey(), getUploadId());
+            abort.setRequesterPays(original.isRequesterPays());
+            copyRequestSettings(original, abort);
+            try {
+                getAmazonS3().abortMultipartUpload(abort);
+            } catch (SdkClientException e) {
+                // The upload failed already; its parts are left to the bucket's lifecycle rules.
+            }
+        }
+    }
+
+    /**
+     * A version of {@link #putObjects(List, List, int)} that creates every key with the default
+     * attributes and captured metadata only, and uploads up to {@link #DEFAULT_BULK_PARALLELISM}
+     * objects at once.
+     *
+     * @param reqs the PutObjectRequests of the objects.
+     * @return the PutObjectResult of each object, in the order of reqs.
+     */
+    public List<PutObjectResult> putObjects(List<PutObjectRequest> reqs) {
+        return putObjects(reqs, null, DEFAULT_BULK_PARALLELISM);
+    }
+
+    /**
+     * Uploads a batch of objects, creating their Ionic keys up front in as few createKeys requests
+     * as possible instead of one per object. Objects whose keys end up with the same attributes
+     * and mutable attributes, once captured metadata and default attributes are applied, share one
+     * key entry with a quantity, and each createKeys request holds at most
+     * {@link IonicEncryptionMaterialsProvider#MAX_CREATE_KEYS_QUANTITY} keys. The keys of the next
+     * batch are created while the current one uploads; the key pool is not used. Each object has
+     * the same envelope as one uploaded with
+     * {@link #putObject(PutObjectRequest, CreateKeysRequest.Key)}, and requests without content
+     * are passed through unencrypted. When the provider has a key sharing policy, keys without
+     * mutable attributes are not created up front but taken under that policy as each object is
+     * uploaded.
+     *
+     * <p>If a createKeys request or an upload fails, the uploads not yet started are cancelled and
+     * the first failure is thrown. Objects already uploaded are kept.
+     *
+     * @param reqs the PutObjectRequests of the objects.
+     * @param keys the CreateKeysRequest.Key of each object, in the order of reqs, or null to
+     *     create every key with the default attributes and captured metadata only.
+     * @param parallelism the maximum number of objects uploaded at once.
+     * @return the PutObjectResult of each object, in the order of reqs.
+     */
+    public List<PutObjectResult> putObjects(List<PutObjectRequest> reqs,
+            List<CreateKeysRequest.Key> keys, int parallelism) {
+        rejectNull(reqs, "The PutObjectRequest list must be specified");
+        if (keys != null && keys.size() != reqs.size()) {
+            throw new IllegalArgumentException(
+                    "keys must hold one CreateKeysRequest.Key per PutObjectRequest");
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        List<PutObjectResult> results = new ArrayList<PutObjectResult>(reqs.size());
+        if (reqs.isEmpty()) {
+            return results;
+        }
+        int batchSize = IonicEncryptionMaterialsProvider.MAX_CREATE_KEYS_QUANTITY;
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(parallelism, reqs.size()), new IonicThreadFactory("ionic-bulk-put"));
+        List<Future<PutObjectResult>> puts = new ArrayList<Future<PutObjectResult>>(reqs.size());
+        try {
+            for (int start = 0; start < reqs.size(); start += batchSize) {
+                // Keep at most two batches of created keys waiting for their uploads, well within
+                // the provider's request context limits.
+                if (start >= 2 * batchSize) {
+                    for (Future<PutObjectResult> put
+                            : puts.subList(start - 2 * batchSize, start - batchSize)) {
+                        put.get();
+                    }
+                }
+                int end = Math.min(start + batchSize, reqs.size());
+                submitBatch(reqs.subList(start, end),
+                        keys == null ? null : keys.subList(start, end), executor, puts);
+            }
+            for (Future<PutObjectResult> put : puts) {
+                results.add(put.get());
+            }
+            return results;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new SdkClientException("Unable to upload objects: " + cause.getMessage(), cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SdkClientException("Interrupted uploading objects", e);
+        } finally {
+            for (Future<PutObjectResult> put : puts) {
+                put.cancel(false);
+            }
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Creates the keys of a batch of objects and submits their uploads to executor.
+     */
+    private void submitBatch(List<PutObjectRequest> reqs, List<CreateKeysRequest.Key> keys,
+            ExecutorService executor, List<Future<PutObjectResult>> puts) {
+        boolean sharing = iemp.getKeySharingPolicy() != null;
+        List<EncryptedPutObjectRequest> cryptoReqs =
+                new ArrayList<EncryptedPutObjectRequest>(reqs.size());
+        List<Map<String, String>> descs = new ArrayList<Map<String, String>>(reqs.size());
+        List<String> ids = new ArrayList<String>(reqs.size());
+        List<Map<String, String>> createDescs = new ArrayList<Map<String, String>>(reqs.size());
+        List<CreateKeysRequest.Key> createKeys = new ArrayList<CreateKeysRequest.Key>(reqs.size());
+        for (int i = 0; i < reqs.size(); i++) {
+            EncryptedPutObjectRequest cryptoReq = toEncryptedRequest(reqs.get(i));
+            cryptoReqs.add(cryptoReq);
+            if (cryptoReq != null) {
+                Map<String, String> desc = capturedMetadata(reqs.get(i).getMetadata());
+                CreateKeysRequest.Key key =
+                        keys == null ? new CreateKeysRequest.Key("") : keys.get(i);
+                descs.add(desc);
+                if (sharing && key.getMutableAttributesMap().isEmpty()) {
+                    // Taken under the key sharing policy when the object is uploaded.
+                    ids.add(iemp.storeRequestKey(key, reqs.get(i).getBucketName(),
+                            reqs.get(i).getKey()));
+                } else {
+                    ids.add(null);
+                    createDescs.add(desc);
+                    createKeys.add(key);
+                }
+            }
+        }
+        if (!createKeys.isEmpty()) {
+            List<String> createdIds;
+            AmazonWebServiceRequest previous = IonicMetrics.enterRequest(reqs.get(0));
+            try {
+                createdIds = iemp.storeCreatedKeys(createDescs, createKeys);
+            } catch (IonicException e) {
+                throw IonicEncryptionMaterialsProvider.toAmazonS3Exception(e);
+            } finally {
+                IonicMetrics.exitRequest(previous);
+            }
+            Iterator<String> it = createdIds.iterator();
+            for (int i = 0; i < ids.size(); i++) {
+                if (ids.get(i) == null) {
+                    ids.set(i, it.next());
+                }
+            }
+        }
+        int created = 0;
+        for (int i = 0; i < reqs.size(); i++) {
+            final PutObjectRequest req = reqs.get(i);
+            final EncryptedPutObjectRequest cryptoReq = cryptoReqs.get(i);
+            final Map<String, String> materialsDescription;
+            if (cryptoReq != null) {
+                materialsDescription = descs.get(created);
+                materialsDescription.put(IonicEncryptionMaterialsProvider.IONICKEYREQUUID,
+                        ids.get(created++));
+            } else {
+                materialsDescription = null;
+            }
+            puts.add(executor.submit(new Callable<PutObjectResult>() {
+                @Override
+                public PutObjectResult call() {
+                    if (cryptoReq == null) {
+                        return IonicS3EncryptionClient.super.putObject(req);
+                    }
+                    return putEncryptedObject(req, cryptoReq, materialsDescription);
+                }
+            }));
+        }
     }
 
     private GetKeysResponse.Key keyFromMetadataInternal(ObjectMetadata meta) {
-        String matdesc = meta.getUserMetaDataOf("x-amz-matdesc");
+        String matdesc = meta.getUserMetaDataOf(IonicMaterialsDescription.MATDESC_HEADER);
         if (matdesc == null) {
             return new GetKeysResponse.Key();
         }
-        matdesc = matdesc.substring(1, matdesc.length());
-        String[] descriptions = matdesc.split(",");
-        String keyId = null;
-        String pattern = "\"" + IonicEncryptionMaterialsProvider.KEYIDKEY + "\":\"";
-        for (String entry : descriptions) {
-            if (entry.startsWith(pattern)) {
-                keyId = entry.substring(pattern.length(), pattern.length() + 11);
-            }
-        }
-        return this.iemp.retrieveResponseKey(keyId);
+        return this.iemp.retrieveResponseKey(IonicMaterialsDescription.getKeyId(matdesc));
     }
 
     /**
@@ -246,12 +767,238 @@ public class IonicS3EncryptionClient extends AmazonS3EncryptionClient
 
     @Override
     public S3Object getObject(GetObjectRequest req) {
-        S3Object obj = super.getObject(req);
-        ObjectMetadata meta = obj.getObjectMetadata();
-        keyFromMetadataInternal(meta);
+        S3Object obj = getObjectInternal(req);
+        if (obj != null) {
+            keyFromMetadataInternal(obj.getObjectMetadata());
+        }
         return obj;
     }
 
+    private S3Object getObjectInternal(GetObjectRequest req) {
+        KeyPrefetch prefetch = startKeyPrefetch(req);
+        AmazonWebServiceRequest previous = IonicMetrics.enterRequest(req);
+        try {
+            return super.getObject(req);
+        } finally {
+            IonicMetrics.exitRequest(previous);
+            finishKeyPrefetch(prefetch);
+        }
+    }
+
+    private ObjectMetadata getObjectInternal(GetObjectRequest req, File dest) {
+        KeyPrefetch prefetch = startKeyPrefetch(req);
+        AmazonWebServiceRequest previous = IonicMetrics.enterRequest(req);
+        try {
+            return super.getObject(req, dest);
+        } finally {
+            IonicMetrics.exitRequest(previous);
+            finishKeyPrefetch(prefetch);
+        }
+    }
+
+    /**
+     * Sets how many bytes of an encrypted object's body a GET downloads in the background while
+     * the Ionic key is fetched. The SDK only starts reading the body once it has the key, so
+     * without read ahead the download waits for the key service, and GETs of large objects take
+     * the sum of both. With read ahead the two overlap. Each GET in flight holds a buffer of up to
+     * this size. Disabled by default.
+     *
+     * @param readAheadBytes the read ahead buffer size, or 0 to disable read ahead.
+     */
+    public void setReadAheadBytes(int readAheadBytes) {
+        if (readAheadBytes < 0) {
+            throw new IllegalArgumentException("readAheadBytes must not be negative");
+        }
+        this.readAheadBytes = readAheadBytes;
+    }
+
+    /**
+     * Returns how many bytes of a GET body are downloaded while its key is fetched.
+     *
+     * @return the read ahead buffer size, or 0 if read ahead is disabled.
+     */
+    public int getReadAheadBytes() {
+        return readAheadBytes;
+    }
+
+    /**
+     * Starts the read ahead of encrypted GET bodies as soon as the response headers, and with
+     * them the materials description, have arrived. A read ahead still queued when the body is
+     * first read is skipped.
+     */
+    private class ReadAheadHandler extends RequestHandler2 {
+        @Override
+        public void afterResponse(Request<?> request, Response<?> response) {
+            int size = readAheadBytes;
+            if (size == 0 || !(request.getOriginalRequest() instanceof GetObjectRequest)
+                    || !(response.getAwsResponse() instanceof S3Object)) {
+                return;
+            }
+            S3Object object = (S3Object) response.getAwsResponse();
+            ObjectMetadata meta = object.getObjectMetadata();
+            if (meta.getUserMetaDataOf(IonicMaterialsDescription.MATDESC_HEADER) == null
+                    || object.getObjectContent() == null) {
+                return;
+            }
+            long length = meta.getContentLength();
+            if (length > 0 && length < size) {
+                size = (int) length;
+            }
+            S3ObjectInputStream content = object.getObjectContent();
+            ReadAheadInputStream readAhead = new ReadAheadInputStream(content, size);
+            try {
+                getPrefetchExecutor().execute(readAhead);
+            } catch (RejectedExecutionException e) {
+                // A read ahead that never starts is bypassed by the first read.
+            }
+            object.setObjectContent(new S3ObjectInputStream(readAhead, content.getHttpRequest()));
+        }
+    }
+
+    /**
+     * Sets whether GETs prefetch their key with a parallel HEAD. When enabled, every GET also
+     * sends a HEAD of the object from a background thread and starts fetching the key named in
+     * its materials description as soon as the HEAD returns. Where a HEAD returns sooner than the
+     * first byte of the GET, the key is already in flight when the GET response needs it. This
+     * costs one extra S3 request per GET. Keys the key cache already holds are not fetched again.
+     * Disabled by default.
+     *
+     * @param keyPrefetchEnabled whether to prefetch keys with a parallel HEAD.
+     */
+    public void setKeyPrefetchEnabled(boolean keyPrefetchEnabled) {
+        this.keyPrefetchEnabled = keyPrefetchEnabled;
+    }
+
+    /**
+     * Returns whether GETs prefetch their key with a parallel HEAD.
+     *
+     * @return a boolean.
+     */
+    public boolean isKeyPrefetchEnabled() {
+        return keyPrefetchEnabled;
+    }
+
+    private KeyPrefetch startKeyPrefetch(GetObjectRequest req) {
+        if (!keyPrefetchEnabled) {
+            return null;
+        }
+        KeyPrefetch prefetch = new KeyPrefetch(headRequest(req));
+        try {
+            getPrefetchExecutor().execute(prefetch);
+        } catch (RejectedExecutionException e) {
+            // Prefetching is best effort; the GET fetches its own key.
+            return null;
+        }
+        return prefetch;
+    }
+
+    static GetObjectMetadataRequest headRequest(GetObjectRequest req) {
+        GetObjectMetadataRequest head = new GetObjectMetadataRequest(req.getBucketName(),
+                req.getKey(), req.getVersionId());
+        head.setSSECustomerKey(req.getSSECustomerKey());
+        head.setRequesterPays(req.isRequesterPays());
+        copyRequestSettings(req, head);
+        return head;
+    }
+
+    /**
+     * Copies the custom headers, custom query parameters and request credentials of a request to
+     * a request made on its behalf.
+     */
+    private static void copyRequestSettings(AmazonWebServiceRequest from,
+            AmazonWebServiceRequest to) {
+        Map<String, String> headers = from.getCustomRequestHeaders();
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                to.putCustomRequestHeader(header.getKey(), header.getValue());
+            }
+        }
+        Map<String, List<String>> parameters = from.getCustomQueryParameters();
+        if (parameters != null) {
+            for (Map.Entry<String, List<String>> parameter : parameters.entrySet()) {
+                for (String value : parameter.getValue()) {
+                    to.putCustomQueryParameter(parameter.getKey(), value);
+                }
+            }
+        }
+        to.setRequestCredentialsProvider(from.getRequestCredentialsProvider());
+    }
+
+    private void finishKeyPrefetch(KeyPrefetch prefetch) {
+        if (prefetch != null) {
+            prefetch.finish();
+        }
+    }
+
+    private ExecutorService getPrefetchExecutor() {
+        ExecutorService executor = this.prefetchExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = this.prefetchExecutor;
+                if (executor == null) {
+                    ThreadPoolExecutor pool = new ThreadPoolExecutor(DEFAULT_PREFETCH_THREADS,
+                            DEFAULT_PREFETCH_THREADS, 60, TimeUnit.SECONDS,
+                            new ArrayBlockingQueue<Runnable>(DEFAULT_PREFETCH_QUEUE_SIZE),
+                            new IonicThreadFactory("ionic-key-prefetch"));
+                    pool.allowCoreThreadTimeOut(true);
+                    executor = pool;
+                    this.prefetchExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * A HEAD of an object whose materials description starts a key prefetch, unless the GET it
+     * runs alongside finished first.
+     */
+    private class KeyPrefetch implements Runnable {
+        private final GetObjectMetadataRequest head;
+        private boolean finished;
+        private String keyId;
+
+        KeyPrefetch(GetObjectMetadataRequest head) {
+            this.head = head;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+            }
+            String id;
+            try {
+                id = IonicMaterialsDescription.getKeyId(getObjectMetadata(head));
+            } catch (RuntimeException e) {
+                // The GET reports the same failure, or succeeds without the prefetch.
+                return;
+            }
+            if (id == null) {
+                return;
+            }
+            synchronized (this) {
+                if (!finished) {
+                    keyId = id;
+                    iemp.prefetchKey(id);
+                }
+            }
+        }
+
+        /**
+         * Stops a HEAD that has not returned yet from prefetching, and drops a prefetched key the
+         * GET did not use.
+         */
+        synchronized void finish() {
+            finished = true;
+            if (keyId != null) {
+                iemp.discardPrefetchedKey(keyId);
+            }
+        }
+    }
+
     /**
      * A version of {@link #getObject(String, String)} that returns a IonicKeyS3ObjectPair
      * containing the requested S3Object and the GetKeysResponse.Key for the underlying Ionic
@@ -274,7 +1021,7 @@ public class IonicS3EncryptionClient extends AmazonS3EncryptionClient
      * @return a {@link IonicS3EncryptionClient.IonicKeyS3ObjectPair}
      */
     public IonicKeyS3ObjectPair getObjectAndKey(GetObjectRequest req) {
-        S3Object obj = super.getObject(req);
+        S3Object obj = getObjectInternal(req);
         ObjectMetadata meta = obj.getObjectMetadata();
         return new IonicKeyS3ObjectPair(keyFromMetadataInternal(meta), obj);
     }
@@ -315,7 +1062,7 @@ public class IonicS3EncryptionClient extends AmazonS3EncryptionClient
 
     @Override
     public ObjectMetadata getObject(GetObjectRequest req, File dest) {
-        ObjectMetadata meta = super.getObject(req, dest);
+        ObjectMetadata meta = getObjectInternal(req, dest);
         keyFromMetadataInternal(meta);
         return meta;
     }
@@ -332,10 +1079,528 @@ public class IonicS3EncryptionClient extends AmazonS3EncryptionClient
      * @return a {@link IonicS3EncryptionClient.IonicKeyObjectMetadataPair}
      */
     public IonicKeyObjectMetadataPair getObjectAndKey(GetObjectRequest req, File dest) {
-        ObjectMetadata meta = super.getObject(req, dest);
+        ObjectMetadata meta = getObjectInternal(req, dest);
         return new IonicKeyObjectMetadataPair(keyFromMetadataInternal(meta), meta);
     }
 
+    /**
+     * Downloads and decrypts an object into a caller supplied buffer, heap or direct. The content
+     * is written from the buffer's position on, and the position is advanced past it. Into a heap
+     * buffer the content is decrypted straight into its array; into a direct buffer it goes
+     * through a single chunk sized array.
+     *
+     * @param req The request object containing all the options on how to download the object.
+     * @param dest The buffer to store the object content in, with room for all of it, or for the
+     *     requested range of it.
+     * @return the ObjectMetadata of the object, or null if the constraints of req were not met.
+     * @throws SdkClientException if the content does not fit in the remaining bytes of dest, in
+     *     which case the position of dest is not changed, or could not be read.
+     */
+    public ObjectMetadata getObject(GetObjectRequest req, ByteBuffer dest) {
+        rejectNull(dest, "Destination buffer must be provided");
+        S3Object obj = getObject(req);
+        if (obj == null) {
+            // The request's constraints were not met.
+            return null;
+        }
+        ObjectMetadata meta = obj.getObjectMetadata();
+        S3ObjectInputStream in = obj.getObjectContent();
+        int start = dest.position();
+        int room = dest.remaining();
+        boolean drained = false;
+        try {
+            // The length of a ranged GET is only known from the content.
+            if (req.getRange() == null) {
+                Long length = plaintextLength(meta, req.getKey());
+                if (length != null && length > room) {
+                    throw tooLarge(req, room);
+                }
+            }
+            readFully(in, dest);
+            if (!dest.hasRemaining() && in.read() != -1) {
+                throw tooLarge(req, room);
+            }
+            drained = true;
+            in.close();
+        } catch (IOException e) {
+            throw new SdkClientException("Unable to read object contents of " + req.getKey()
+                    + ": " + e.getMessage(), e);
+        } finally {
+            if (!drained) {
+                dest.position(start);
+                in.abort();
+            }
+        }
+        return meta;
+    }
+
+    private static void readFully(InputStream in, ByteBuffer dest) throws IOException {
+        if (dest.hasArray()) {
+            byte[] array = dest.array();
+            while (dest.hasRemaining()) {
+                int read = in.read(array, dest.arrayOffset() + dest.position(), dest.remaining());
+                if (read < 0) {
+                    return;
+                }
+                dest.position(dest.position() + read);
+            }
+            return;
+        }
+        byte[] chunk = new byte[Math.min(Math.max(dest.remaining(), 1), 64 * 1024)];
+        while (dest.hasRemaining()) {
+            int read = in.read(chunk, 0, Math.min(chunk.length, dest.remaining()));
+            if (read < 0) {
+                return;
+            }
+            dest.put(chunk, 0, read);
+        }
+    }
+
+    /**
+     * Returns the unencrypted content length the encryption client stored with an object, or null
+     * if it stored none.
+     *
+     * @throws SdkClientException if the stored length is not a number.
+     */
+    static Long plaintextLength(ObjectMetadata meta, String key) {
+        String length = meta.getUserMetaDataOf(Headers.UNENCRYPTED_CONTENT_LENGTH);
+        if (length == null) {
+            return null;
+        }
+        try {
+            return Long.valueOf(length.trim());
+        } catch (NumberFormatException e) {
+            throw new SdkClientException("Malformed " + Headers.UNENCRYPTED_CONTENT_LENGTH
+                    + " of object " + key + ": " + length, e);
+        }
+    }
+
+    private static SdkClientException tooLarge(GetObjectRequest req, int room) {
+        return new SdkClientException("Object " + req.getKey()
+                + " does not fit in the remaining " + room + " bytes of the buffer");
+    }
+
+    /**
+     * A version of {@link #getObjects(List, int)} that downloads up to
+     * {@link #DEFAULT_BULK_PARALLELISM} objects at once.
+     *
+     * @param reqs the GetObjectRequests of the objects.
+     * @return an IonicKeyS3ObjectPair for each object, in the order of reqs.
+     */
+    public List<IonicKeyS3ObjectPair> getObjects(List<GetObjectRequest> reqs) {
+        return getObjects(reqs, DEFAULT_BULK_PARALLELISM);
+    }
+
+    /**
+     * Gets a batch of objects, fetching their Ionic keys in as few getKeys requests as possible
+     * instead of one per object. The materials descriptions of the objects are read with parallel
+     * HEADs first, then every distinct key not already cached is fetched in getKeys requests of at
+     * most {@link IonicEncryptionMaterialsProvider#MAX_GET_KEYS_QUANTITY} key ids, and the objects
+     * are then got and decrypted up to parallelism at once. An object whose key id cannot be read
+     * from a HEAD, e.g. because its envelope is in an instruction file, has its key fetched by
+     * its own GET.
+     *
+     * <p>Each returned S3Object holds an HTTP connection until its content is closed, so a batch
+     * should not be larger than the client's maximum number of connections; use
+     * {@link #getObjects(List, List, int)} to download larger batches. If a GET fails, the GETs not
+     * yet started are cancelled, the objects already got are aborted and the failure is thrown.
+     *
+     * @param reqs the GetObjectRequests of the objects.
+     * @param parallelism the maximum number of HEADs or GETs at once.
+     * @return an IonicKeyS3ObjectPair for each object, in the order of reqs, or null for an object
+     *     {@link #getObject(GetObjectRequest)} would return null for.
+     */
+    public List<IonicKeyS3ObjectPair> getObjects(List<GetObjectRequest> reqs, int parallelism) {
+        return getObjects(reqs, parallelism, new BulkGet<IonicKeyS3ObjectPair>() {
+            @Override
+            IonicKeyS3ObjectPair get(int index, GetObjectRequest req) {
+                S3Object obj = IonicS3EncryptionClient.super.getObject(req);
+                if (obj == null) {
+                    return null;
+                }
+                return new IonicKeyS3ObjectPair(takeKey(obj.getObjectMetadata()), obj);
+            }
+
+            @Override
+            void discard(IonicKeyS3ObjectPair pair) {
+                pair.getS3Object().getObjectContent().abort();
+            }
+        });
+    }
+
+    /**
+     * A version of {@link #getObjects(List, int)} that downloads each object to a file, like
+     * {@link #getObjectAndKey(GetObjectRequest, File)}. If a download fails, the downloads not yet
+     * started are cancelled and the failure is thrown; files already downloaded are kept.
+     *
+     * @param reqs the GetObjectRequests of the objects.
+     * @param dests the file to save each object to, in the order of reqs.
+     * @param parallelism the maximum number of HEADs or downloads at once.
+     * @return an IonicKeyObjectMetadataPair for each object, in the order of reqs, or null for an
+     *     object {@link #getObject(GetObjectRequest, File)} would return null for.
+     */
+    public List<IonicKeyObjectMetadataPair> getObjects(List<GetObjectRequest> reqs,
+            final List<File> dests, int parallelism) {
+        rejectNull(dests, "The destination file list must be specified");
+        if (reqs != null && dests.size() != reqs.size()) {
+            throw new IllegalArgumentException(
+                    "dests must hold one destination file per GetObjectRequest");
+        }
+        return getObjects(reqs, parallelism, new BulkGet<IonicKeyObjectMetadataPair>() {
+            @Override
+            IonicKeyObjectMetadataPair get(int index, GetObjectRequest req) {
+                ObjectMetadata meta = IonicS3EncryptionClient.super.getObject(req,
+                        dests.get(index));
+                if (meta == null) {
+                    return null;
+                }
+                return new IonicKeyObjectMetadataPair(takeKey(meta), meta);
+            }
+        });
+    }
+
+    /**
+     * A GET of one object of a {@link #getObjects} batch.
+     */
+    private abstract static class BulkGet<T> {
+        abstract T get(int index, GetObjectRequest req);
+
+        /**
+         * Releases a result that will not be returned because another GET of the batch failed.
+         */
+        void discard(T result) {}
+    }
+
+    private <T> List<T> getObjects(final List<GetObjectRequest> reqs, int parallelism,
+            final BulkGet<T> bulkGet) {
+        rejectNull(reqs, "The GetObjectRequest list must be specified");
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        List<T> results = new ArrayList<T>(reqs.size());
+        if (reqs.isEmpty()) {
+            return results;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(parallelism, reqs.size()), new IonicThreadFactory("ionic-bulk-get"));
+        List<Future<T>> gets = new ArrayList<Future<T>>(reqs.size());
+        List<String> heldKeyIds = Collections.emptyList();
+        boolean complete = false;
+        try {
+            heldKeyIds = holdObjectKeys(reqs, executor);
+            for (int i = 0; i < reqs.size(); i++) {
+                final int index = i;
+                gets.add(executor.submit(new Callable<T>() {
+                    @Override
+                    public T call() {
+                        GetObjectRequest req = reqs.get(index);
+                        AmazonWebServiceRequest previous = IonicMetrics.enterRequest(req);
+                        try {
+                            return bulkGet.get(index, req);
+                        } finally {
+                            IonicMetrics.exitRequest(previous);
+                        }
+                    }
+                }));
+            }
+            for (Future<T> get : gets) {
+                results.add(get.get());
+            }
+            complete = true;
+            return results;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new SdkClientException("Unable to get objects: " + cause.getMessage(), cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SdkClientException("Interrupted getting objects", e);
+        } finally {
+            if (complete) {
+                executor.shutdown();
+            } else {
+                HashSet<Runnable> unstarted = new HashSet<Runnable>(executor.shutdownNow());
+                for (Future<T> get : gets) {
+                    if (!unstarted.contains(get)) {
+                        discardResult(get, bulkGet);
+                    }
+                }
+            }
+            iemp.releaseKeys(heldKeyIds);
+        }
+    }
+
+    private static <T> void discardResult(Future<T> get, BulkGet<T> bulkGet) {
+        try {
+            T result = get.get();
+            if (result != null) {
+                bulkGet.discard(result);
+            }
+        } catch (ExecutionException e) {
+            // Failed on its own.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            // Nothing more to release.
+        }
+    }
+
+    /**
+     * Reads the key ids of a batch of objects with HEADs on executor and holds their keys.
+     *
+     * @return the key ids held, to be released.
+     */
+    private List<String> holdObjectKeys(List<GetObjectRequest> reqs, ExecutorService executor)
+            throws InterruptedException, ExecutionException {
+        List<Future<String>> heads = new ArrayList<Future<String>>(reqs.size());
+        for (final GetObjectRequest req : reqs) {
+            heads.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    try {
+                        ObjectMetadata meta = getObjectMetadata(headRequest(req));
+                        return IonicMaterialsDescription.getKeyId(meta);
+                    } catch (RuntimeException e) {
+                        // The GET reports the same failure.
+                        return null;
+                    }
+                }
+            }));
+        }
+        List<String> keyIds = new ArrayList<String>(reqs.size());
+        for (Future<String> head : heads) {
+            String keyId = head.get();
+            if (keyId != null) {
+                keyIds.add(keyId);
+            }
+        }
+        AmazonWebServiceRequest previous = IonicMetrics.enterRequest(reqs.get(0));
+        try {
+            return iemp.holdKeys(keyIds);
+        } catch (IonicException e) {
+            throw IonicEncryptionMaterialsProvider.toAmazonS3Exception(e);
+        } finally {
+            IonicMetrics.exitRequest(previous);
+        }
+    }
+
+    /**
+     * Collects the key a GET of a {@link #getObjects} batch stored for getObjectAndKey. GETs of
+     * objects sharing a key store it under the same key id, so one of them may find it already
+     * taken and falls back to the held copy.
+     */
+    private GetKeysResponse.Key takeKey(ObjectMetadata meta) {
+        String keyId = IonicMaterialsDescription.getKeyId(meta);
+        if (keyId == null) {
+            return null;
+        }
+        GetKeysResponse.Key key = iemp.retrieveResponseKey(keyId);
+        return key != null ? key : iemp.heldKey(keyId);
+    }
+
+    /**
+     * A version of {@link #getObject(GetObjectRequest, File)} for large objects that downloads
+     * {@link #DEFAULT_PARALLEL_RANGE_SIZE} ranges of the object on up to parallelism connections
+     * at once.
+     *
+     * @param req The request object containing all the options on how to download the object.
+     * @param dest The file (which might already exist) to save the object content to.
+     * @param parallelism the maximum number of ranges downloaded at once.
+     * @return the object's metadata, as returned by a HEAD of the object.
+     * @see #getObjectParallel(GetObjectRequest, File, int, long)
+     */
+    public ObjectMetadata getObjectParallel(GetObjectRequest req, File dest, int parallelism) {
+        return getObjectParallel(req, dest, parallelism, DEFAULT_PARALLEL_RANGE_SIZE);
+    }
+
+    /**
+     * A version of {@link #getObject(GetObjectRequest, File)} for large objects that splits the
+     * plaintext into ranges of rangeSize bytes and downloads up to parallelism of them at once,
+     * each on its own connection with a ranged GET. The SDK decrypts every range from its own
+     * cipher block offset and each range is written straight to its position in dest, so no range
+     * waits for the ones before it. The object is read with a HEAD first; its Ionic key is fetched
+     * once and shared by all ranges, and every range requires the ETag the HEAD returned, so a
+     * concurrent overwrite fails the download instead of mixing two versions.
+     *
+     * <p>Objects encrypted with AuthenticatedEncryption are decrypted range by range as AES/CTR,
+     * which cannot check the AES/GCM tag of the whole object: their integrity is not verified.
+     * A client configured with StrictAuthenticatedEncryption, which rejects ranged GETs, downloads
+     * in a single stream and verifies the tag. So do requests for a range, objects whose envelope
+     * is kept in an instruction file, objects without an unencrypted content length in their
+     * metadata, and objects no larger than rangeSize.
+     *
+     * <p>If a range fails the remaining ones are cancelled and dest is deleted.
+     *
+     * @param req The request object containing all the options on how to download the object.
+     * @param dest The file (which might already exist) to save the object content to.
+     * @param parallelism the maximum number of ranges downloaded at once.
+     * @param rangeSize the number of plaintext bytes per ranged GET.
+     * @return the object's metadata, as returned by a HEAD of the object.
+     */
+    public ObjectMetadata getObjectParallel(GetObjectRequest req, File dest, int parallelism,
+            long rangeSize) {
+        rejectNull(req,
+                "The GetObjectRequest parameter must be specified when requesting an object");
+        rejectNull(dest, "The destination file parameter must be specified when downloading an "
+                + "object directly to a file");
+        if (parallelism < 1 || rangeSize < 1) {
+            throw new IllegalArgumentException("parallelism and rangeSize must be positive");
+        }
+        if (parallelism == 1 || req.getRange() != null
+                || cryptoMode == CryptoMode.StrictAuthenticatedEncryption
+                || (req instanceof EncryptedGetObjectRequest
+                        && ((EncryptedGetObjectRequest) req).getInstructionFileSuffix() != null)) {
+            return getObject(req, dest);
+        }
+        ObjectMetadata meta;
+        AmazonWebServiceRequest previous = IonicMetrics.enterRequest(req);
+        try {
+            meta = getObjectMetadata(headRequest(req));
+        } finally {
+            IonicMetrics.exitRequest(previous);
+        }
+        String keyId = IonicMaterialsDescription.getKeyId(meta);
+        Long plaintextLength = plaintextLength(meta, req.getKey());
+        if (keyId == null || plaintextLength == null || plaintextLength <= rangeSize) {
+            return getObject(req, dest);
+        }
+        previous = IonicMetrics.enterRequest(req);
+        try {
+            iemp.holdKey(keyId);
+        } catch (IonicException e) {
+            throw IonicEncryptionMaterialsProvider.toAmazonS3Exception(e);
+        } finally {
+            IonicMetrics.exitRequest(previous);
+        }
+        try {
+            downloadRanges(req, dest, meta.getETag(), plaintextLength, parallelism, rangeSize);
+        } finally {
+            iemp.releaseKey(keyId);
+            // Every range stored the key for getObjectAndKey; none of them will claim it.
+            iemp.retrieveResponseKey(keyId);
+        }
+        return meta;
+    }
+
+    private void downloadRanges(GetObjectRequest req, File dest, String etag, long length,
+            int parallelism, long rangeSize) {
+        long rangeCount = (length + rangeSize - 1) / rangeSize;
+        ExecutorService executor = Executors.newFixedThreadPool((int) Math.min(parallelism,
+                rangeCount), new IonicThreadFactory("ionic-ranged-get"));
+        boolean complete = false;
+        try (FileChannel channel = FileChannel.open(dest.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            List<Future<Void>> ranges = new ArrayList<Future<Void>>();
+            for (long start = 0; start < length; start += rangeSize) {
+                GetObjectRequest range = new GetObjectRequest(req.getBucketName(), req.getKey(),
+                        req.getVersionId());
+                range.setSSECustomerKey(req.getSSECustomerKey());
+                range.setRequesterPays(req.isRequesterPays());
+                range.setGeneralProgressListener(req.getGeneralProgressListener());
+                copyRequestSettings(req, range);
+                range.setMatchingETagConstraints(Collections.singletonList(etag));
+                ranges.add(executor.submit(new RangeDownload(range, start,
+                        Math.min(start + rangeSize, length), channel)));
+            }
+            for (Future<Void> range : ranges) {
+                range.get();
+            }
+            complete = true;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new SdkClientException("Unable to store object contents to disk: "
+                    + cause.getMessage(), cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SdkClientException("Interrupted downloading " + req.getKey(), e);
+        } catch (IOException e) {
+            throw new SdkClientException("Unable to store object contents to disk: "
+                    + e.getMessage(), e);
+        } finally {
+            executor.shutdownNow();
+            if (!complete) {
+                dest.delete();
+            }
+        }
+    }
+
+    /**
+     * Sends one ranged GET of a parallel download, without the key handling of
+     * {@link #getObject(GetObjectRequest)}: the download holds the key for all of its ranges.
+     */
+    S3Object getObjectRange(GetObjectRequest range) {
+        return super.getObject(range);
+    }
+
+    /**
+     * A ranged GET of an encrypted object, written to the range's position in the destination
+     * file as it is decrypted.
+     */
+    private class RangeDownload implements Callable<Void> {
+        private final GetObjectRequest range;
+        private final long start;
+        private final long end;
+        private final FileChannel channel;
+
+        /**
+         * Constructs a RangeDownload of the plaintext bytes from start, inclusive, to end,
+         * exclusive.
+         */
+        RangeDownload(GetObjectRequest range, long start, long end, FileChannel channel) {
+            this.range = range;
+            this.start = start;
+            this.end = end;
+            this.channel = channel;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            // The crypto module widens the range of the request to whole cipher blocks.
+            range.setRange(start, end - 1);
+            S3Object object;
+            AmazonWebServiceRequest previous = IonicMetrics.enterRequest(range);
+            try {
+                object = getObjectRange(range);
+            } finally {
+                IonicMetrics.exitRequest(previous);
+            }
+            if (object == null) {
+                throw new SdkClientException("Object " + range.getKey()
+                        + " was modified during the download");
+            }
+            long position = start;
+            S3ObjectInputStream in = object.getObjectContent();
+            boolean drained = false;
+            try {
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    ByteBuffer data = ByteBuffer.wrap(buffer, 0, read);
+                    while (data.hasRemaining()) {
+                        position += channel.write(data, position);
+                    }
+                }
+                drained = true;
+            } finally {
+                if (drained) {
+                    in.close();
+                } else {
+                    in.abort();
+                }
+            }
+            if (position != end) {
+                throw new SdkClientException("Range " + start + "-" + (end - 1) + " of "
+                        + range.getKey() + " ended after " + (position - start) + " bytes");
+            }
+            return null;
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -380,20 +1645,170 @@ public class IonicS3EncryptionClient extends AmazonS3EncryptionClient
             cryptoReq = new EncryptedInitiateMultipartUploadRequest(req.getBucketName(),
                     req.getKey(), req.getObjectMetadata());
         }
-        HashMap<String, String> materialsDescription = new HashMap<String, String>();
-        if (iemp.isEnabledMetadataCapture()) {
-            ObjectMetadata objMetadata = req.getObjectMetadata();
-            if (objMetadata != null) {
-                Map<String, String> userMetadata = objMetadata.getUserMetadata();
-                if (userMetadata != null) {
-                    materialsDescription.putAll(userMetadata);
+        HashMap<String, String> materialsDescription = capturedMetadata(req.getObjectMetadata());
+        // uploadObject stores its request key before the SDK initiates the upload.
+        Map<String, String> requested = cryptoReq.getMaterialsDescription();
+        String uuid = requested == null ? null
+                : requested.get(IonicEncryptionMaterialsProvider.IONICKEYREQUUID);
+        materialsDescription.put(IonicEncryptionMaterialsProvider.IONICKEYREQUUID,
+                uuid != null ? uuid
+                        : iemp.storeRequestKey(key, req.getBucketName(), req.getKey()));
+        cryptoReq.setMaterialsDescription(materialsDescription);
+        AmazonWebServiceRequest previous = IonicMetrics.enterRequest(req);
+        try {
+            return super.initiateMultipartUpload(cryptoReq);
+        } finally {
+            IonicMetrics.exitRequest(previous);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompleteMultipartUploadResult uploadObject(UploadObjectRequest req)
+            throws IOException, InterruptedException, ExecutionException {
+        return uploadObject(req, new CreateKeysRequest.Key(""));
+    }
+
+    /**
+     * A version of {@link #uploadObject(UploadObjectRequest)} that takes a
+     * {@link com.ionic.sdk.agent.request.createkey.CreateKeysRequest.Key} as an argument for
+     * setting {@link com.ionic.sdk.agent.key.KeyAttributesMap Attributes} and mutableAttributes on
+     * the Ionic Key associated with the object.
+     *
+     * <p>Unlike {@link #initiateMultipartUpload(InitiateMultipartUploadRequest)} followed by
+     * {@link #uploadPart}, which must send the parts one at a time because the cipher state runs
+     * from one part into the next, this encrypts the content into part files and uploads every
+     * finished part while the next one is being encrypted. Parts are uploaded on the request's
+     * executor or, if it has none, on a pool of {@link #DEFAULT_UPLOAD_THREADS} threads shared by
+     * the client's uploads. Encryption waits whenever the parts waiting for upload reach the
+     * request's disk limit or, if it has none, the client's upload buffer size. The object has the
+     * same envelope as one uploaded with {@link #putObject(PutObjectRequest)} and is read back with
+     * {@link #getObject(GetObjectRequest)}.
+     *
+     * @param req The UploadObjectRequest object that specifies the content, part size and
+     *        parameters of this operation.
+     * @param key The CreateKeysRequest.Key containing attributes for associated Ionic Key.
+     * @return A CompleteMultipartUploadResult from Amazon S3.
+     * @throws IOException if the content cannot be read or the part files cannot be written.
+     * @throws InterruptedException if interrupted while waiting for part uploads.
+     * @throws ExecutionException if a part upload failed.
+     */
+    public CompleteMultipartUploadResult uploadObject(UploadObjectRequest req,
+            CreateKeysRequest.Key key)
+            throws IOException, InterruptedException, ExecutionException {
+        return uploadObjectWithStoredKey(req,
+                iemp.storeRequestKey(key, req.getBucketName(), req.getKey()));
+    }
+
+    /**
+     * Uploads an object as {@link #uploadObject(UploadObjectRequest, CreateKeysRequest.Key)}
+     * does, with the key stored under uuid by the provider.
+     */
+    CompleteMultipartUploadResult uploadObjectWithStoredKey(UploadObjectRequest req, String uuid)
+            throws IOException, InterruptedException, ExecutionException {
+        HashMap<String, String> materialsDescription = capturedMetadata(req.getMetadata());
+        materialsDescription.put(IonicEncryptionMaterialsProvider.IONICKEYREQUUID, uuid);
+        return uploadEncryptedObject(req, materialsDescription);
+    }
+
+    private CompleteMultipartUploadResult uploadEncryptedObject(UploadObjectRequest req,
+            Map<String, String> materialsDescription)
+            throws IOException, InterruptedException, ExecutionException {
+        // A copy, so the caller's request keeps its own executor, disk limit and description.
+        UploadObjectRequest upload = req.clone();
+        upload.setMaterialsDescription(materialsDescription);
+        if (upload.getExecutorService() == null) {
+            upload.withExecutorService(getUploadExecutor());
+        }
+        long budget = this.uploadBufferBytes;
+        if (budget > 0 && upload.getDiskLimit() == Long.MAX_VALUE) {
+            // The SDK needs room for the part being encrypted and one being uploaded.
+            upload.withDiskLimit(Math.max(budget, 2 * upload.getPartSize()));
+        }
+        AmazonWebServiceRequest previous = IonicMetrics.enterRequest(upload);
+        try {
+            return super.uploadObject(upload);
+        } finally {
+            IonicMetrics.exitRequest(previous);
+        }
+    }
+
+    /**
+     * Sets how many bytes of encrypted parts {@link #uploadObject(UploadObjectRequest)} keeps
+     * waiting for upload, in temporary files, when the request does not set a disk limit. It is
+     * raised to twice the part size where that is larger. Defaults to
+     * {@link #DEFAULT_UPLOAD_BUFFER_BYTES}.
+     *
+     * @param uploadBufferBytes the upload buffer size, or 0 for no limit.
+     */
+    public void setUploadBufferBytes(long uploadBufferBytes) {
+        if (uploadBufferBytes < 0) {
+            throw new IllegalArgumentException("uploadBufferBytes must not be negative");
+        }
+        this.uploadBufferBytes = uploadBufferBytes;
+    }
+
+    /**
+     * Returns how many bytes of encrypted parts an upload keeps waiting for upload.
+     *
+     * @return the upload buffer size, or 0 for no limit.
+     */
+    public long getUploadBufferBytes() {
+        return uploadBufferBytes;
+    }
+
+    /**
+     * Sets the part size of the multipart uploads that PUTs of a stream without a content length
+     * in their metadata are sent as. The SDK would otherwise read the whole stream into memory to
+     * learn its length; instead up to one part of it is read first, and a stream that ends within
+     * it is put as a single object. A longer stream is encrypted into parts of this size, buffered
+     * in temporary files within the upload buffer size, and uploaded as {@link #uploadObject}
+     * does. S3 allows 10000 parts, so this also bounds the size of such streams. Defaults to
+     * {@link #DEFAULT_STREAM_PART_SIZE}.
+     *
+     * <p>The first part is read on the heap: each such PUT in progress holds up to
+     * streamPartSize + 1 bytes there until its stream is known to fit in one part or is handed to
+     * the multipart upload, so a larger part size costs that much memory per concurrent PUT.
+     *
+     * @param streamPartSize the part size, at least 5 MB and less than 2 GB.
+     */
+    public void setStreamPartSize(long streamPartSize) {
+        if (streamPartSize < 5L * 1024 * 1024 || streamPartSize >= Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                    "streamPartSize must be at least 5 MB and less than 2 GB");
+        }
+        this.streamPartSize = streamPartSize;
+    }
+
+    /**
+     * Returns the part size of the multipart uploads that PUTs of streams of unknown length are
+     * sent as.
+     *
+     * @return the stream part size.
+     */
+    public long getStreamPartSize() {
+        return streamPartSize;
+    }
+
+    private ExecutorService getUploadExecutor() {
+        ExecutorService executor = this.uploadExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = this.uploadExecutor;
+                if (executor == null) {
+                    ThreadPoolExecutor pool = new ThreadPoolExecutor(DEFAULT_UPLOAD_THREADS,
+                            DEFAULT_UPLOAD_THREADS, 60, TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<Runnable>(),
+                            new IonicThreadFactory("ionic-part-upload"));
+                    pool.allowCoreThreadTimeOut(true);
+                    executor = pool;
+                    this.uploadExecutor = executor;
                 }
             }
         }
-        materialsDescription.put(IonicEncryptionMaterialsProvider.IONICKEYREQUUID,
-                iemp.storeRequestKey(key));
-        cryptoReq.setMaterialsDescription(materialsDescription);
-        return super.initiateMultipartUpload(cryptoReq);
+        return executor;
     }
 
     /**
@@ -405,6 +1820,50 @@ public class IonicS3EncryptionClient extends AmazonS3EncryptionClient
         return iemp;
     }
 
+    /**
+     * Shuts down the client, its key prefetch, read ahead and part upload threads, the key
+     * coalescer and key pool refills of its IonicEncryptionMaterialsProvider and the metrics MBean
+     * the builder registered for it.
+     */
+    @Override
+    public void shutdown() {
+        IonicKeyCoalescer coalescer = iemp.getKeyCoalescer();
+        if (coalescer != null) {
+            coalescer.shutdown();
+        }
+        IonicKeyPool pool = iemp.getKeyPool();
+        if (pool != null) {
+            pool.shutdown();
+        }
+        ExecutorService executor = this.prefetchExecutor;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        executor = this.uploadExecutor;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        ObjectName objectName = this.metricsObjectName;
+        if (objectName != null) {
+            IonicMetrics.unregisterMBean(objectName);
+            this.metricsObjectName = null;
+        }
+        super.shutdown();
+    }
+
+    void setMetricsObjectName(ObjectName metricsObjectName) {
+        this.metricsObjectName = metricsObjectName;
+    }
+
+    /**
+     * Gets the name of the metrics MBean registered for this client.
+     *
+     * @return an ObjectName, or null if no MBean was registered.
+     */
+    public ObjectName getMetricsObjectName() {
+        return this.metricsObjectName;
+    }
+
     private void rejectNull(Object parameterValue, String errorMessage) {
         if (parameterValue == null) {
             throw new IllegalArgumentException(errorMessage);
@@ -15,6 +15,7 @@ import com.amazonaws.services.s3.model.EncryptionMaterialsProvider;
 import com.ionic.sdk.agent.Agent;
 import com.ionic.sdk.error.IonicException;
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A factory class for building instances of
@@ -25,6 +26,14 @@ public class IonicS3EncryptionClientBuilder
         extends AmazonS3Builder<IonicS3EncryptionClientBuilder, AmazonS3Encryption> {
     private EncryptionMaterialsProvider encryptionMaterials;
     private CryptoConfiguration cryptoConfig = new CryptoConfiguration();
+    private IonicKeyCache keyCache;
+    private String metricsMBeanName;
+    private boolean keyPrefetchEnabled;
+    private int readAheadBytes;
+    private long uploadBufferBytes = IonicS3EncryptionClient.DEFAULT_UPLOAD_BUFFER_BYTES;
+    private long streamPartSize = IonicS3EncryptionClient.DEFAULT_STREAM_PART_SIZE;
+    private int asyncTransferThreads = IonicS3AsyncEncryptionClient.DEFAULT_TRANSFER_THREADS;
+    private int asyncMaxConcurrency = IonicS3AsyncEncryptionClient.DEFAULT_MAX_CONCURRENCY;
 
     /**
      * Create new instance of builder with all defaults set.
@@ -108,6 +117,198 @@ public class IonicS3EncryptionClientBuilder
         return this;
     }
 
+    /**
+     * Sets the key cache installed on the IonicEncryptionMaterialsProvider when the client is
+     * built, so repeated GETs of the same key skip the key service.
+     *
+     * @param keyCache an {@link IonicKeyCache}, or null to leave the provider unchanged.
+     */
+    public void setKeyCache(IonicKeyCache keyCache) {
+        this.keyCache = keyCache;
+    }
+
+    /**
+     * Sets the key cache installed on the IonicEncryptionMaterialsProvider when the client is
+     * built.
+     *
+     * @param keyCache an {@link IonicKeyCache}.
+     * @return this object for method chaining
+     */
+    public IonicS3EncryptionClientBuilder withKeyCache(IonicKeyCache keyCache) {
+        setKeyCache(keyCache);
+        return this;
+    }
+
+    /**
+     * Enables a key cache holding up to maxEntries keys, each served for at most ttl after it was
+     * fetched. A revoked key therefore stops being served within ttl.
+     *
+     * @param maxEntries the maximum number of cached keys.
+     * @param ttl how long a key is served after it was fetched.
+     * @param unit the unit of ttl.
+     * @return this object for method chaining
+     */
+    public IonicS3EncryptionClientBuilder withKeyCache(int maxEntries, long ttl, TimeUnit unit) {
+        setKeyCache(new IonicKeyCache(maxEntries, ttl, unit));
+        return this;
+    }
+
+    /**
+     * Sets the name under which the provider's {@link IonicMetrics} are registered with the
+     * platform MBeanServer when the client is built, as
+     * {@code com.ionic.cloudstorage.awss3:type=IonicMetrics,name=<name>}. The MBean is unregistered
+     * when the client is shut down.
+     *
+     * @param metricsMBeanName the name, or null to not register an MBean.
+     */
+    public void setMetricsMBeanName(String metricsMBeanName) {
+        this.metricsMBeanName = metricsMBeanName;
+    }
+
+    /**
+     * Registers the provider's {@link IonicMetrics} as an MBean named metricsMBeanName when the
+     * client is built.
+     *
+     * @param metricsMBeanName the name property of the MBean's ObjectName.
+     * @return this object for method chaining
+     */
+    public IonicS3EncryptionClientBuilder withMetricsMBeanName(String metricsMBeanName) {
+        setMetricsMBeanName(metricsMBeanName);
+        return this;
+    }
+
+    /**
+     * Sets whether built clients overlap the Ionic key fetch of every GET with the S3 request.
+     *
+     * @param keyPrefetchEnabled whether to prefetch keys with a parallel HEAD.
+     * @see IonicS3EncryptionClient#setKeyPrefetchEnabled(boolean)
+     */
+    public void setKeyPrefetchEnabled(boolean keyPrefetchEnabled) {
+        this.keyPrefetchEnabled = keyPrefetchEnabled;
+    }
+
+    /**
+     * Sets whether built clients overlap the Ionic key fetch of every GET with the S3 request.
+     *
+     * @param keyPrefetchEnabled whether to prefetch keys with a parallel HEAD.
+     * @return this object for method chaining
+     * @see IonicS3EncryptionClient#setKeyPrefetchEnabled(boolean)
+     */
+    public IonicS3EncryptionClientBuilder withKeyPrefetch(boolean keyPrefetchEnabled) {
+        setKeyPrefetchEnabled(keyPrefetchEnabled);
+        return this;
+    }
+
+    /**
+     * Sets how many bytes of an encrypted GET body built clients download while the key is
+     * fetched.
+     *
+     * @param readAheadBytes the read ahead buffer size, or 0 to disable read ahead.
+     * @see IonicS3EncryptionClient#setReadAheadBytes(int)
+     */
+    public void setReadAheadBytes(int readAheadBytes) {
+        this.readAheadBytes = readAheadBytes;
+    }
+
+    /**
+     * Sets how many bytes of an encrypted GET body built clients download while the key is
+     * fetched.
+     *
+     * @param readAheadBytes the read ahead buffer size, or 0 to disable read ahead.
+     * @return this object for method chaining
+     * @see IonicS3EncryptionClient#setReadAheadBytes(int)
+     */
+    public IonicS3EncryptionClientBuilder withReadAheadBytes(int readAheadBytes) {
+        setReadAheadBytes(readAheadBytes);
+        return this;
+    }
+
+    /**
+     * Sets how many bytes of encrypted parts the uploads of built clients keep waiting for upload.
+     *
+     * @param uploadBufferBytes the upload buffer size, or 0 for no limit.
+     * @see IonicS3EncryptionClient#setUploadBufferBytes(long)
+     */
+    public void setUploadBufferBytes(long uploadBufferBytes) {
+        this.uploadBufferBytes = uploadBufferBytes;
+    }
+
+    /**
+     * Sets how many bytes of encrypted parts the uploads of built clients keep waiting for upload.
+     *
+     * @param uploadBufferBytes the upload buffer size, or 0 for no limit.
+     * @return this object for method chaining
+     * @see IonicS3EncryptionClient#setUploadBufferBytes(long)
+     */
+    public IonicS3EncryptionClientBuilder withUploadBufferBytes(long uploadBufferBytes) {
+        setUploadBufferBytes(uploadBufferBytes);
+        return this;
+    }
+
+    /**
+     * Sets the part size that built clients upload streams of unknown length in.
+     *
+     * @param streamPartSize the part size, at least 5 MB and less than 2 GB.
+     * @see IonicS3EncryptionClient#setStreamPartSize(long)
+     */
+    public void setStreamPartSize(long streamPartSize) {
+        this.streamPartSize = streamPartSize;
+    }
+
+    /**
+     * Sets the part size that built clients upload streams of unknown length in.
+     *
+     * @param streamPartSize the part size, at least 5 MB and less than 2 GB.
+     * @return this object for method chaining
+     * @see IonicS3EncryptionClient#setStreamPartSize(long)
+     */
+    public IonicS3EncryptionClientBuilder withStreamPartSize(long streamPartSize) {
+        setStreamPartSize(streamPartSize);
+        return this;
+    }
+
+    /**
+     * Sets how many S3 requests clients built with {@link #buildAsync()} send at once.
+     *
+     * @param asyncTransferThreads the number of transfer threads.
+     */
+    public void setAsyncTransferThreads(int asyncTransferThreads) {
+        this.asyncTransferThreads = asyncTransferThreads;
+    }
+
+    /**
+     * Sets how many S3 requests clients built with {@link #buildAsync()} send at once.
+     *
+     * @param asyncTransferThreads the number of transfer threads.
+     * @return this object for method chaining
+     */
+    public IonicS3EncryptionClientBuilder withAsyncTransferThreads(int asyncTransferThreads) {
+        setAsyncTransferThreads(asyncTransferThreads);
+        return this;
+    }
+
+    /**
+     * Sets how many operations clients built with {@link #buildAsync()} keep in flight before
+     * rejecting new ones.
+     *
+     * @param asyncMaxConcurrency the maximum number of operations in flight.
+     */
+    public void setAsyncMaxConcurrency(int asyncMaxConcurrency) {
+        this.asyncMaxConcurrency = asyncMaxConcurrency;
+    }
+
+    /**
+     * Sets how many operations clients built with {@link #buildAsync()} keep in flight before
+     * rejecting new ones.
+     *
+     * @param asyncMaxConcurrency the maximum number of operations in flight.
+     * @return this object for method chaining
+     */
+    public IonicS3EncryptionClientBuilder withAsyncMaxConcurrency(int asyncMaxConcurrency) {
+        setAsyncMaxConcurrency(asyncMaxConcurrency);
+        return this;
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -125,11 +326,24 @@ public class IonicS3EncryptionClientBuilder
                             + "be set to an instance of IonicEncryptionMaterialsProvider"
                             + "to build an AmazonS3Encryption.");
         }
+        if (this.keyCache != null) {
+            ((IonicEncryptionMaterialsProvider) this.encryptionMaterials).setKeyCache(keyCache);
+        }
         params.cryptoConfig = this.cryptoConfig;
         if (params.cryptoConfig == null) {
             params.cryptoConfig = new CryptoConfiguration();
         }
-        return new IonicS3EncryptionClient(params);
+        IonicS3EncryptionClient client = new IonicS3EncryptionClient(params);
+        client.setKeyPrefetchEnabled(this.keyPrefetchEnabled);
+        client.setReadAheadBytes(this.readAheadBytes);
+        client.setUploadBufferBytes(this.uploadBufferBytes);
+        client.setStreamPartSize(this.streamPartSize);
+        if (this.metricsMBeanName != null) {
+            IonicMetrics metrics =
+                    ((IonicEncryptionMaterialsProvider) this.encryptionMaterials).getMetrics();
+            client.setMetricsObjectName(metrics.registerMBean(this.metricsMBeanName));
+        }
+        return client;
     }
 
     /**
@@ -140,4 +354,15 @@ public class IonicS3EncryptionClientBuilder
     public IonicS3EncryptionClient buildIonic() {
         return (IonicS3EncryptionClient)this.build();
     }
+
+    /**
+     * Builds an IonicS3EncryptionClient as {@link #buildIonic()} does and returns an
+     * {@link IonicS3AsyncEncryptionClient} sending its S3 requests with it.
+     *
+     * @return a {@link com.ionic.cloudstorage.awss3.IonicS3AsyncEncryptionClient} object.
+     */
+    public IonicS3AsyncEncryptionClient buildAsync() {
+        return new IonicS3AsyncEncryptionClient(buildIonic(), this.asyncTransferThreads,
+                this.asyncMaxConcurrency);
+    }
 }
@@ -0,0 +1,100 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as
+ * the Terms & Conditions (https://dev.ionic.com/use) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.awss3;
+
+import com.ionic.sdk.agent.request.createkey.CreateKeysRequest;
+import com.ionic.sdk.agent.request.createkey.CreateKeysResponse;
+import com.ionic.sdk.agent.request.getkey.GetKeysRequest;
+import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
+import com.ionic.sdk.agent.request.updatekey.UpdateKeysRequest;
+import com.ionic.sdk.agent.request.updatekey.UpdateKeysResponse;
+import com.ionic.sdk.error.AgentErrorModuleConstants;
+import com.ionic.sdk.error.IonicException;
+
+/**
+ * An {@link IonicKeyService} recording the latency and errors of every request to another one in
+ * {@link IonicMetrics}. Keys a getKeys or updateKeys response reports an error for are counted
+ * by their client error code.
+ */
+class MeteredKeyService implements IonicKeyService {
+    private final IonicKeyService delegate;
+    private final IonicMetrics metrics;
+
+    MeteredKeyService(IonicKeyService delegate, IonicMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    IonicKeyService getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public CreateKeysResponse createKeys(CreateKeysRequest request) throws IonicException {
+        long start = System.nanoTime();
+        int errorCode = 0;
+        try {
+            return delegate.createKeys(request);
+        } catch (IonicException e) {
+            errorCode = e.getReturnCode();
+            metrics.recordError(errorCode);
+            throw e;
+        } finally {
+            metrics.recordRequest(IonicMetrics.Field.CreateKeysTime, start,
+                    request.getKeys().size(), errorCode);
+        }
+    }
+
+    @Override
+    public GetKeysResponse getKeys(GetKeysRequest request) throws IonicException {
+        long start = System.nanoTime();
+        int errorCode = 0;
+        try {
+            GetKeysResponse response = delegate.getKeys(request);
+            for (GetKeysResponse.IonicError error : response.getErrors()) {
+                errorCode = keyErrorCode(error.getClientError());
+                metrics.recordError(errorCode);
+            }
+            return response;
+        } catch (IonicException e) {
+            errorCode = e.getReturnCode();
+            metrics.recordError(errorCode);
+            throw e;
+        } finally {
+            metrics.recordRequest(IonicMetrics.Field.GetKeysTime, start,
+                    request.getKeyIds().size(), errorCode);
+        }
+    }
+
+    @Override
+    public UpdateKeysResponse updateKeys(UpdateKeysRequest request) throws IonicException {
+        long start = System.nanoTime();
+        int errorCode = 0;
+        try {
+            UpdateKeysResponse response = delegate.updateKeys(request);
+            for (UpdateKeysResponse.IonicError error : response.getErrors()) {
+                errorCode = keyErrorCode(error.getClientError());
+                metrics.recordError(errorCode);
+            }
+            return response;
+        } catch (IonicException e) {
+            errorCode = e.getReturnCode();
+            metrics.recordError(errorCode);
+            throw e;
+        } finally {
+            metrics.recordRequest(IonicMetrics.Field.UpdateKeysTime, start,
+                    request.getKeys().size(), errorCode);
+        }
+    }
+
+    /**
+     * A per-key error without a client error code is a server-side denial.
+     */
+    private static int keyErrorCode(int clientError) {
+        return clientError != 0 ? clientError : AgentErrorModuleConstants.ISAGENT_KEY_DENIED;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as
+ * the Terms & Conditions (https://dev.ionic.com/use) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.awss3;
+
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * An InputStream that downloads up to a fixed number of bytes of another one in the background,
+ * so the body of a GET keeps arriving while the calling thread waits for the Ionic key. Reads are
+ * served from the read-ahead buffer first, waiting for the background download where it has not
+ * got that far yet, and from the underlying stream once the buffer is drained. The underlying
+ * stream is only ever read by one thread at a time.
+ */
+class ReadAheadInputStream extends InputStream implements Runnable {
+    private final S3ObjectInputStream in;
+    private final byte[] buffer;
+
+    // Guarded by this.
+    private int filled;
+    private int position;
+    private boolean started;
+    private boolean finished;
+    private boolean reading;
+    private boolean endOfStream;
+    private IOException error;
+
+    /**
+     * Constructs a ReadAheadInputStream. The download starts when {@link #run()} is called, e.g.
+     * by an executor.
+     *
+     * @param in the stream to read ahead of.
+     * @param size the maximum number of bytes to read ahead.
+     */
+    ReadAheadInputStream(S3ObjectInputStream in, int size) {
+        this.in = in;
+        this.buffer = new byte[size];
+    }
+
+    @Override
+    public void run() {
+        synchronized (this) {
+            if (finished) {
+                return;
+            }
+            started = true;
+        }
+        try {
+            while (true) {
+                int offset;
+                synchronized (this) {
+                    offset = filled;
+                    if (finished || offset == buffer.length) {
+                        break;
+                    }
+                    reading = true;
+                }
+                int read = in.read(buffer, offset, buffer.length - offset);
+                synchronized (this) {
+                    reading = false;
+                    if (read < 0) {
+                        endOfStream = true;
+                        break;
+                    }
+                    filled += read;
+                    notifyAll();
+                }
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                error = e;
+            }
+        } finally {
+            synchronized (this) {
+                reading = false;
+                finished = true;
+                notifyAll();
+            }
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        int read = read(single, 0, 1);
+        return read < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        synchronized (this) {
+            while (position == filled && !finished) {
+                if (!started) {
+                    // Still queued behind other downloads; reading directly is faster.
+                    finished = true;
+                    break;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for read ahead");
+                }
+            }
+            if (position < filled) {
+                int n = Math.min(len, filled - position);
+                System.arraycopy(buffer, position, b, off, n);
+                position += n;
+                return n;
+            }
+            if (error != null) {
+                throw error;
+            }
+            if (endOfStream) {
+                return -1;
+            }
+        }
+        return in.read(b, off, len);
+    }
+
+    @Override
+    public synchronized int available() throws IOException {
+        if (position < filled) {
+            return filled - position;
+        }
+        return finished && error == null && !endOfStream ? in.available() : 0;
+    }
+
+    /**
+     * Closes the underlying stream, or aborts its connection if the background download is still
+     * reading from it, since draining it would race with that read.
+     */
+    @Override
+    public void close() throws IOException {
+        boolean abort;
+        synchronized (this) {
+            abort = reading;
+            finished = true;
+            notifyAll();
+        }
+        if (abort) {
+            in.abort();
+        } else {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * (c) 2017-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as
+ * the Terms & Conditions (https://dev.ionic.com/use) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.awss3;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An InputStream over an {@link IonicContentSource} that supports mark and reset at any distance
+ * by opening the source again and skipping to the mark, which keeps the SDK from buffering the
+ * content to be able to retry a request. The source is opened on the first read.
+ */
+class ReopenableInputStream extends InputStream {
+    private final IonicContentSource source;
+    private InputStream in;
+    private long position;
+    private long markPosition;
+    private int opens;
+
+    /**
+     * Constructs a ReopenableInputStream.
+     *
+     * @param source the content to read.
+     */
+    ReopenableInputStream(IonicContentSource source) {
+        this.source = source;
+    }
+
+    private InputStream stream() throws IOException {
+        if (in == null) {
+            in = source.openStream();
+            opens++;
+            if (in == null) {
+                throw new IOException("Content source opened no stream");
+            }
+        }
+        return in;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = stream().read();
+        if (b >= 0) {
+            position++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int count = stream().read(b, off, len);
+        if (count > 0) {
+            position += count;
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long count = stream().skip(n);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return in == null ? 0 : in.available();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        markPosition = position;
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        if (position == markPosition) {
+            return;
+        }
+        close();
+        InputStream reopened = stream();
+        long skipped = 0;
+        while (skipped < markPosition) {
+            long count = reopened.skip(markPosition - skipped);
+            if (count <= 0) {
+                if (reopened.read() < 0) {
+                    throw new EOFException("Content source ended before the mark");
+                }
+                count = 1;
+            }
+            skipped += count;
+        }
+        position = markPosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (in != null) {
+            InputStream closing = in;
+            in = null;
+            position = 0;
+            closing.close();
+        }
+    }
+
+    /**
+     * Returns the number of times the source was opened.
+     */
+    int getOpenCount() {
+        return opens;
+    }
+}
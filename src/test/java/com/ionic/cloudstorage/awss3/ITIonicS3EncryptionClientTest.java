@@ -20,6 +20,7 @@ import com.amazonaws.services.s3.model.ObjectMetadata;
 import com.amazonaws.services.s3.model.PartETag;
 import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.UploadObjectRequest;
 import com.amazonaws.services.s3.model.UploadPartRequest;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.ionic.sdk.agent.Agent;
@@ -39,6 +40,7 @@ import java.io.PrintWriter;
 import java.io.Writer;
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeoutException;
 import java.util.HashMap;
 import java.util.Map;
@@ -321,6 +323,72 @@ public class ITIonicS3EncryptionClientTest {
             FileUtils.contentEquals(sourceFile, destFile));
     }
 
+    @Test
+    @Retry
+    public void concurrentMultipartUpload() throws IOException, InterruptedException,
+            ExecutionException {
+        String key = TestUtils.getTestObjectKey();
+        if (key == null) {
+            key = "testConcurrentMultipartUpload";
+        }
+
+        String testDirectory = TestUtils.getTestDirectoryString(key);
+        // Generate a source file spanning several parts.
+        File sourceFile = TestUtils.generateTestFile(testDirectory, key + ".source", 17);
+        File destFile = TestUtils.generateTestFile(testDirectory, key + ".dest", 0);
+        assertNotNull(sourceFile);
+        assertNotNull(destFile);
+
+        KeyAttributesMap attributes = new KeyAttributesMap();
+        attributes.put("Attribute", Arrays.asList("Val1", "Val2", "Val3"));
+        CreateKeysRequest.Key reqKey = new CreateKeysRequest.Key("", 1, attributes);
+
+        log.info("Uploading " + key + " in concurrent parts to bucket " + testBucket + " with Ionic Encryption Client");
+        ionicS3Client.uploadObject(new UploadObjectRequest(testBucket, key, sourceFile)
+                .withPartSize(5 * 1024 * 1024), reqKey);
+
+        log.info("Getting Object " + key + " from bucket " + testBucket + " with Ionic Encryption Client");
+        IonicS3EncryptionClient.IonicKeyS3ObjectPair pair;
+        pair = ionicS3Client.getObjectAndKey(testBucket, key);
+        FileUtils.copyInputStreamToFile(pair.getS3Object().getObjectContent(), destFile);
+
+        assertTrue("Response Key Attributes do not match specified Attributes",
+            pair.getKey().getAttributesMap().equals(attributes));
+        assertTrue("Downloaded File did not match original File",
+            FileUtils.contentEquals(sourceFile, destFile));
+    }
+
+    @Test
+    @Retry
+    public void putStreamOfUnknownLength() throws IOException {
+        String key = TestUtils.getTestObjectKey();
+        if (key == null) {
+            key = "testPutStreamOfUnknownLength";
+        }
+
+        String testDirectory = TestUtils.getTestDirectoryString(key);
+        // Generate a source file spanning several parts.
+        File sourceFile = TestUtils.generateTestFile(testDirectory, key + ".source", 17);
+        File destFile = TestUtils.generateTestFile(testDirectory, key + ".dest", 0);
+        assertNotNull(sourceFile);
+        assertNotNull(destFile);
+
+        log.info("Putting " + key + " from a stream without content length to bucket "
+                + testBucket + " with Ionic Encryption Client");
+        InputStream source = new FileInputStream(sourceFile);
+        try {
+            assertNotNull(ionicS3Client.putObject(testBucket, key, source, new ObjectMetadata(),
+                    new CreateKeysRequest.Key("")).getETag());
+        } finally {
+            source.close();
+        }
+
+        log.info("Getting Object " + key + " from bucket " + testBucket + " with Ionic Encryption Client");
+        ionicS3Client.getObject(new GetObjectRequest(testBucket, key), destFile);
+        assertTrue("Downloaded File did not match original File",
+            FileUtils.contentEquals(sourceFile, destFile));
+    }
+
     public void uploadMultipart(String key, File sourceFile, CreateKeysRequest.Key ionicKey)
         throws FileNotFoundException, IOException {
         float totalChunks;
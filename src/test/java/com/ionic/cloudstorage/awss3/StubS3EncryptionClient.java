@@ -0,0 +1,184 @@
+/*
+ * (c) 2019-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as the
+ * Terms & Conditions (https://dev.ionic.com/use.html) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.awss3;
+
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.AnonymousAWSCredentials;
+import com.amazonaws.client.AwsSyncClientParams;
+import com.amazonaws.client.builder.AwsClientBuilder.EndpointConfiguration;
+import com.amazonaws.services.s3.AmazonS3Encryption;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.CryptoConfiguration;
+import com.amazonaws.services.s3.model.CryptoMode;
+import com.amazonaws.services.s3.model.GetObjectMetadataRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.http.client.methods.HttpGet;
+
+/**
+ * An IonicS3EncryptionClient that serves GETs of objects stored with {@link #putPlaintext} from
+ * memory, as the encryption client returns them once decrypted, so that its download paths can be
+ * tested without S3. Built with a {@link StubS3Server}, it sends every other request, including
+ * all uploads, to that server; otherwise it never connects to its endpoint.
+ */
+class StubS3EncryptionClient extends IonicS3EncryptionClient {
+    private final Map<String, byte[]> contents = new ConcurrentHashMap<String, byte[]>();
+    private final Map<String, ObjectMetadata> metadata =
+            new ConcurrentHashMap<String, ObjectMetadata>();
+    private final List<GetObjectRequest> gets =
+            Collections.synchronizedList(new ArrayList<GetObjectRequest>());
+
+    private volatile GetHook getHook;
+
+    StubS3EncryptionClient(IonicS3EncryptionClientParams params) {
+        super(params);
+    }
+
+    /**
+     * Builds a StubS3EncryptionClient in EncryptionOnly mode.
+     */
+    static StubS3EncryptionClient create(IonicEncryptionMaterialsProvider iemp) {
+        return create(iemp, null);
+    }
+
+    /**
+     * Builds a StubS3EncryptionClient in EncryptionOnly mode that sends requests for objects not
+     * stored in memory to server, or to no server if it is null.
+     */
+    static StubS3EncryptionClient create(final IonicEncryptionMaterialsProvider iemp,
+            StubS3Server server) {
+        IonicS3EncryptionClientBuilder builder = new IonicS3EncryptionClientBuilder() {
+            @Override
+            protected AmazonS3Encryption build(AwsSyncClientParams clientParams) {
+                IonicS3EncryptionClientParams params =
+                        new IonicS3EncryptionClientParams(clientParams);
+                params.materialsProvider = iemp;
+                params.cryptoConfig = new CryptoConfiguration(CryptoMode.EncryptionOnly);
+                return new StubS3EncryptionClient(params);
+            }
+        };
+        return (StubS3EncryptionClient) builder
+                .withCredentials(new AWSStaticCredentialsProvider(new AnonymousAWSCredentials()))
+                .withEndpointConfiguration(new EndpointConfiguration(
+                        server == null ? "http://localhost:1" : server.getEndpoint(),
+                        "us-east-1"))
+                .withPathStyleAccessEnabled(true)
+                .build();
+    }
+
+    /**
+     * Stores the plaintext of an object under the given ETag, with the unencrypted content length
+     * the encryption client writes unless userMetadata holds one.
+     */
+    void putPlaintext(String key, byte[] content, String etag, Map<String, String> userMetadata) {
+        ObjectMetadata meta = new ObjectMetadata();
+        if (userMetadata != null) {
+            meta.setUserMetadata(new HashMap<String, String>(userMetadata));
+        }
+        if (meta.getUserMetaDataOf(Headers.UNENCRYPTED_CONTENT_LENGTH) == null) {
+            meta.addUserMetadata(Headers.UNENCRYPTED_CONTENT_LENGTH,
+                    String.valueOf(content.length));
+        }
+        meta.setHeader(Headers.ETAG, etag);
+        contents.put(key, content);
+        metadata.put(key, meta);
+    }
+
+    /**
+     * Returns the GETs served so far.
+     */
+    List<GetObjectRequest> getGets() {
+        synchronized (gets) {
+            return new ArrayList<GetObjectRequest>(gets);
+        }
+    }
+
+    /**
+     * Sets a hook run before every GET is served.
+     */
+    void setGetHook(GetHook getHook) {
+        this.getHook = getHook;
+    }
+
+    @Override
+    public S3Object getObject(GetObjectRequest req) {
+        if (!contents.containsKey(req.getKey())) {
+            return super.getObject(req);
+        }
+        return serve(req);
+    }
+
+    @Override
+    S3Object getObjectRange(GetObjectRequest range) {
+        if (!contents.containsKey(range.getKey())) {
+            return super.getObjectRange(range);
+        }
+        return serve(range);
+    }
+
+    @Override
+    public ObjectMetadata getObjectMetadata(GetObjectMetadataRequest req) {
+        byte[] content = contents.get(req.getKey());
+        if (content == null) {
+            return super.getObjectMetadata(req);
+        }
+        ObjectMetadata meta = metadata.get(req.getKey()).clone();
+        meta.setContentLength(content.length);
+        return meta;
+    }
+
+    S3Object serve(GetObjectRequest req) {
+        gets.add(req);
+        GetHook hook = this.getHook;
+        if (hook != null) {
+            hook.beforeGet(req);
+        }
+        byte[] content = contents.get(req.getKey());
+        ObjectMetadata stored = metadata.get(req.getKey());
+        if (content == null) {
+            throw new IllegalArgumentException("No such key: " + req.getKey());
+        }
+        List<String> etags = req.getMatchingETagConstraints();
+        if (!etags.isEmpty() && !etags.contains(stored.getETag())) {
+            return null;
+        }
+        int start = 0;
+        int end = content.length;
+        long[] range = req.getRange();
+        if (range != null) {
+            start = (int) range[0];
+            end = (int) Math.min(range[1] + 1, content.length);
+        }
+        ObjectMetadata meta = stored.clone();
+        meta.setContentLength(end - start);
+        S3Object object = new S3Object();
+        object.setKey(req.getKey());
+        object.setBucketName(req.getBucketName());
+        object.setObjectMetadata(meta);
+        object.setObjectContent(new S3ObjectInputStream(
+                new ByteArrayInputStream(Arrays.copyOfRange(content, start, end)),
+                new HttpGet("http://localhost:1/" + req.getKey())));
+        return object;
+    }
+
+    /**
+     * Runs before a GET is served, e.g. to fail it or to overwrite the object.
+     */
+    interface GetHook {
+        void beforeGet(GetObjectRequest req);
+    }
+}
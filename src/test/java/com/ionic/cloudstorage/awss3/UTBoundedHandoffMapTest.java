@@ -0,0 +1,86 @@
+/*
+ * (c) 2019-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as the
+ * Terms & Conditions (https://dev.ionic.com/use.html) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.awss3;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+
+public class UTBoundedHandoffMapTest {
+
+    @Test
+    public void storeAndTake() {
+        BoundedHandoffMap<String> map = new BoundedHandoffMap<String>();
+        String id = map.store("value");
+        assertNotEquals(id, map.store("other"));
+        assertEquals(2, map.size());
+        assertEquals("value", map.take(id));
+        assertNull("Value was handed out twice", map.take(id));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void evictsOldestOverCapacity() {
+        BoundedHandoffMap<String> map = new BoundedHandoffMap<String>(2, TimeUnit.MINUTES.toNanos(1));
+        String first = map.store("first");
+        String second = map.store("second");
+        String third = map.store("third");
+        assertEquals(2, map.size());
+        assertNull(map.take(first));
+        assertEquals("second", map.take(second));
+        assertEquals("third", map.take(third));
+        assertEquals(1, map.getEvictionCount());
+    }
+
+    @Test
+    public void takenValuesDoNotCountAgainstCapacity() {
+        BoundedHandoffMap<String> map = new BoundedHandoffMap<String>(2, TimeUnit.MINUTES.toNanos(1));
+        String pending = map.store("pending");
+        for (int i = 0; i < 10; i++) {
+            String id = map.store("value" + i);
+            assertEquals("value" + i, map.take(id));
+        }
+        assertEquals("Stored value was evicted below capacity", "pending", map.take(pending));
+        assertEquals(0, map.getEvictionCount());
+    }
+
+    @Test
+    public void dropsTakenValuesBehindPendingOne() {
+        BoundedHandoffMap<String> map = new BoundedHandoffMap<String>(4, TimeUnit.MINUTES.toNanos(1));
+        String pending = map.store("pending");
+        for (int i = 0; i < 100; i++) {
+            map.take(map.store("value" + i));
+        }
+        assertTrue("Taken values were kept in the eviction order", map.getQueuedCount() <= 9);
+        assertEquals(1, map.size());
+        assertEquals("pending", map.take(pending));
+    }
+
+    @Test
+    public void dropsExpiredOrphans() throws InterruptedException {
+        BoundedHandoffMap<String> map =
+                new BoundedHandoffMap<String>(100, TimeUnit.MILLISECONDS.toNanos(20));
+        String orphan = map.store("orphan");
+        Thread.sleep(40);
+        map.store("fresh");
+        assertEquals("Expired orphan was not evicted", 1, map.size());
+        assertNull(map.take(orphan));
+    }
+
+    @Test
+    public void providerGauges() {
+        IonicEncryptionMaterialsProvider iemp = new IonicEncryptionMaterialsProvider();
+        iemp.setRequestContextLimits(1, 1, TimeUnit.MINUTES);
+        iemp.storeRequestKey(new com.ionic.sdk.agent.request.createkey.CreateKeysRequest.Key(""));
+        iemp.storeRequestKey(new com.ionic.sdk.agent.request.createkey.CreateKeysRequest.Key(""));
+        assertEquals(1, iemp.getPendingRequestKeyCount());
+        assertEquals(0, iemp.getPendingResponseKeyCount());
+        assertEquals(1, iemp.getEvictedRequestContextCount());
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * (c) 2019-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as the
+ * Terms & Conditions (https://dev.ionic.com/use.html) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.awss3;
+
+import static org.junit.Assert.*;
+
+import com.amazonaws.util.IOUtils;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+
+public class UTByteBufferInputStreamTest {
+
+    private static byte[] content(int size) {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+
+    @Test
+    public void readsRemainingBytesOfHeapAndDirectBuffers() throws Exception {
+        byte[] content = content(100000);
+        ByteBuffer heap = ByteBuffer.wrap(content);
+        heap.position(10);
+        heap.limit(99990);
+        assertArrayEquals(Arrays.copyOfRange(content, 10, 99990),
+                IOUtils.toByteArray(new ByteBufferInputStream(heap)));
+        assertEquals(10, heap.position());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(content.length);
+        direct.put(content).flip();
+        ByteBufferInputStream in = new ByteBufferInputStream(direct);
+        assertEquals(content.length, in.available());
+        assertEquals(content[0] & 0xff, in.read());
+        assertArrayEquals(Arrays.copyOfRange(content, 1, content.length), IOUtils.toByteArray(in));
+        assertEquals(-1, in.read());
+        assertEquals(-1, in.read(new byte[8], 0, 8));
+        assertEquals(0, direct.position());
+    }
+
+    @Test
+    public void resetsToMarkAtAnyDistance() throws Exception {
+        byte[] content = content(10000);
+        ByteBufferInputStream in = new ByteBufferInputStream(ByteBuffer.wrap(content));
+        assertTrue(in.markSupported());
+        assertEquals(100, in.skip(100));
+        in.mark(1);
+        IOUtils.toByteArray(in);
+        in.reset();
+        assertEquals(content.length - 100, in.available());
+        assertArrayEquals(Arrays.copyOfRange(content, 100, content.length),
+                IOUtils.toByteArray(in));
+        assertEquals(0, in.skip(10));
+    }
+
+    @Test
+    public void resetsToStartWithoutMark() throws Exception {
+        byte[] content = content(1000);
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        buffer.position(500);
+        ByteBufferInputStream in = new ByteBufferInputStream(buffer);
+        IOUtils.toByteArray(in);
+        in.reset();
+        assertArrayEquals(Arrays.copyOfRange(content, 500, 1000), IOUtils.toByteArray(in));
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * (c) 2019-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as the
+ * Terms & Conditions (https://dev.ionic.com/use.html) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.awss3;
+
+import static org.junit.Assert.*;
+
+import com.ionic.sdk.agent.key.KeyAttributesMap;
+import com.ionic.sdk.agent.request.createkey.CreateKeysRequest;
+import com.ionic.sdk.agent.request.createkey.CreateKeysResponse;
+import com.ionic.sdk.agent.request.getkey.GetKeysRequest;
+import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
+import com.ionic.sdk.agent.request.updatekey.UpdateKeysRequest;
+import com.ionic.sdk.agent.request.updatekey.UpdateKeysResponse;
+import com.ionic.sdk.error.AgentErrorModuleConstants;
+import com.ionic.sdk.error.IonicException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+
+public class UTInMemoryKeyServiceTest {
+
+    private static KeyAttributesMap attributes(String name, String value) {
+        KeyAttributesMap kam = new KeyAttributesMap();
+        kam.put(name, Arrays.asList(value));
+        return kam;
+    }
+
+    private static CreateKeysResponse.Key createKey(InMemoryKeyService service,
+            KeyAttributesMap kam) throws IonicException {
+        return service.createKeys(new CreateKeysRequest(new CreateKeysRequest.Key("", 1, kam)))
+                .getFirstKey();
+    }
+
+    @Test
+    public void createGetAndUpdate() throws IonicException {
+        InMemoryKeyService service = new InMemoryKeyService();
+        CreateKeysResponse.Key created = createKey(service, attributes("classification", "low"));
+        assertEquals(11, created.getId().length());
+        assertTrue(created.getId().startsWith(InMemoryKeyService.DEFAULT_KEYSPACE));
+
+        GetKeysResponse.Key fetched =
+                service.getKeys(new GetKeysRequest(created.getId())).getKey(created.getId());
+        assertArrayEquals(created.getKey(), fetched.getKey());
+        assertEquals(attributes("classification", "low"), fetched.getAttributesMap());
+
+        UpdateKeysRequest.Key update = new UpdateKeysRequest.Key(fetched);
+        update.setMutableAttributes(attributes("state", "archived"));
+        UpdateKeysRequest request = new UpdateKeysRequest();
+        request.add(update);
+        UpdateKeysResponse response = service.updateKeys(request);
+        assertEquals(attributes("state", "archived"),
+                response.getKey(created.getId()).getMutableAttributesMap());
+        assertEquals(1, service.getKeyCount());
+    }
+
+    @Test
+    public void reportsUnknownAndDeniedKeys() throws IonicException {
+        InMemoryKeyService service = new InMemoryKeyService();
+        CreateKeysResponse.Key secret = createKey(service, attributes("classification", "secret"));
+        service.denyAttribute("classification", "secret");
+
+        GetKeysResponse response = service.getKeys(new GetKeysRequest(secret.getId(), "MEMKzzzzzzz"));
+        assertNull(response.getKey(secret.getId()));
+        assertEquals(AgentErrorModuleConstants.ISAGENT_KEY_DENIED,
+                response.getError(secret.getId()).getClientError());
+        assertEquals(AgentErrorModuleConstants.ISAGENT_RESOURCE_NOT_FOUND,
+                response.getError("MEMKzzzzzzz").getClientError());
+        try {
+            createKey(service, attributes("classification", "secret"));
+            fail("Expected creating a denied key to fail");
+        } catch (IonicException e) {
+            assertEquals(AgentErrorModuleConstants.ISAGENT_KEY_DENIED, e.getReturnCode());
+        }
+        assertEquals(2, service.getDeniedKeyCount());
+
+        service.clearDenialRules();
+        assertNotNull(service.getKeys(new GetKeysRequest(secret.getId())).getKey(secret.getId()));
+    }
+
+    @Test
+    public void injectsErrorsAndLatency() throws IonicException {
+        InMemoryKeyService service = new InMemoryKeyService();
+        service.setErrorRate(1, AgentErrorModuleConstants.ISAGENT_TIMEOUT);
+        try {
+            createKey(service, new KeyAttributesMap());
+            fail("Expected the injected failure");
+        } catch (IonicException e) {
+            assertEquals(AgentErrorModuleConstants.ISAGENT_TIMEOUT, e.getReturnCode());
+        }
+        assertEquals(1, service.getFailedRequestCount());
+
+        service.setErrorRate(0, AgentErrorModuleConstants.ISAGENT_TIMEOUT);
+        service.setCreateLatency(InMemoryKeyService.Latency.fixed(20, TimeUnit.MILLISECONDS));
+        long start = System.nanoTime();
+        createKey(service, new KeyAttributesMap());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    @Test
+    public void latencyDistributions() {
+        InMemoryKeyService.Latency logNormal =
+                InMemoryKeyService.Latency.logNormal(2, 40, TimeUnit.MILLISECONDS);
+        IonicHistogram histogram = new IonicHistogram("ns");
+        for (int i = 0; i < 10000; i++) {
+            histogram.record(logNormal.nextNanos());
+        }
+        // Power-of-two buckets put the true median of 2 ms below 2^21 ns.
+        assertTrue(histogram.getPercentile(50) < (1L << 22));
+        assertTrue(histogram.getPercentile(99) > TimeUnit.MILLISECONDS.toNanos(10));
+
+        InMemoryKeyService.Latency uniform =
+                InMemoryKeyService.Latency.uniform(1, 2, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 100; i++) {
+            long nanos = uniform.nextNanos();
+            assertTrue(nanos >= 1000000 && nanos <= 2000000);
+        }
+    }
+
+    @Test
+    public void forgetsOldestKeysBeyondCapacity() throws IonicException {
+        InMemoryKeyService service = new InMemoryKeyService("TEST", 2);
+        CreateKeysResponse.Key first = createKey(service, new KeyAttributesMap());
+        createKey(service, new KeyAttributesMap());
+        createKey(service, new KeyAttributesMap());
+        assertEquals(2, service.getKeyCount());
+        assertNull(service.getKeys(new GetKeysRequest(first.getId())).getKey(first.getId()));
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * (c) 2019-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as the
+ * Terms & Conditions (https://dev.ionic.com/use.html) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.awss3;
+
+import static org.junit.Assert.*;
+
+import com.ionic.sdk.agent.Agent;
+import org.junit.Test;
+
+
+public class UTIonicAgentPoolTest {
+
+    @Test
+    public void releasedAgentIsReused() {
+        IonicAgentPool pool = new IonicAgentPool(new Agent(), 2);
+        Agent first = pool.borrow();
+        pool.release(first);
+        Agent second = pool.borrow();
+        assertSame("Released Agent was not reused", first, second);
+        assertEquals(2, pool.getBorrowCount());
+        assertEquals(1, pool.getCloneCount());
+        pool.release(second);
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    public void resetDropsPooledAgents() {
+        IonicAgentPool pool = new IonicAgentPool(new Agent(), 2);
+        Agent stale = pool.borrow();
+        pool.reset(new Agent());
+        pool.release(stale);
+        assertEquals("Agent cloned before reset was pooled", 0, pool.getIdleCount());
+        assertNotSame(stale, pool.borrow());
+    }
+
+    @Test
+    public void waitsWhenExhausted() throws InterruptedException {
+        final IonicAgentPool pool = new IonicAgentPool(new Agent(), 1);
+        final Agent held = pool.borrow();
+        Thread releaser = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                pool.release(held);
+            }
+        });
+        releaser.start();
+        assertSame(held, pool.borrow());
+        releaser.join();
+        assertEquals(1, pool.getWaitCount());
+        assertEquals(1, pool.getPooledCount());
+    }
+
+    @Test
+    public void providerExposesAgentPool() {
+        IonicEncryptionMaterialsProvider iemp = new IonicEncryptionMaterialsProvider();
+        assertNotNull(iemp.getAgentPool());
+        assertEquals(IonicAgentPool.DEFAULT_MAX_AGENTS, iemp.getAgentPool().getMaxAgents());
+    }
+}
@@ -9,13 +9,36 @@ package com.ionic.cloudstorage.awss3;
 import static org.junit.Assert.*;
 
 import com.ionic.sdk.error.IonicException;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.metrics.RequestMetricCollector;
 import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.EncryptionMaterials;
 import com.ionic.sdk.agent.data.MetadataMap;
 import com.ionic.sdk.agent.key.KeyAttributesMap;
+import com.ionic.sdk.agent.key.KeyObligationsMap;
+import com.ionic.sdk.agent.request.createkey.CreateKeysRequest;
+import com.ionic.sdk.agent.request.getkey.GetKeysRequest;
+import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
 import com.ionic.sdk.device.profile.DeviceProfile;
 import com.ionic.sdk.device.profile.persistor.DeviceProfilePersistorPlainText;
 import com.ionic.sdk.error.IonicException;
+import com.ionic.sdk.error.AgentErrorModuleConstants;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.junit.Rule;
 import org.junit.rules.ExpectedException;
 import org.junit.Test;
@@ -74,10 +97,458 @@ public class UTIonicEncryptionMaterialsProviderTest {
         assertEquals("getIonicMetadataMap() did not equal map set with setIonicMetadataMap()", iemp.getIonicMetadataMap(), metaMap);
     }
 
+    @Test
+    public void setGetKeyPool() {
+        IonicEncryptionMaterialsProvider iemp = new IonicEncryptionMaterialsProvider();
+        assertNull("KeyPool was not null by default.", iemp.getKeyPool());
+
+        IonicKeyPool pool = new IonicKeyPool(16, 4);
+        iemp.setKeyPool(pool);
+        assertSame("getKeyPool() did not return the pool set with setKeyPool()", pool, iemp.getKeyPool());
+        assertEquals(16, pool.getBatchSize());
+        assertEquals(4, pool.getLowWaterMark());
+        pool.shutdown();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void keyPoolRejectsEmptyBatch() {
+        new IonicKeyPool(0, 0);
+    }
+
+    @Test
+    public void retrievalJoinsFetchInFlight() throws Exception {
+        IonicEncryptionMaterialsProvider iemp = new IonicEncryptionMaterialsProvider();
+        String keyId = "D7GH0000001";
+        CompletableFuture<GetKeysResponse.Key> flight =
+                new CompletableFuture<GetKeysResponse.Key>();
+        iemp.inFlightKeys.put(keyId, flight);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<EncryptionMaterials> retrieval = executor.submit(retrieval(iemp, keyId));
+        awaitJoinedFetches(iemp, 1);
+        assertFalse("Retrieval did not wait for the fetch in flight", retrieval.isDone());
+
+        byte[] secret = new byte[32];
+        Arrays.fill(secret, (byte) 7);
+        flight.complete(new GetKeysResponse.Key(keyId, secret, "device",
+                new KeyAttributesMap(), new KeyAttributesMap(), new KeyObligationsMap(), "test",
+                null, null));
+        assertArrayEquals(secret,
+                retrieval.get(10, TimeUnit.SECONDS).getSymmetricKey().getEncoded());
+        executor.shutdown();
+    }
+
+    @Test
+    public void joinedRetrievalSharesFailure() throws Exception {
+        IonicEncryptionMaterialsProvider iemp = new IonicEncryptionMaterialsProvider();
+        String keyId = "D7GH0000001";
+        CompletableFuture<GetKeysResponse.Key> flight =
+                new CompletableFuture<GetKeysResponse.Key>();
+        iemp.inFlightKeys.put(keyId, flight);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<EncryptionMaterials> retrieval = executor.submit(retrieval(iemp, keyId));
+        awaitJoinedFetches(iemp, 1);
+
+        flight.completeExceptionally(new IonicException(AgentErrorModuleConstants.ISAGENT_TIMEOUT));
+        try {
+            retrieval.get(10, TimeUnit.SECONDS);
+            fail("Failure of the joined fetch was not thrown");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AmazonS3Exception);
+            assertEquals(String.valueOf(AgentErrorModuleConstants.ISAGENT_TIMEOUT),
+                    ((AmazonS3Exception) e.getCause()).getErrorCode());
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    public void failedFetchIsNotLeftInFlight() {
+        // An Agent without a profile fails every request.
+        IonicEncryptionMaterialsProvider iemp = new IonicEncryptionMaterialsProvider();
+        Map<String, String> desc = new HashMap<String, String>();
+        desc.put(IonicEncryptionMaterialsProvider.KEYIDKEY, "D7GH0000001");
+        for (int i = 0; i < 2; i++) {
+            try {
+                iemp.getEncryptionMaterials(desc);
+                fail("Key fetch without a profile succeeded");
+            } catch (AmazonS3Exception e) {
+                assertTrue("Failed fetch was left in flight", iemp.inFlightKeys.isEmpty());
+            }
+        }
+        assertEquals(0, iemp.getJoinedKeyFetchCount());
+    }
+
+    private static Callable<EncryptionMaterials> retrieval(
+            final IonicEncryptionMaterialsProvider iemp, String ionicKeyId) {
+        final Map<String, String> desc = new HashMap<String, String>();
+        desc.put(IonicEncryptionMaterialsProvider.KEYIDKEY, ionicKeyId);
+        return new Callable<EncryptionMaterials>() {
+            @Override
+            public EncryptionMaterials call() {
+                return iemp.getEncryptionMaterials(desc);
+            }
+        };
+    }
+
+    private static void awaitJoinedFetches(IonicEncryptionMaterialsProvider iemp, long joined)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (iemp.getJoinedKeyFetchCount() < joined && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(joined, iemp.getJoinedKeyFetchCount());
+    }
+
     @Test
     public void refresh() {
         IonicEncryptionMaterialsProvider iemp = new IonicEncryptionMaterialsProvider();
         iemp.refresh();
     }
 
+
+    @Test
+    public void deniedKeyFailsFast() {
+        IonicEncryptionMaterialsProvider iemp = new IonicEncryptionMaterialsProvider();
+        assertEquals("Denied key cache was not disabled by default.", 0, iemp.getDeniedKeyTtlMillis());
+        iemp.setDeniedKeyTtl(1, TimeUnit.MINUTES);
+        iemp.rememberDenial("D7GH0000001", new IonicException(AgentErrorModuleConstants.ISAGENT_KEY_DENIED));
+        iemp.rememberDenial("D7GH0000002", new IonicException(AgentErrorModuleConstants.ISAGENT_NOINIT));
+        assertEquals("Only policy denials should be remembered", 1, iemp.getDeniedKeyCount());
+
+        Map<String, String> desc = new HashMap<String, String>();
+        desc.put(IonicEncryptionMaterialsProvider.KEYIDKEY, "D7GH0000001");
+        try {
+            iemp.getEncryptionMaterials(desc);
+            fail("Expected the denied key to fail");
+        } catch (AmazonS3Exception e) {
+            assertEquals(String.valueOf(AgentErrorModuleConstants.ISAGENT_KEY_DENIED), e.getErrorCode());
+        }
+        assertEquals(1, iemp.getDeniedKeyHitCount());
+
+        iemp.invalidateCachedKey("D7GH0000001");
+        assertEquals(0, iemp.getDeniedKeyCount());
+    }
+
+    @Test
+    public void asyncMaterialsFailWithAmazonS3Exception() throws Exception {
+        IonicEncryptionMaterialsProvider iemp = new IonicEncryptionMaterialsProvider();
+        Map<String, String> desc = new HashMap<String, String>();
+        desc.put(IonicEncryptionMaterialsProvider.KEYIDKEY, "D7GH0000001");
+        // Neither Agent call can succeed without a profile.
+        assertAsyncFailure(iemp.getEncryptionMaterialsAsync(desc),
+                AgentErrorModuleConstants.ISAGENT_NOINIT);
+        assertAsyncFailure(iemp.getEncryptionMaterialsAsync(),
+                AgentErrorModuleConstants.ISAGENT_NOINIT);
+
+        iemp.setDeniedKeyTtl(1, TimeUnit.MINUTES);
+        iemp.rememberDenial("D7GH0000001", new IonicException(AgentErrorModuleConstants.ISAGENT_KEY_DENIED));
+        CompletableFuture<EncryptionMaterials> denied = iemp.getEncryptionMaterialsAsync(desc);
+        assertTrue("Denied key did not fail on the calling thread", denied.isDone());
+        assertAsyncFailure(denied, AgentErrorModuleConstants.ISAGENT_KEY_DENIED);
+    }
+
+    private static void assertAsyncFailure(CompletableFuture<EncryptionMaterials> future, int code)
+            throws Exception {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            fail("Expected the materials request to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AmazonS3Exception);
+            assertEquals(String.valueOf(code), ((AmazonS3Exception) e.getCause()).getErrorCode());
+        }
+    }
+
+    @Test
+    public void generateAndRetrieveWithKeyService() {
+        IonicEncryptionMaterialsProvider iemp = new IonicEncryptionMaterialsProvider();
+        assertTrue(iemp.getKeyService() instanceof AgentKeyService);
+        InMemoryKeyService keyService = new InMemoryKeyService();
+        iemp.setKeyService(keyService);
+
+        EncryptionMaterials created = iemp.getEncryptionMaterials();
+        String keyId = created.getMaterialsDescription().get(IonicEncryptionMaterialsProvider.KEYIDKEY);
+        assertNotNull(keyId);
+        Map<String, String> desc = new HashMap<String, String>();
+        desc.put(IonicEncryptionMaterialsProvider.KEYIDKEY, keyId);
+        EncryptionMaterials retrieved = iemp.getEncryptionMaterials(desc);
+        assertArrayEquals(created.getSymmetricKey().getEncoded(),
+                retrieved.getSymmetricKey().getEncoded());
+
+        keyService.denyKeyId(keyId);
+        iemp.setDeniedKeyTtl(1, TimeUnit.MINUTES);
+        for (int i = 0; i < 2; i++) {
+            try {
+                iemp.getEncryptionMaterials(desc);
+                fail("Expected the denied key to fail");
+            } catch (AmazonS3Exception e) {
+                assertEquals(String.valueOf(AgentErrorModuleConstants.ISAGENT_KEY_DENIED), e.getErrorCode());
+            }
+        }
+        assertEquals("Denied key was fetched again", 2, keyService.getGetRequestCount());
+        assertEquals(1, iemp.getDeniedKeyHitCount());
+
+        iemp.setKeyService(null);
+        assertTrue(iemp.getKeyService() instanceof AgentKeyService);
+    }
+
+    @Test
+    public void metricsRecordKeyServiceRequests() {
+        IonicEncryptionMaterialsProvider iemp = new IonicEncryptionMaterialsProvider();
+        InMemoryKeyService keyService = new InMemoryKeyService();
+        iemp.setKeyService(keyService);
+        final List<Request<?>> reported = new ArrayList<Request<?>>();
+        IonicMetrics metrics = iemp.getMetrics();
+        metrics.setRequestMetricCollector(new RequestMetricCollector() {
+            @Override
+            public void collectMetrics(Request<?> request, Response<?> response) {
+                reported.add(request);
+            }
+        });
+
+        String keyId = iemp.getEncryptionMaterials().getMaterialsDescription()
+                .get(IonicEncryptionMaterialsProvider.KEYIDKEY);
+        Map<String, String> desc = new HashMap<String, String>();
+        desc.put(IonicEncryptionMaterialsProvider.KEYIDKEY, keyId);
+        iemp.getEncryptionMaterials(desc);
+        keyService.denyKeyId(keyId);
+        try {
+            iemp.getEncryptionMaterials(desc);
+            fail("Expected the denied key to fail");
+        } catch (AmazonS3Exception e) {
+            // expected
+        }
+
+        assertEquals(1, metrics.getCreateKeysCount());
+        assertEquals(2, metrics.getGetKeysCount());
+        assertEquals(1, metrics.getErrorCount(AgentErrorModuleConstants.ISAGENT_KEY_DENIED));
+        assertEquals(1, metrics.getTotalErrorCount());
+        assertEquals(3, reported.size());
+        assertEquals(IonicMetrics.SERVICE_NAME, reported.get(0).getServiceName());
+        assertNotNull(reported.get(0).getAWSRequestMetrics().getTimingInfo()
+                .getSubMeasurement(IonicMetrics.Field.CreateKeysTime.name()));
+        assertNotNull(reported.get(2).getAWSRequestMetrics().getTimingInfo()
+                .getSubMeasurement(IonicMetrics.Field.GetKeysTime.name()));
+
+        metrics.reset();
+        assertEquals(0, metrics.getGetKeysCount());
+        assertEquals(0, metrics.getTotalErrorCount());
+    }
+
+    @Test
+    public void retrievalJoinsPrefetchedKey() {
+        IonicEncryptionMaterialsProvider iemp = new IonicEncryptionMaterialsProvider();
+        InMemoryKeyService keyService = new InMemoryKeyService();
+        iemp.setKeyService(keyService);
+        String keyId = iemp.getEncryptionMaterials().getMaterialsDescription()
+                .get(IonicEncryptionMaterialsProvider.KEYIDKEY);
+
+        iemp.prefetchKey(keyId);
+        Map<String, String> desc = new HashMap<String, String>();
+        desc.put(IonicEncryptionMaterialsProvider.KEYIDKEY, keyId);
+        assertNotNull(iemp.getEncryptionMaterials(desc));
+        assertEquals(1, iemp.getPrefetchHitCount());
+        assertEquals("Prefetched key was fetched again", 1, keyService.getGetRequestCount());
+
+        iemp.prefetchKey(keyId);
+        iemp.discardPrefetchedKey(keyId);
+        iemp.getEncryptionMaterials(desc);
+        assertEquals(1, iemp.getPrefetchHitCount());
+    }
+
+    @Test
+    public void heldKeyIsSharedUntilReleased() throws IonicException {
+        IonicEncryptionMaterialsProvider iemp = new IonicEncryptionMaterialsProvider();
+        InMemoryKeyService keyService = new InMemoryKeyService();
+        iemp.setKeyService(keyService);
+        String keyId = iemp.getEncryptionMaterials().getMaterialsDescription()
+                .get(IonicEncryptionMaterialsProvider.KEYIDKEY);
+        Map<String, String> desc = new HashMap<String, String>();
+        desc.put(IonicEncryptionMaterialsProvider.KEYIDKEY, keyId);
+
+        iemp.holdKey(keyId);
+        iemp.holdKey(keyId);
+        for (int i = 0; i < 4; i++) {
+            assertNotNull(iemp.getEncryptionMaterials(desc));
+        }
+        assertNotNull(iemp.getEncryptionMaterialsAsync(desc).join());
+        assertEquals("Held key was fetched again", 1, keyService.getGetRequestCount());
+
+        iemp.releaseKey(keyId);
+        iemp.getEncryptionMaterials(desc);
+        assertEquals("Key released before its last hold", 1, keyService.getGetRequestCount());
+        iemp.releaseKey(keyId);
+        iemp.getEncryptionMaterials(desc);
+        assertEquals(2, keyService.getGetRequestCount());
+    }
+
+    @Test
+    public void createdKeysAreBatchedByAttributes() throws IonicException {
+        IonicEncryptionMaterialsProvider iemp = new IonicEncryptionMaterialsProvider();
+        InMemoryKeyService keyService = new InMemoryKeyService();
+        iemp.setKeyService(keyService);
+        int count = IonicEncryptionMaterialsProvider.MAX_CREATE_KEYS_QUANTITY * 2 + 10;
+        List<Map<String, String>> descs = new ArrayList<Map<String, String>>();
+        List<CreateKeysRequest.Key> keys = new ArrayList<CreateKeysRequest.Key>();
+        for (int i = 0; i < count; i++) {
+            KeyAttributesMap attributes = new KeyAttributesMap();
+            attributes.put("classification", Arrays.asList(i % 2 == 0 ? "even" : "odd"));
+            descs.add(new HashMap<String, String>());
+            keys.add(new CreateKeysRequest.Key("", 1, attributes));
+        }
+
+        List<String> ids = iemp.storeCreatedKeys(descs, keys);
+        assertEquals(count, ids.size());
+        assertEquals(3, keyService.getCreateRequestCount());
+        assertEquals(count, iemp.getPendingRequestKeyCount());
+
+        Set<String> keyIds = new HashSet<String>();
+        for (int i = 0; i < count; i++) {
+            Map<String, String> desc = new HashMap<String, String>();
+            desc.put(IonicEncryptionMaterialsProvider.IONICKEYREQUUID, ids.get(i));
+            String keyId = iemp.getEncryptionMaterials(desc).getMaterialsDescription()
+                    .get(IonicEncryptionMaterialsProvider.KEYIDKEY);
+            assertTrue("Created key used twice", keyIds.add(keyId));
+            if (i % 500 == 0 || i % 500 == 1) {
+                KeyAttributesMap attributes = keyService.getKeys(new GetKeysRequest(keyId))
+                        .getFirstKey().getAttributesMap();
+                assertEquals(keys.get(i).getAttributesMap().get("classification"),
+                        attributes.get("classification"));
+            }
+        }
+        assertEquals(3, keyService.getCreateRequestCount());
+        assertEquals(0, iemp.getPendingRequestKeyCount());
+    }
+
+    @Test
+    public void heldKeysAreFetchedInOneRequest() throws IonicException {
+        IonicEncryptionMaterialsProvider iemp = new IonicEncryptionMaterialsProvider();
+        InMemoryKeyService keyService = new InMemoryKeyService();
+        iemp.setKeyService(keyService);
+        iemp.setDeniedKeyTtl(1, TimeUnit.MINUTES);
+        List<String> keyIds = new ArrayList<String>();
+        for (int i = 0; i < 5; i++) {
+            keyIds.add(iemp.getEncryptionMaterials().getMaterialsDescription()
+                    .get(IonicEncryptionMaterialsProvider.KEYIDKEY));
+        }
+        keyService.denyKeyId(keyIds.get(4));
+        List<String> requested = new ArrayList<String>(keyIds);
+        requested.addAll(keyIds.subList(0, 2));
+
+        List<String> held = iemp.holdKeys(requested);
+        assertEquals(keyIds.subList(0, 4), held);
+        assertEquals(1, keyService.getGetRequestCount());
+        for (String keyId : held) {
+            Map<String, String> desc = new HashMap<String, String>();
+            desc.put(IonicEncryptionMaterialsProvider.KEYIDKEY, keyId);
+            assertNotNull(iemp.getEncryptionMaterials(desc));
+            assertNotNull(iemp.heldKey(keyId));
+        }
+        assertEquals(1, keyService.getGetRequestCount());
+        Map<String, String> denied = new HashMap<String, String>();
+        denied.put(IonicEncryptionMaterialsProvider.KEYIDKEY, keyIds.get(4));
+        try {
+            iemp.getEncryptionMaterials(denied);
+            fail("Denied key was held");
+        } catch (AmazonS3Exception e) {
+            assertEquals(String.valueOf(AgentErrorModuleConstants.ISAGENT_KEY_DENIED), e.getErrorCode());
+        }
+        assertEquals(1, keyService.getGetRequestCount());
+
+        iemp.releaseKeys(held);
+        assertNull(iemp.heldKey(keyIds.get(0)));
+    }
+
+    @Test
+    public void failedHoldKeysReleasesHolds() throws IonicException {
+        IonicEncryptionMaterialsProvider iemp = new IonicEncryptionMaterialsProvider();
+        InMemoryKeyService keyService = new InMemoryKeyService();
+        iemp.setKeyService(keyService);
+        String heldId = iemp.getEncryptionMaterials().getMaterialsDescription()
+                .get(IonicEncryptionMaterialsProvider.KEYIDKEY);
+        String otherId = iemp.getEncryptionMaterials().getMaterialsDescription()
+                .get(IonicEncryptionMaterialsProvider.KEYIDKEY);
+        iemp.holdKey(heldId);
+
+        keyService.setErrorRate(1, AgentErrorModuleConstants.ISAGENT_TIMEOUT);
+        try {
+            iemp.holdKeys(Arrays.asList(heldId, otherId));
+            fail("getKeys failure was not thrown");
+        } catch (IonicException e) {
+            // expected
+        }
+        keyService.setErrorRate(0, AgentErrorModuleConstants.ISAGENT_TIMEOUT);
+        assertNotNull(iemp.heldKey(heldId));
+        iemp.releaseKey(heldId);
+        assertNull("Hold taken by the failed holdKeys was not released", iemp.heldKey(heldId));
+        assertNull(iemp.heldKey(otherId));
+    }
+
+    @Test
+    public void asyncCreatedKeyIsCollectedByPut() throws IonicException {
+        IonicEncryptionMaterialsProvider iemp = new IonicEncryptionMaterialsProvider();
+        InMemoryKeyService keyService = new InMemoryKeyService();
+        iemp.setKeyService(keyService);
+        KeyAttributesMap attributes = new KeyAttributesMap();
+        attributes.put("classification", Arrays.asList("restricted"));
+
+        String uuid = iemp.createKeyAsync(null, new HashMap<String, String>(),
+                new CreateKeysRequest.Key("", 1, attributes)).join();
+        assertEquals(1, keyService.getCreateRequestCount());
+        Map<String, String> desc = new HashMap<String, String>();
+        desc.put(IonicEncryptionMaterialsProvider.IONICKEYREQUUID, uuid);
+        String keyId = iemp.getEncryptionMaterials(desc).getMaterialsDescription()
+                .get(IonicEncryptionMaterialsProvider.KEYIDKEY);
+        assertEquals(1, keyService.getCreateRequestCount());
+        assertEquals(Arrays.asList("restricted"), keyService.getKeys(new GetKeysRequest(keyId))
+                .getFirstKey().getAttributesMap().get("classification"));
+    }
+
+    @Test
+    public void asyncHeldKeyServesRetrievals() throws IonicException {
+        IonicEncryptionMaterialsProvider iemp = new IonicEncryptionMaterialsProvider();
+        InMemoryKeyService keyService = new InMemoryKeyService();
+        iemp.setKeyService(keyService);
+        String keyId = iemp.getEncryptionMaterials().getMaterialsDescription()
+                .get(IonicEncryptionMaterialsProvider.KEYIDKEY);
+
+        iemp.holdKeyAsync(keyId).join();
+        iemp.holdKeyAsync(keyId).join();
+        assertEquals(1, keyService.getGetRequestCount());
+        Map<String, String> desc = new HashMap<String, String>();
+        desc.put(IonicEncryptionMaterialsProvider.KEYIDKEY, keyId);
+        assertNotNull(iemp.getEncryptionMaterials(desc));
+        assertEquals(1, keyService.getGetRequestCount());
+        iemp.releaseKey(keyId);
+        assertNotNull(iemp.heldKey(keyId));
+        iemp.releaseKey(keyId);
+        assertNull(iemp.heldKey(keyId));
+
+        keyService.denyKeyId(keyId);
+        try {
+            iemp.holdKeyAsync(keyId).join();
+            fail("Denied key was held");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof AmazonS3Exception);
+        }
+        assertNull(iemp.heldKey(keyId));
+    }
+
+    @Test
+    public void capturedMetadataIsNotStoredInMaterialsDescription() throws IonicException {
+        IonicEncryptionMaterialsProvider iemp = new IonicEncryptionMaterialsProvider();
+        InMemoryKeyService keyService = new InMemoryKeyService();
+        iemp.setKeyService(keyService);
+        iemp.setEnabledMetadataCapture(true);
+        Map<String, String> desc = new HashMap<String, String>();
+        desc.put("classification", "restricted");
+        desc.put(IonicEncryptionMaterialsProvider.IONICKEYREQUUID,
+                iemp.storeRequestKey(new CreateKeysRequest.Key("")));
+
+        Map<String, String> matdesc = iemp.getEncryptionMaterials(desc).getMaterialsDescription();
+        assertEquals(2, matdesc.size());
+        assertEquals("1.0.0", matdesc.get(IonicEncryptionMaterialsProvider.IONICVERSIONKEY));
+        KeyAttributesMap attributes = keyService.getKeys(new GetKeysRequest(
+                matdesc.get(IonicEncryptionMaterialsProvider.KEYIDKEY))).getFirstKey()
+                .getAttributesMap();
+        assertEquals(Arrays.asList("restricted"), attributes.get("classification"));
+    }
 }
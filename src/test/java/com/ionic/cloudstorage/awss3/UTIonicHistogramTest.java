@@ -0,0 +1,31 @@
+/*
+ * (c) 2019-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as the
+ * Terms & Conditions (https://dev.ionic.com/use.html) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.awss3;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+
+public class UTIonicHistogramTest {
+
+    @Test
+    public void histogramPercentiles() {
+        IonicHistogram histogram = new IonicHistogram("ns");
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(5050, histogram.getSum());
+        assertEquals(100, histogram.getMax());
+        assertEquals(50.5, histogram.getMean(), 0.001);
+        assertTrue(histogram.getPercentile(50) >= 50 && histogram.getPercentile(50) <= 63);
+        assertEquals(100, histogram.getPercentile(100));
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * (c) 2019-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as the
+ * Terms & Conditions (https://dev.ionic.com/use.html) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.awss3;
+
+import static org.junit.Assert.*;
+
+import com.ionic.sdk.agent.key.KeyAttributesMap;
+import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+
+public class UTIonicKeyCacheTest {
+
+    private static GetKeysResponse.Key testKey(String keyId, int fill) {
+        byte[] bytes = new byte[32];
+        Arrays.fill(bytes, (byte) fill);
+        return new GetKeysResponse.Key(keyId, bytes, new KeyAttributesMap(), new KeyAttributesMap());
+    }
+
+    @Test
+    public void hitReturnsCopy() {
+        IonicKeyCache cache = new IonicKeyCache(4, 1, TimeUnit.MINUTES);
+        assertNull(cache.get("D7GH0000001"));
+        cache.put(testKey("D7GH0000001", 7));
+
+        GetKeysResponse.Key first = cache.get("D7GH0000001");
+        assertNotNull(first);
+        assertArrayEquals(testKey("D7GH0000001", 7).getKey(), first.getKey());
+        first.setKey(new byte[32]);
+        assertArrayEquals("Mutating a returned key changed the cached key",
+                testKey("D7GH0000001", 7).getKey(), cache.get("D7GH0000001").getKey());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        IonicKeyCache cache = new IonicKeyCache(2, 1, TimeUnit.MINUTES);
+        cache.put(testKey("D7GH0000001", 1));
+        cache.put(testKey("D7GH0000002", 2));
+        cache.get("D7GH0000001");
+        cache.put(testKey("D7GH0000003", 3));
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("D7GH0000001"));
+        assertNull(cache.get("D7GH0000002"));
+        assertNotNull(cache.get("D7GH0000003"));
+        assertEquals(1, cache.getRemovalCount());
+    }
+
+    @Test
+    public void expiresAfterTtl() throws InterruptedException {
+        IonicKeyCache cache = new IonicKeyCache(2, 20, TimeUnit.MILLISECONDS);
+        cache.put(testKey("D7GH0000001", 1));
+        Thread.sleep(40);
+        assertNull(cache.get("D7GH0000001"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void invalidate() {
+        IonicKeyCache cache = new IonicKeyCache(2, 1, TimeUnit.MINUTES);
+        cache.put(testKey("D7GH0000001", 1));
+        cache.put(testKey("D7GH0000002", 2));
+        cache.invalidate("D7GH0000001");
+        assertNull(cache.get("D7GH0000001"));
+        assertNotNull(cache.get("D7GH0000002"));
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void providerInvalidatesCachedKey() {
+        IonicEncryptionMaterialsProvider iemp = new IonicEncryptionMaterialsProvider();
+        assertNull("KeyCache was not null by default.", iemp.getKeyCache());
+        IonicKeyCache cache = new IonicKeyCache();
+        iemp.setKeyCache(cache);
+        cache.put(testKey("D7GH0000001", 1));
+        iemp.invalidateCachedKey("D7GH0000001");
+        assertNull(cache.get("D7GH0000001"));
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * (c) 2019-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as the
+ * Terms & Conditions (https://dev.ionic.com/use.html) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.awss3;
+
+import static org.junit.Assert.*;
+
+import com.ionic.sdk.agent.Agent;
+import com.ionic.sdk.agent.request.createkey.CreateKeysRequest;
+import com.ionic.sdk.agent.request.createkey.CreateKeysResponse;
+import com.ionic.sdk.agent.request.getkey.GetKeysResponse;
+import com.ionic.sdk.error.IonicException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+
+public class UTIonicKeyCoalescerTest {
+
+    @Test
+    public void coalescesWithinWindow() throws InterruptedException {
+        IonicKeyCoalescer coalescer = new IonicKeyCoalescer(50, TimeUnit.MILLISECONDS, 16);
+        // An Agent without a profile fails every request, which is all this test needs.
+        coalescer.setKeyService(new AgentKeyService(new Agent()));
+        CompletableFuture<GetKeysResponse.Key> first = coalescer.request("D7GH0000001");
+        CompletableFuture<GetKeysResponse.Key> second = coalescer.request("D7GH0000002");
+        CompletableFuture<GetKeysResponse.Key> third = coalescer.request("D7GH0000001");
+
+        assertFailedWithIonicException(first);
+        assertFailedWithIonicException(second);
+        assertFailedWithIonicException(third);
+        assertEquals("Requests within one window were not sent as one batch",
+                1, coalescer.getBatchSizeHistogram().getCount());
+        assertEquals(2, coalescer.getBatchSizeHistogram().getMax());
+        assertEquals(3, coalescer.getQueueDelayHistogram().getCount());
+        coalescer.shutdown();
+    }
+
+    @Test
+    public void sendsFullBatchImmediately() throws InterruptedException {
+        IonicKeyCoalescer coalescer = new IonicKeyCoalescer(1, TimeUnit.HOURS, 2);
+        coalescer.setKeyService(new AgentKeyService(new Agent()));
+        CompletableFuture<GetKeysResponse.Key> first = coalescer.request("D7GH0000001");
+        CompletableFuture<GetKeysResponse.Key> second = coalescer.request("D7GH0000002");
+        assertFailedWithIonicException(first);
+        assertFailedWithIonicException(second);
+        coalescer.shutdown();
+    }
+
+    @Test
+    public void completesEachRequestWithItsKey() throws Exception {
+        InMemoryKeyService keyService = new InMemoryKeyService();
+        CreateKeysRequest create = new CreateKeysRequest();
+        create.add(new CreateKeysRequest.Key("ref", 2));
+        List<CreateKeysResponse.Key> keys = keyService.createKeys(create).getKeys();
+        keyService.denyKeyId(keys.get(1).getId());
+
+        IonicKeyCoalescer coalescer = new IonicKeyCoalescer(50, TimeUnit.MILLISECONDS, 16);
+        coalescer.setKeyService(keyService);
+        CompletableFuture<GetKeysResponse.Key> allowed = coalescer.request(keys.get(0).getId());
+        CompletableFuture<GetKeysResponse.Key> denied = coalescer.request(keys.get(1).getId());
+        assertArrayEquals(keys.get(0).getKey(), allowed.get(10, TimeUnit.SECONDS).getKey());
+        assertFailedWithIonicException(denied);
+        assertEquals("Keys were not fetched with one request", 1, keyService.getGetRequestCount());
+        coalescer.shutdown();
+    }
+
+    @Test
+    public void fetchesOnCallingThreadAfterShutdown() throws Exception {
+        InMemoryKeyService keyService = new InMemoryKeyService();
+        CreateKeysRequest create = new CreateKeysRequest();
+        create.add(new CreateKeysRequest.Key("ref", 1));
+        String keyId = keyService.createKeys(create).getFirstKey().getId();
+
+        IonicKeyCoalescer coalescer = new IonicKeyCoalescer(1, TimeUnit.HOURS, 16);
+        coalescer.setKeyService(keyService);
+        coalescer.shutdown();
+        CompletableFuture<GetKeysResponse.Key> key = coalescer.request(keyId);
+        assertTrue("Request after shutdown was not fetched immediately", key.isDone());
+        assertEquals(keyId, key.get().getId());
+    }
+
+    @Test
+    public void providerShutsDownReplacedCoalescer() throws Exception {
+        IonicEncryptionMaterialsProvider iemp = new IonicEncryptionMaterialsProvider();
+        iemp.setKeyService(new InMemoryKeyService());
+        IonicKeyCoalescer replaced = new IonicKeyCoalescer(1, TimeUnit.HOURS, 16);
+        iemp.setKeyCoalescer(replaced);
+        iemp.setKeyCoalescer(new IonicKeyCoalescer());
+        assertTrue("Replaced coalescer was not shut down",
+                replaced.request("D7GH0000001").isDone());
+        iemp.getKeyCoalescer().shutdown();
+    }
+
+    @Test
+    public void maxBatchSizeIsLimitedToGetKeysQuantity() {
+        assertEquals(IonicEncryptionMaterialsProvider.MAX_GET_KEYS_QUANTITY,
+                new IonicKeyCoalescer(1, TimeUnit.MILLISECONDS,
+                        IonicEncryptionMaterialsProvider.MAX_GET_KEYS_QUANTITY).getMaxBatchSize());
+        try {
+            new IonicKeyCoalescer(1, TimeUnit.MILLISECONDS,
+                    IonicEncryptionMaterialsProvider.MAX_GET_KEYS_QUANTITY + 1);
+            fail("Accepted a batch size the key service rejects");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static void assertFailedWithIonicException(CompletableFuture<GetKeysResponse.Key> f)
+            throws InterruptedException {
+        try {
+            f.get(10, TimeUnit.SECONDS);
+            fail("Expected the key request to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IonicException);
+        } catch (java.util.concurrent.TimeoutException e) {
+            fail("Batch was never sent");
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * (c) 2019-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as the
+ * Terms & Conditions (https://dev.ionic.com/use.html) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.awss3;
+
+import static org.junit.Assert.*;
+
+import com.ionic.sdk.agent.key.KeyAttributesMap;
+import com.ionic.sdk.agent.request.createkey.CreateKeysResponse;
+import com.ionic.sdk.error.AgentErrorModuleConstants;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class UTIonicKeyPoolTest {
+
+    private IonicEncryptionMaterialsProvider iemp;
+    private InMemoryKeyService keyService;
+    private IonicKeyPool pool;
+    private KeyAttributesMap attributes;
+
+    @Before
+    public void setUp() {
+        iemp = new IonicEncryptionMaterialsProvider();
+        keyService = new InMemoryKeyService();
+        iemp.setKeyService(keyService);
+        attributes = new KeyAttributesMap();
+        attributes.put("classification", Arrays.asList("restricted"));
+    }
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    private static void awaitRefills(IonicKeyPool pool, long refills) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (pool.getRefillCount() < refills && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals("Background refill did not complete", refills, pool.getRefillCount());
+    }
+
+    @Test
+    public void takeServesPrefilledKeys() throws Exception {
+        pool = new IonicKeyPool(4, 0);
+        pool.prefill(attributes, iemp);
+        assertEquals(4, pool.getAvailableKeyCount());
+
+        Set<String> keyIds = new HashSet<String>();
+        for (int i = 0; i < 4; i++) {
+            CreateKeysResponse.Key key = pool.take(attributes, iemp.getMeteredKeyService());
+            assertNotNull("Prefilled key was not taken", key);
+            assertEquals(attributes, key.getAttributesMap());
+            keyIds.add(key.getId());
+        }
+        assertEquals(4, keyIds.size());
+        assertEquals(4, pool.getHitCount());
+        assertEquals(0, pool.getMissCount());
+        assertEquals(0, pool.getAvailableKeyCount());
+        assertEquals(1, pool.getRefillCount());
+    }
+
+    @Test
+    public void prefillUsesProviderKeyService() throws Exception {
+        pool = new IonicKeyPool(4, 0);
+        pool.prefill(attributes, iemp);
+        assertEquals(1, keyService.getCreateRequestCount());
+        assertEquals(4, keyService.getKeyCount());
+        assertEquals("Prefill was not metered", 1, iemp.getMetrics().getCreateKeysCount());
+    }
+
+    @Test
+    public void refillsBelowLowWaterMark() throws Exception {
+        pool = new IonicKeyPool(8, 4);
+        pool.prefill(attributes, iemp);
+        for (int i = 0; i < 4; i++) {
+            assertNotNull(pool.take(attributes, iemp.getMeteredKeyService()));
+        }
+        assertEquals("Refilled at the low-water mark", 1, pool.getRefillCount());
+
+        assertNotNull(pool.take(attributes, iemp.getMeteredKeyService()));
+        awaitRefills(pool, 2);
+        assertEquals(11, pool.getAvailableKeyCount());
+        assertEquals(2, keyService.getCreateRequestCount());
+        assertEquals(5, pool.getHitCount());
+        assertEquals(0, pool.getMissCount());
+    }
+
+    @Test
+    public void missStartsRefill() throws Exception {
+        pool = new IonicKeyPool(4, 2);
+        assertNull(pool.take(attributes, iemp.getMeteredKeyService()));
+        assertEquals(0, pool.getHitCount());
+        assertEquals(1, pool.getMissCount());
+        awaitRefills(pool, 1);
+        assertEquals(4, pool.getAvailableKeyCount());
+
+        assertNotNull(pool.take(attributes, iemp.getMeteredKeyService()));
+        assertEquals(1, pool.getHitCount());
+        assertEquals(1, pool.getMissCount());
+    }
+
+    @Test
+    public void missWhenAttributeSetsAreExhausted() throws Exception {
+        pool = new IonicKeyPool(4, 0, 1);
+        pool.prefill(attributes, iemp);
+        KeyAttributesMap other = new KeyAttributesMap();
+        other.put("classification", Arrays.asList("public"));
+        assertNull(pool.take(other, iemp.getMeteredKeyService()));
+        assertEquals(1, pool.getMissCount());
+        assertEquals(1, keyService.getCreateRequestCount());
+    }
+
+    @Test
+    public void failedRefillIsCounted() throws Exception {
+        pool = new IonicKeyPool(4, 0);
+        keyService.setErrorRate(1, AgentErrorModuleConstants.ISAGENT_TIMEOUT);
+        assertNull(pool.take(attributes, iemp.getMeteredKeyService()));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (pool.getRefillFailureCount() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, pool.getRefillFailureCount());
+        assertEquals(0, pool.getRefillCount());
+        assertEquals(0, pool.getAvailableKeyCount());
+    }
+
+    @Test
+    public void expiredKeysAreDiscarded() throws Exception {
+        pool = new IonicKeyPool(4, 0, 1, 1, TimeUnit.MILLISECONDS);
+        assertEquals(1, pool.getMaxKeyAge(TimeUnit.MILLISECONDS));
+        pool.prefill(attributes, iemp);
+        Thread.sleep(20);
+
+        assertNull("Expired key was taken", pool.take(attributes, iemp.getMeteredKeyService()));
+        assertEquals(4, pool.getExpiredKeyCount());
+        assertEquals(0, pool.getHitCount());
+        assertEquals(1, pool.getMissCount());
+    }
+
+    @Test
+    public void defaultMaxKeyAge() {
+        assertEquals(IonicKeyPool.DEFAULT_MAX_KEY_AGE_MINUTES,
+                new IonicKeyPool().getMaxKeyAge(TimeUnit.MINUTES));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonPositiveMaxKeyAge() {
+        new IonicKeyPool(4, 0, 1, 0, TimeUnit.SECONDS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsBatchSizeAboveCreateKeysLimit() {
+        new IonicKeyPool(IonicEncryptionMaterialsProvider.MAX_CREATE_KEYS_QUANTITY + 1, 0);
+    }
+
+    @Test
+    public void replacedPoolIsShutDown() {
+        pool = new IonicKeyPool(4, 0);
+        iemp.setKeyPool(pool);
+        iemp.setKeyPool(pool);
+        assertFalse("Pool set again was shut down", pool.isShutdown());
+
+        IonicKeyPool replacement = new IonicKeyPool(4, 0);
+        iemp.setKeyPool(replacement);
+        assertTrue("Replaced pool still refills", pool.isShutdown());
+        iemp.setKeyPool(null);
+        assertTrue("Removed pool still refills", replacement.isShutdown());
+    }
+}
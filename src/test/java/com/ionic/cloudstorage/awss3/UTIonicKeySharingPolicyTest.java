@@ -0,0 +1,149 @@
+/*
+ * (c) 2019-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as the
+ * Terms & Conditions (https://dev.ionic.com/use.html) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.awss3;
+
+import static org.junit.Assert.*;
+
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.ionic.sdk.agent.key.KeyAttributesMap;
+import com.ionic.sdk.agent.request.createkey.CreateKeysRequest;
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class UTIonicKeySharingPolicyTest {
+
+    private IonicEncryptionMaterialsProvider iemp;
+    private InMemoryKeyService keyService;
+
+    @Before
+    public void setUp() {
+        iemp = new IonicEncryptionMaterialsProvider();
+        keyService = new InMemoryKeyService();
+        iemp.setKeyService(keyService);
+    }
+
+    @Test
+    public void sharesKeyUpToMaxObjects() {
+        IonicKeySharingPolicy policy = new IonicKeySharingPolicy(3, 1, TimeUnit.HOURS);
+        iemp.setKeySharingPolicy(policy);
+        Set<String> keyIds = new HashSet<String>();
+        for (int i = 0; i < 7; i++) {
+            keyIds.add(keyIdFor(null, new CreateKeysRequest.Key("")));
+        }
+        assertEquals(3, keyIds.size());
+        assertEquals(3, keyService.getCreateRequestCount());
+        assertEquals(3, policy.getCreatedKeyCount());
+        assertEquals(4, policy.getSharedUseCount());
+    }
+
+    @Test
+    public void sharesKeyPerAttributeSet() {
+        iemp.setKeySharingPolicy(new IonicKeySharingPolicy(100, 1, TimeUnit.HOURS));
+        KeyAttributesMap secret = new KeyAttributesMap();
+        secret.put("classification", Arrays.asList("secret"));
+        KeyAttributesMap mutable = new KeyAttributesMap();
+        mutable.put("state", Arrays.asList("draft"));
+
+        String plain = keyIdFor(null, new CreateKeysRequest.Key(""));
+        String classified = keyIdFor(null, new CreateKeysRequest.Key("", 1, secret));
+        assertNotEquals(plain, classified);
+        assertEquals(plain, keyIdFor(null, new CreateKeysRequest.Key("")));
+        assertEquals(classified, keyIdFor(null, new CreateKeysRequest.Key("", 1, secret)));
+
+        String first = keyIdFor(null, new CreateKeysRequest.Key("", 1, secret, mutable));
+        String second = keyIdFor(null, new CreateKeysRequest.Key("", 1, secret, mutable));
+        assertNotEquals("Key with mutable attributes was shared", first, second);
+        assertNotEquals(classified, first);
+    }
+
+    @Test
+    public void appliesLimitsOfLongestPrefix() {
+        IonicKeySharingPolicy policy = new IonicKeySharingPolicy(100, 1, TimeUnit.HOURS);
+        policy.setLimits("bucket", "logs/", 2, 1, TimeUnit.HOURS);
+        policy.setLimits("bucket", "logs/audit/", 1, 1, TimeUnit.HOURS);
+        iemp.setKeySharingPolicy(policy);
+        CreateKeysRequest.Key key = new CreateKeysRequest.Key("");
+
+        Set<String> logs = new HashSet<String>();
+        for (int i = 0; i < 4; i++) {
+            logs.add(keyIdFor(put("bucket", "logs/" + i), key));
+        }
+        assertEquals(2, logs.size());
+
+        Set<String> audit = new HashSet<String>();
+        for (int i = 0; i < 3; i++) {
+            audit.add(keyIdFor(put("bucket", "logs/audit/" + i), key));
+        }
+        assertEquals(3, audit.size());
+
+        Set<String> other = new HashSet<String>();
+        other.add(keyIdFor(put("bucket", "data/0"), key));
+        other.add(keyIdFor(put("other", "logs/0"), key));
+        other.add(keyIdFor(null, key));
+        assertEquals(1, other.size());
+        assertFalse(logs.removeAll(other) || audit.removeAll(other));
+    }
+
+    @Test
+    public void replacedLimitsReleaseTheirAttributeSets() {
+        IonicKeySharingPolicy policy = new IonicKeySharingPolicy(100, 1, TimeUnit.HOURS, 1);
+        policy.setLimits("bucket", "logs/", 2, 1, TimeUnit.HOURS);
+        iemp.setKeySharingPolicy(policy);
+        CreateKeysRequest.Key key = new CreateKeysRequest.Key("");
+        keyIdFor(put("bucket", "logs/0"), key);
+
+        policy.setLimits("bucket", "logs/", 3, 1, TimeUnit.HOURS);
+        String first = keyIdFor(put("bucket", "logs/1"), key);
+        assertEquals("Replaced limits still hold the only attribute set", first,
+                keyIdFor(put("bucket", "logs/2"), key));
+    }
+
+    @Test
+    public void equalLimitsShareKeys() {
+        IonicKeySharingPolicy policy = new IonicKeySharingPolicy(100, 1, TimeUnit.HOURS);
+        policy.setLimits("bucket", "logs/", 100, 60, TimeUnit.MINUTES);
+        iemp.setKeySharingPolicy(policy);
+        CreateKeysRequest.Key key = new CreateKeysRequest.Key("");
+        assertEquals(keyIdFor(put("bucket", "data/0"), key),
+                keyIdFor(put("bucket", "logs/0"), key));
+    }
+
+    @Test
+    public void replacesKeyAfterMaxAge() throws InterruptedException {
+        iemp.setKeySharingPolicy(new IonicKeySharingPolicy(100, 20, TimeUnit.MILLISECONDS));
+        String first = keyIdFor(null, new CreateKeysRequest.Key(""));
+        Thread.sleep(40);
+        assertNotEquals(first, keyIdFor(null, new CreateKeysRequest.Key("")));
+    }
+
+    @Test
+    public void doesNotShareWithoutPolicy() {
+        String first = keyIdFor(null, new CreateKeysRequest.Key(""));
+        assertNotEquals(first, keyIdFor(null, new CreateKeysRequest.Key("")));
+    }
+
+    private String keyIdFor(PutObjectRequest request, CreateKeysRequest.Key key) {
+        Map<String, String> desc = new HashMap<String, String>();
+        desc.put(IonicEncryptionMaterialsProvider.IONICKEYREQUUID, request == null
+                ? iemp.storeRequestKey(key)
+                : iemp.storeRequestKey(key, request.getBucketName(), request.getKey()));
+        return iemp.getEncryptionMaterials(desc).getMaterialsDescription()
+                .get(IonicEncryptionMaterialsProvider.KEYIDKEY);
+    }
+
+    private static PutObjectRequest put(String bucket, String key) {
+        return new PutObjectRequest(bucket, key, new File(key));
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * (c) 2019-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as the
+ * Terms & Conditions (https://dev.ionic.com/use.html) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.awss3;
+
+import static org.junit.Assert.*;
+
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.util.json.Jackson;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+
+public class UTIonicMaterialsDescriptionTest {
+
+    @Test
+    public void readsKeyIdOfAnyLength() {
+        assertEquals("D7GH0000001",
+                IonicMaterialsDescription.getKeyId("{\"ionic-key-id\":\"D7GH0000001\"}"));
+        assertEquals("D7GH000000000042", IonicMaterialsDescription.getKeyId(
+                "{\"ionic-s3-version\":\"1.0.0\",\"ionic-key-id\":\"D7GH000000000042\"}"));
+        assertEquals("", IonicMaterialsDescription.getKeyId("{\"ionic-key-id\":\"\"}"));
+    }
+
+    @Test
+    public void readsSdkEncodedDescription() {
+        Map<String, String> desc = new HashMap<String, String>();
+        desc.put("ionic-key-id", "D7GH0000001");
+        desc.put("ionic-s3-version", "1.0.0");
+        desc.put("classification", "a \"quoted\", comma-separated\\value");
+        desc.put("unicode", "caf\u00e9 \u2603\n");
+        String matdesc = Jackson.toJsonString(desc);
+        for (Map.Entry<String, String> entry : desc.entrySet()) {
+            assertEquals(entry.getValue(), IonicMaterialsDescription.get(matdesc, entry.getKey()));
+        }
+        assertNull(IonicMaterialsDescription.get(matdesc, "missing"));
+    }
+
+    @Test
+    public void unescapesNamesAndValues() {
+        String matdesc = "{ \"a\\\"b\" : \"x\" , \"ionic\\u002dkey-id\" : \"D7GH\\/0001\\u0041\" }";
+        assertEquals("x", IonicMaterialsDescription.get(matdesc, "a\"b"));
+        assertEquals("D7GH/0001A", IonicMaterialsDescription.getKeyId(matdesc));
+    }
+
+    @Test
+    public void skipsValuesThatAreNotStrings() {
+        String matdesc = "{\"n\":12,\"o\":{\"ionic-key-id\":\"inner\",\"l\":[1,\"}\"]},"
+                + "\"ionic-key-id\":\"D7GH0000001\"}";
+        assertEquals("D7GH0000001", IonicMaterialsDescription.getKeyId(matdesc));
+        assertNull(IonicMaterialsDescription.get(matdesc, "n"));
+    }
+
+    @Test
+    public void rejectsMalformedDescriptions() {
+        assertNull(IonicMaterialsDescription.getKeyId((String) null));
+        assertNull(IonicMaterialsDescription.getKeyId(""));
+        assertNull(IonicMaterialsDescription.getKeyId("{}"));
+        assertNull(IonicMaterialsDescription.getKeyId("\"ionic-key-id\":\"D7GH0000001\""));
+        assertNull(IonicMaterialsDescription.getKeyId("{\"ionic-key-id\":\"D7GH0000001"));
+        assertNull(IonicMaterialsDescription.getKeyId("{\"ionic-key-id\" \"D7GH0000001\"}"));
+        assertNull(IonicMaterialsDescription.getKeyId("{\"a\":\"b\" \"ionic-key-id\":\"c\"}"));
+        assertNull(IonicMaterialsDescription.getKeyId("{\"ionic-key-id\":\"bad \\x escape\"}"));
+        assertNull(IonicMaterialsDescription.getKeyId("{\"ionic-key-id\":\"short \\u00\"}"));
+    }
+
+    @Test
+    public void readsObjectMetadata() {
+        ObjectMetadata meta = new ObjectMetadata();
+        assertNull(IonicMaterialsDescription.getKeyId(meta));
+        meta.addUserMetadata(IonicMaterialsDescription.MATDESC_HEADER,
+                "{\"ionic-key-id\":\"D7GH0000001\"}");
+        assertEquals("D7GH0000001", IonicMaterialsDescription.getKeyId(meta));
+    }
+}
@@ -8,13 +8,27 @@ package com.ionic.cloudstorage.awss3;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import com.ionic.sdk.agent.Agent;
 import com.ionic.sdk.error.IonicException;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.AnonymousAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder.EndpointConfiguration;
 import com.amazonaws.services.s3.AmazonS3Encryption;
 import com.amazonaws.services.s3.model.EncryptionMaterials;
 import com.amazonaws.services.s3.model.EncryptionMaterialsProvider;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
 import org.junit.Assume;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -115,4 +129,52 @@ public class UTIonicS3EncryptionClientBuilderTest {
         assertTrue(ionicEncryptionClient instanceof IonicS3EncryptionClient);
     }
 
+
+    @Test
+    public void builderRegistersMetricsMBean() throws Exception {
+        IonicS3EncryptionClient client = IonicS3EncryptionClientBuilder.standard()
+                .withEncryptionMaterials(new IonicEncryptionMaterialsProvider())
+                .withCredentials(new AWSStaticCredentialsProvider(new AnonymousAWSCredentials()))
+                .withEndpointConfiguration(new EndpointConfiguration("http://localhost:1", "us-east-1"))
+                .withMetricsMBeanName("builderRegistersMetricsMBean")
+                .buildIonic();
+        ObjectName name = client.getMetricsObjectName();
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertTrue(server.isRegistered(name));
+        assertEquals(0L, server.getAttribute(name, "GetKeysCount"));
+        client.shutdown();
+        assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void asyncClientRejectsBeyondMaxConcurrency() throws Exception {
+        IonicEncryptionMaterialsProvider iemp = new IonicEncryptionMaterialsProvider();
+        InMemoryKeyService keyService = new InMemoryKeyService();
+        keyService.setCreateLatency(InMemoryKeyService.Latency.fixed(500, TimeUnit.MILLISECONDS));
+        iemp.setKeyService(keyService);
+        IonicS3AsyncEncryptionClient client = IonicS3EncryptionClientBuilder.standard()
+                .withEncryptionMaterials(iemp)
+                .withCredentials(new AWSStaticCredentialsProvider(new AnonymousAWSCredentials()))
+                .withEndpointConfiguration(new EndpointConfiguration("http://localhost:1", "us-east-1"))
+                .withAsyncTransferThreads(1)
+                .withAsyncMaxConcurrency(1)
+                .buildAsync();
+        assertEquals(1, client.getMaxConcurrency());
+        CompletableFuture<PutObjectResult> first = client.putObjectAsync(
+                new PutObjectRequest("bucket", "first", new ByteArrayInputStream(new byte[1]),
+                        new ObjectMetadata()));
+        assertEquals(0, client.getAvailableConcurrency());
+        CompletableFuture<PutObjectResult> second = client.putObjectAsync(
+                new PutObjectRequest("bucket", "second", new ByteArrayInputStream(new byte[1]),
+                        new ObjectMetadata()));
+        assertTrue(second.isCompletedExceptionally());
+        try {
+            second.join();
+            fail("Operation beyond maxConcurrency was accepted");
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        assertFalse(first.isDone());
+        client.shutdown();
+    }
 }
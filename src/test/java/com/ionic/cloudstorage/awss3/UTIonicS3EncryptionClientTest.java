@@ -0,0 +1,391 @@
+/*
+ * (c) 2019-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as the
+ * Terms & Conditions (https://dev.ionic.com/use.html) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.awss3;
+
+import static org.junit.Assert.*;
+
+import com.amazonaws.SdkClientException;
+import com.amazonaws.services.s3.Headers;
+import com.amazonaws.services.s3.model.CannedAccessControlList;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.ObjectTagging;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.StorageClass;
+import com.amazonaws.services.s3.model.Tag;
+import com.amazonaws.services.s3.model.UploadObjectRequest;
+import com.amazonaws.util.IOUtils;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class UTIonicS3EncryptionClientTest {
+    private static final String BUCKET = "bucket";
+    private static final int PART_SIZE = 5 * 1024 * 1024;
+
+    private IonicEncryptionMaterialsProvider iemp;
+    private StubS3EncryptionClient client;
+    private StubS3Server server;
+
+    @Before
+    public void setUp() {
+        iemp = new IonicEncryptionMaterialsProvider();
+        iemp.setKeyService(new InMemoryKeyService());
+        client = StubS3EncryptionClient.create(iemp);
+    }
+
+    @After
+    public void tearDown() {
+        client.shutdown();
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    /**
+     * Starts a StubS3Server and replaces the client with one that uploads to it.
+     */
+    private void startServer() throws IOException {
+        server = new StubS3Server();
+        client.shutdown();
+        client = StubS3EncryptionClient.create(iemp, server);
+    }
+
+    /**
+     * Reads an object uploaded to the server back through the client, decrypting it.
+     */
+    private byte[] readBack(String key) throws IOException {
+        S3Object object = client.getObject(new GetObjectRequest(BUCKET, key));
+        try {
+            return IOUtils.toByteArray(object.getObjectContent());
+        } finally {
+            object.close();
+        }
+    }
+
+    @Test
+    public void shutdownStopsKeyCoalescer() {
+        IonicKeyCoalescer coalescer = new IonicKeyCoalescer(1, TimeUnit.HOURS, 16);
+        iemp.setKeyCoalescer(coalescer);
+        client.shutdown();
+        assertTrue("Key coalescer still batches after shutdown",
+                coalescer.request("D7GH0000001").isDone());
+    }
+
+    @Test
+    public void shutdownStopsKeyPool() {
+        IonicKeyPool pool = new IonicKeyPool(4, 0);
+        iemp.setKeyPool(pool);
+        client.shutdown();
+        assertTrue("Key pool still refills after shutdown", pool.isShutdown());
+    }
+
+    private static byte[] content(int size) {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+
+    @Test
+    public void getObjectFillsHeapAndDirectBuffers() {
+        byte[] content = content(200000);
+        client.putPlaintext("object", content, "etag", null);
+
+        ByteBuffer heap = ByteBuffer.allocate(content.length + 10);
+        heap.position(5);
+        assertNotNull(client.getObject(new GetObjectRequest(BUCKET, "object"), heap));
+        assertEquals(5 + content.length, heap.position());
+        assertArrayEquals(content, Arrays.copyOfRange(heap.array(), 5, 5 + content.length));
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(content.length);
+        client.getObject(new GetObjectRequest(BUCKET, "object"), direct);
+        direct.flip();
+        assertEquals(ByteBuffer.wrap(content), direct);
+    }
+
+    @Test
+    public void rangedGetObjectFitsBufferSizedForRange() {
+        byte[] content = content(100000);
+        client.putPlaintext("object", content, "etag", null);
+
+        ByteBuffer dest = ByteBuffer.allocate(1000);
+        client.getObject(new GetObjectRequest(BUCKET, "object").withRange(5000, 5999), dest);
+        assertFalse(dest.hasRemaining());
+        assertArrayEquals(Arrays.copyOfRange(content, 5000, 6000), dest.array());
+    }
+
+    @Test
+    public void getObjectRejectsTooSmallBuffer() {
+        byte[] content = content(10000);
+        client.putPlaintext("object", content, "etag", null);
+
+        ByteBuffer dest = ByteBuffer.allocate(content.length - 1);
+        dest.position(1);
+        try {
+            client.getObject(new GetObjectRequest(BUCKET, "object"), dest);
+            fail("Object larger than the buffer was read");
+        } catch (SdkClientException e) {
+            assertTrue(e.getMessage().contains("does not fit"));
+        }
+        assertEquals(1, dest.position());
+
+        // The overrun of a ranged GET is found while copying.
+        dest.position(1);
+        try {
+            client.getObject(new GetObjectRequest(BUCKET, "object").withRange(0, 20000), dest);
+            fail("Range larger than the buffer was read");
+        } catch (SdkClientException e) {
+            assertTrue(e.getMessage().contains("does not fit"));
+        }
+        assertEquals(1, dest.position());
+    }
+
+    @Test
+    public void getObjectRejectsMalformedLength() {
+        client.putPlaintext("object", content(10), "etag", Collections.singletonMap(
+                Headers.UNENCRYPTED_CONTENT_LENGTH, "ten"));
+        try {
+            client.getObject(new GetObjectRequest(BUCKET, "object"), ByteBuffer.allocate(10));
+            fail("Malformed length was parsed");
+        } catch (SdkClientException e) {
+            assertTrue(e.getCause() instanceof NumberFormatException);
+        }
+    }
+
+    @Test
+    public void getObjectReturnsNullWhenConstraintsFail() {
+        client.putPlaintext("object", content(10), "etag", null);
+        ByteBuffer dest = ByteBuffer.allocate(10);
+        assertNull(client.getObject(new GetObjectRequest(BUCKET, "object")
+                .withMatchingETagConstraint("other"), dest));
+        assertEquals(0, dest.position());
+    }
+
+    /**
+     * Stores content as an object encrypted with a new Ionic key.
+     */
+    private void putEncrypted(String key, byte[] content, String etag) {
+        String keyId = iemp.getEncryptionMaterials().getMaterialsDescription()
+                .get(IonicEncryptionMaterialsProvider.KEYIDKEY);
+        client.putPlaintext(key, content, etag, Collections.singletonMap(
+                IonicMaterialsDescription.MATDESC_HEADER,
+                "{\"" + IonicEncryptionMaterialsProvider.KEYIDKEY + "\":\"" + keyId + "\"}"));
+    }
+
+    private File tempFile() throws IOException {
+        File file = File.createTempFile("UTIonicS3EncryptionClientTest", null);
+        file.deleteOnExit();
+        return file;
+    }
+
+    @Test
+    public void parallelGetSplitsRangesAndWritesThemInPlace() throws IOException {
+        byte[] content = content(10 * 1000 + 7);
+        putEncrypted("object", content, "etag");
+        File dest = tempFile();
+
+        GetObjectRequest req = new GetObjectRequest(BUCKET, "object");
+        req.putCustomRequestHeader("x-test-header", "value");
+        req.putCustomQueryParameter("x-test-parameter", "value");
+        assertNotNull(client.getObjectParallel(req, dest, 4, 1000));
+        assertArrayEquals(content, Files.readAllBytes(dest.toPath()));
+
+        List<GetObjectRequest> gets = client.getGets();
+        assertEquals(11, gets.size());
+        Set<Long> starts = new TreeSet<Long>();
+        for (GetObjectRequest range : gets) {
+            long[] bounds = range.getRange();
+            assertEquals(0, bounds[0] % 1000);
+            assertEquals(Math.min(bounds[0] + 999, content.length - 1), bounds[1]);
+            assertEquals(Collections.singletonList("etag"), range.getMatchingETagConstraints());
+            assertEquals("value", range.getCustomRequestHeaders().get("x-test-header"));
+            assertEquals(Collections.singletonList("value"),
+                    range.getCustomQueryParameters().get("x-test-parameter"));
+            starts.add(bounds[0]);
+        }
+        assertEquals(11, starts.size());
+        assertTrue(dest.delete());
+    }
+
+    @Test
+    public void parallelGetDeletesDestWhenRangeFails() throws IOException {
+        putEncrypted("object", content(10000), "etag");
+        File dest = tempFile();
+        client.setGetHook(new StubS3EncryptionClient.GetHook() {
+            @Override
+            public void beforeGet(GetObjectRequest req) {
+                if (req.getRange()[0] == 5000) {
+                    throw new SdkClientException("Injected range failure");
+                }
+            }
+        });
+        try {
+            client.getObjectParallel(new GetObjectRequest(BUCKET, "object"), dest, 2, 1000);
+            fail("Failed range was not reported");
+        } catch (SdkClientException e) {
+            assertEquals("Injected range failure", e.getMessage());
+        }
+        assertFalse(dest.exists());
+    }
+
+    @Test
+    public void parallelGetFailsWhenObjectIsOverwritten() throws IOException {
+        final byte[] content = content(10000);
+        putEncrypted("object", content, "etag");
+        File dest = tempFile();
+        client.setGetHook(new StubS3EncryptionClient.GetHook() {
+            @Override
+            public void beforeGet(GetObjectRequest req) {
+                if (req.getRange()[0] == 3000) {
+                    putEncrypted("object", content, "overwritten");
+                }
+            }
+        });
+        try {
+            client.getObjectParallel(new GetObjectRequest(BUCKET, "object"), dest, 2, 1000);
+            fail("Overwrite during the download was not detected");
+        } catch (SdkClientException e) {
+            assertTrue(e.getMessage().contains("modified"));
+        }
+        assertFalse(dest.exists());
+    }
+
+    @Test
+    public void parallelGetRejectsMalformedLength() throws IOException {
+        Map<String, String> userMetadata = new HashMap<String, String>();
+        userMetadata.put(IonicMaterialsDescription.MATDESC_HEADER,
+                "{\"" + IonicEncryptionMaterialsProvider.KEYIDKEY + "\":\"key\"}");
+        userMetadata.put(Headers.UNENCRYPTED_CONTENT_LENGTH, "");
+        client.putPlaintext("object", content(10), "etag", userMetadata);
+        try {
+            client.getObjectParallel(new GetObjectRequest(BUCKET, "object"), tempFile(), 2, 1);
+            fail("Malformed length was parsed");
+        } catch (SdkClientException e) {
+            assertTrue(e.getCause() instanceof NumberFormatException);
+        }
+    }
+
+    @Test
+    public void uploadObjectSendsPartsConcurrently() throws Exception {
+        startServer();
+        server.setPartLatency(200, TimeUnit.MILLISECONDS);
+        byte[] content = content(3 * PART_SIZE + 10);
+        UploadObjectRequest req = new UploadObjectRequest(BUCKET, "upload",
+                new ByteArrayInputStream(content), new ObjectMetadata()).withPartSize(PART_SIZE);
+        assertNotNull(client.uploadObject(req));
+
+        assertEquals(1, server.getRequests("POST", "uploads").size());
+        assertEquals(4, server.getRequests("PUT", "partNumber").size());
+        assertTrue("Parts were not uploaded concurrently", server.getMaxPartsInFlight() > 1);
+        assertArrayEquals(content, readBack("upload"));
+    }
+
+    @Test
+    public void uploadObjectLeavesRequestUnchanged() throws Exception {
+        startServer();
+        UploadObjectRequest req = new UploadObjectRequest(BUCKET, "upload",
+                new ByteArrayInputStream(content(PART_SIZE + 1)), new ObjectMetadata())
+                .withPartSize(PART_SIZE);
+        assertNotNull(client.uploadObject(req));
+
+        assertNull("Executor was set on the request", req.getExecutorService());
+        assertEquals("Disk limit was set on the request", Long.MAX_VALUE, req.getDiskLimit());
+        assertNull("Materials description was set on the request",
+                req.getMaterialsDescription());
+    }
+
+    private static PutObjectRequest streamPut(String key, byte[] content, ObjectMetadata meta) {
+        return new PutObjectRequest(BUCKET, key, new ByteArrayInputStream(content), meta);
+    }
+
+    @Test
+    public void putEmptyStreamAsSingleObject() throws Exception {
+        startServer();
+        client.putObject(streamPut("empty", new byte[0], new ObjectMetadata()));
+
+        assertEquals(1, server.getRequests("PUT", null).size());
+        assertTrue(server.getRequests("POST", "uploads").isEmpty());
+        assertArrayEquals(new byte[0], readBack("empty"));
+    }
+
+    @Test
+    public void putStreamOfOnePartAsSingleObject() throws Exception {
+        startServer();
+        client.setStreamPartSize(PART_SIZE);
+        byte[] content = content(PART_SIZE);
+        client.putObject(streamPut("part", content, new ObjectMetadata()));
+
+        assertEquals(1, server.getRequests("PUT", null).size());
+        assertTrue(server.getRequests("POST", "uploads").isEmpty());
+        assertArrayEquals(content, readBack("part"));
+    }
+
+    @Test
+    public void putStreamLongerThanOnePartInParts() throws Exception {
+        startServer();
+        client.setStreamPartSize(PART_SIZE);
+        byte[] content = content(PART_SIZE + 1);
+        client.putObject(streamPut("parts", content, new ObjectMetadata()));
+
+        assertTrue(server.getRequests("PUT", null).isEmpty());
+        assertEquals(1, server.getRequests("POST", "uploads").size());
+        assertEquals(2, server.getRequests("PUT", "partNumber").size());
+        assertEquals(1, server.getRequests("POST", "uploadId").size());
+        assertArrayEquals(content, readBack("parts"));
+    }
+
+    @Test
+    public void putStreamInPartsCarriesMetadataAndHeaders() throws Exception {
+        startServer();
+        client.setStreamPartSize(PART_SIZE);
+        ObjectMetadata meta = new ObjectMetadata();
+        meta.setContentType("text/plain");
+        meta.addUserMetadata("project", "alpha");
+        PutObjectRequest req = streamPut("parts", content(PART_SIZE + 1), meta);
+        req.setCannedAcl(CannedAccessControlList.PublicRead);
+        req.setStorageClass(StorageClass.StandardInfrequentAccess);
+        req.setTagging(new ObjectTagging(Collections.singletonList(new Tag("team", "storage"))));
+        req.putCustomRequestHeader("x-test-header", "value");
+        client.putObject(req);
+
+        List<StubS3Server.Request> initiates = server.getRequests("POST", "uploads");
+        assertEquals(1, initiates.size());
+        Map<String, String> headers = initiates.get(0).headers;
+        assertEquals("text/plain", headers.get("content-type"));
+        assertEquals("alpha", headers.get("x-amz-meta-project"));
+        assertNotNull("Envelope missing",
+                headers.get("x-amz-meta-" + IonicMaterialsDescription.MATDESC_HEADER));
+        assertEquals("public-read", headers.get("x-amz-acl"));
+        assertEquals("STANDARD_IA", headers.get("x-amz-storage-class"));
+        assertEquals("team=storage", headers.get("x-amz-tagging"));
+        for (StubS3Server.Request request : server.getRequests()) {
+            assertEquals("Custom header missing from " + request, "value",
+                    request.headers.get("x-test-header"));
+        }
+
+        S3Object object = client.getObject(new GetObjectRequest(BUCKET, "parts"));
+        object.close();
+        assertEquals("alpha", object.getObjectMetadata().getUserMetaDataOf("project"));
+    }
+}
+
@@ -0,0 +1,58 @@
+/*
+ * (c) 2019-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as the
+ * Terms & Conditions (https://dev.ionic.com/use.html) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.awss3;
+
+import static org.junit.Assert.*;
+
+import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import com.amazonaws.util.IOUtils;
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+import org.junit.Test;
+
+
+public class UTReadAheadInputStreamTest {
+
+    private static byte[] content(int size) {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+
+    @Test
+    public void readsBufferedThenDirectContent() throws Exception {
+        byte[] content = content(100000);
+        ReadAheadInputStream in = new ReadAheadInputStream(
+                new S3ObjectInputStream(new ByteArrayInputStream(content), null), 4096);
+        Thread download = new Thread(in);
+        download.start();
+        download.join();
+        assertEquals(4096, in.available());
+        assertArrayEquals(content, IOUtils.toByteArray(in));
+        in.close();
+    }
+
+    @Test
+    public void readsShortContentToTheEnd() throws Exception {
+        byte[] content = content(100);
+        ReadAheadInputStream in = new ReadAheadInputStream(
+                new S3ObjectInputStream(new ByteArrayInputStream(content), null), 4096);
+        in.run();
+        assertArrayEquals(content, IOUtils.toByteArray(in));
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void bypassesReadAheadThatNeverStarted() throws Exception {
+        byte[] content = content(10000);
+        ReadAheadInputStream in = new ReadAheadInputStream(
+                new S3ObjectInputStream(new ByteArrayInputStream(content), null), 4096);
+        assertArrayEquals(content, IOUtils.toByteArray(in));
+        in.run();
+        assertEquals("Late read ahead consumed content", -1, in.read());
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * (c) 2019-2021 Ionic Security Inc. By using this code, I agree to the LICENSE included, as well as the
+ * Terms & Conditions (https://dev.ionic.com/use.html) and the Privacy Policy
+ * (https://www.ionic.com/privacy-notice/).
+ */
+
+package com.ionic.cloudstorage.awss3;
+
+import static org.junit.Assert.*;
+
+import com.amazonaws.util.IOUtils;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import org.junit.Test;
+
+
+public class UTReopenableInputStreamTest {
+
+    private static byte[] content(int size) {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+
+    @Test
+    public void resetReopensSourceAndSkipsToMark() throws Exception {
+        final byte[] content = content(10000);
+        ReopenableInputStream in = new ReopenableInputStream(IonicContentSource.fromSupplier(
+                new Callable<InputStream>() {
+                    @Override
+                    public InputStream call() {
+                        return new ByteArrayInputStream(content);
+                    }
+                }, content.length));
+        assertTrue(in.markSupported());
+        in.mark(1);
+        in.reset();
+        assertEquals(0, in.getOpenCount());
+
+        assertEquals(content[0] & 0xff, in.read());
+        in.reset();
+        assertEquals(2, in.getOpenCount());
+        assertArrayEquals(content, IOUtils.toByteArray(in));
+        assertEquals(2, in.getOpenCount());
+
+        in.reset();
+        assertEquals(100, in.skip(100));
+        in.mark(1);
+        IOUtils.toByteArray(in);
+        in.reset();
+        assertEquals(4, in.getOpenCount());
+        assertArrayEquals(Arrays.copyOfRange(content, 100, content.length),
+                IOUtils.toByteArray(in));
+        in.close();
+    }
+
+    @Test
+    public void readsFileRegion() throws Exception {
+        byte[] content = content(5000);
+        File file = File.createTempFile("UTReopenableInputStreamTest", null);
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(content);
+        out.close();
+
+        IonicContentSource source = IonicContentSource.fromFile(file, 1000, 3000);
+        assertEquals(3000, source.getLength());
+        ReopenableInputStream in = new ReopenableInputStream(source);
+        assertArrayEquals(Arrays.copyOfRange(content, 1000, 4000), IOUtils.toByteArray(in));
+        assertEquals(-1, in.read());
+        in.reset();
+        assertArrayEquals(Arrays.copyOfRange(content, 1000, 4000), IOUtils.toByteArray(in));
+        in.close();
+
+        assertEquals(content.length, IonicContentSource.fromFile(file).getLength());
+        assertTrue(file.delete());
+    }
+
+    @Test
+    public void supplierFailureIsIOException() throws Exception {
+        ReopenableInputStream in = new ReopenableInputStream(IonicContentSource.fromSupplier(
+                new Callable<InputStream>() {
+                    @Override
+                    public InputStream call() throws Exception {
+                        throw new IllegalStateException("closed");
+                    }
+                }, 1));
+        try {
+            in.read();
+            fail("Read from a source that could not be opened");
+        } catch (IOException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+}